@@ -310,7 +310,7 @@ StartUp()
     mkdir -p logs
 
     java -cp ${SELENIUM_ARTIFACT}:${ZALENIUM_ARTIFACT} org.openqa.grid.selenium.GridLauncher \
-    -role hub -port 4445 -servlets de.zalando.tip.zalenium.servlet.live \
+    -role hub -port 4445 -servlets de.zalando.tip.zalenium.servlet.live,de.zalando.tip.zalenium.servlet.liveEvents,de.zalando.tip.zalenium.servlet.results \
     -throwOnCapabilityNotPresent true > logs/stdout.zalenium.hub.log &
     echo $! > ${PID_PATH_SELENIUM}
 
@@ -0,0 +1,147 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sessions a cloud testing provider runs in parallel for the account, shared by all the proxies of the provider.
+ * Requests over the limit stay in the hub's queue instead of being rejected by the provider and failing the test.
+ * The limit is read from the account information of the provider (or its backup file), and refreshed periodically
+ * because the plan can change, and other users of the account take sessions as well.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CloudConcurrencyLimit {
+
+    @VisibleForTesting
+    static final String ZALENIUM_CLOUD_CONCURRENCY_REFRESH = "ZALENIUM_CLOUD_CONCURRENCY_REFRESH";
+    @VisibleForTesting
+    static final int DEFAULT_CLOUD_CONCURRENCY_REFRESH = 300;
+    // Used while the limit of the account is not known
+    @VisibleForTesting
+    static final int DEFAULT_CONCURRENCY = 5;
+    private static final Logger LOGGER = Logger.getLogger(CloudConcurrencyLimit.class.getName());
+    private static final Map<String, CloudConcurrencyLimit> limits = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService refreshExecutor;
+    private final String provider;
+    private final IntSupplier accountConcurrency;
+    private final ResizableSemaphore permits;
+    private int limit;
+
+    @VisibleForTesting
+    CloudConcurrencyLimit(String provider, IntSupplier accountConcurrency) {
+        this.provider = provider;
+        this.accountConcurrency = accountConcurrency;
+        int concurrency = accountConcurrency.getAsInt();
+        this.limit = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+        this.permits = new ResizableSemaphore(limit);
+        LOGGER.log(Level.INFO, () -> String.format("[%s] %s sessions in parallel allowed%s.", provider, limit,
+                concurrency > 0 ? "" : " (account limit not available)"));
+    }
+
+    /*
+        The limit of the provider, the account information is read when the first proxy of the provider registers.
+     */
+    static CloudConcurrencyLimit getInstance(String provider, IntSupplier accountConcurrency, Environment env) {
+        return limits.computeIfAbsent(provider, key -> {
+            CloudConcurrencyLimit concurrencyLimit = new CloudConcurrencyLimit(provider, accountConcurrency);
+            scheduleRefresh(concurrencyLimit, env);
+            return concurrencyLimit;
+        });
+    }
+
+    private static synchronized void scheduleRefresh(CloudConcurrencyLimit concurrencyLimit, Environment env) {
+        int refreshInterval = env.getIntEnvVariable(ZALENIUM_CLOUD_CONCURRENCY_REFRESH,
+                DEFAULT_CLOUD_CONCURRENCY_REFRESH);
+        if (refreshInterval <= 0) {
+            return;
+        }
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "zalenium-cloud-concurrency");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        refreshExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                concurrencyLimit.refresh();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, e.toString(), e);
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    /*
+        A permit for a new session, or null when the account has no free sessions.
+     */
+    public Permit tryAcquire() {
+        return permits.tryAcquire() ? new Permit() : null;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    /*
+        Reads the limit of the account again, running sessions keep going when it got lower.
+     */
+    @VisibleForTesting
+    synchronized void refresh() {
+        int concurrency = accountConcurrency.getAsInt();
+        if (concurrency <= 0 || concurrency == limit) {
+            return;
+        }
+        if (concurrency > limit) {
+            permits.release(concurrency - limit);
+        } else {
+            permits.reducePermits(limit - concurrency);
+        }
+        LOGGER.log(Level.INFO, String.format("[%s] Sessions in parallel allowed changed from %s to %s.", provider,
+                limit, concurrency));
+        limit = concurrency;
+    }
+
+    /*
+        Released once the session is over, releasing it again does nothing.
+     */
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        // Permits can go below zero, then sessions have to finish before new ones start
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+}
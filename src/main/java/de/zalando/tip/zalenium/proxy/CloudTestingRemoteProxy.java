@@ -20,9 +20,11 @@ import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
 import org.openqa.grid.web.servlet.handler.RequestType;
 import org.openqa.grid.web.servlet.handler.WebDriverRequest;
 import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
@@ -33,6 +35,7 @@ import java.util.logging.Logger;
 public class CloudTestingRemoteProxy extends DefaultRemoteProxy {
 
     private static final Logger logger = Logger.getLogger(CloudTestingRemoteProxy.class.getName());
+    private static final String CONCURRENCY_PERMIT = "zaleniumConcurrencyPermit";
     private static final GoogleAnalyticsApi defaultGA = new GoogleAnalyticsApi();
     private static final CommonProxyUtilities defaultCommonProxyUtilities = new CommonProxyUtilities();
     private static final Environment defaultEnvironment = new Environment();
@@ -105,8 +108,75 @@ public class CloudTestingRemoteProxy extends DefaultRemoteProxy {
         super.beforeCommand(session, request, response);
     }
 
+    /*
+        Slots for as many sessions as the provider allows for the account.
+     */
+    protected static RegistrationRequest setMaxSessions(RegistrationRequest registrationRequest, int maxSessions) {
+        registrationRequest.getConfiguration().put(RegistrationRequest.MAX_SESSION, maxSessions);
+        for (DesiredCapabilities desiredCapabilities : registrationRequest.getCapabilities()) {
+            desiredCapabilities.setCapability(RegistrationRequest.MAX_INSTANCES, maxSessions);
+        }
+        return registrationRequest;
+    }
+
+    /*
+        Sessions in parallel allowed by the provider for the account, null when there is no limit.
+     */
+    protected CloudConcurrencyLimit getConcurrencyLimit() {
+        return null;
+    }
+
+    /*
+        A session is only created when the account has a free session, otherwise the request waits in the queue.
+        Sessions for requests that docker-selenium could also serve are only created here when the routing policy
+        let them overflow, each of them uses one of the requests allowed to overflow.
+     */
+    @Override
+    public TestSession getNewSession(Map<String, Object> requestedCapability) {
+        CloudConcurrencyLimit concurrencyLimit = getConcurrencyLimit();
+        CloudConcurrencyLimit.Permit permit = null;
+        if (concurrencyLimit != null) {
+            permit = concurrencyLimit.tryAcquire();
+            if (permit == null) {
+                logger.log(Level.FINE, "{0} sessions of the account in use, request stays in the queue",
+                        concurrencyLimit.getLimit());
+                return null;
+            }
+        }
+        TestSession newSession = super.getNewSession(requestedCapability);
+        if (permit != null) {
+            if (newSession == null) {
+                permit.release();
+            } else {
+                newSession.put(CONCURRENCY_PERMIT, permit);
+            }
+        }
+        if (newSession != null && getCapabilityHelper() instanceof ZaleniumCapabilityMatcher &&
+                ((ZaleniumCapabilityMatcher) getCapabilityHelper()).isSupportedByDockerSelenium(requestedCapability)) {
+            logger.log(Level.INFO, "Sending request to {0} to avoid waiting for docker-selenium: {1}",
+                    new Object[]{getProxyName(), requestedCapability});
+            OverflowRoutingPolicy.getInstance().overflowed(
+                    requestedCapability.get(CapabilityType.BROWSER_NAME).toString());
+        }
+        return newSession;
+    }
+
+    @Override
+    public void afterSession(TestSession session) {
+        super.afterSession(session);
+        Object permit = session.get(CONCURRENCY_PERMIT);
+        if (permit instanceof CloudConcurrencyLimit.Permit) {
+            ((CloudConcurrencyLimit.Permit) permit).release();
+        }
+    }
+
     @Override
     public void afterCommand(TestSession session, HttpServletRequest request, HttpServletResponse response) {
+        if (request instanceof WebDriverRequest && "POST".equalsIgnoreCase(request.getMethod()) &&
+                RequestType.START_SESSION.equals(((WebDriverRequest) request).getRequestType())) {
+            OverflowRoutingPolicy.getInstance().recordProviderStartLatency(getProxyName(),
+                    System.currentTimeMillis() - session.getSlot().getLastSessionStart());
+        }
         if (request instanceof WebDriverRequest && "DELETE".equalsIgnoreCase(request.getMethod())) {
             WebDriverRequest seleniumRequest = (WebDriverRequest) request;
             if (seleniumRequest.getRequestType().equals(RequestType.STOP_SESSION)) {
@@ -143,6 +213,14 @@ public class CloudTestingRemoteProxy extends DefaultRemoteProxy {
         return null;
     }
 
+    /*
+        Whether the video of the job is final, asked to the provider before downloading it. UNKNOWN when the provider
+        cannot tell, then the download is just attempted after a while and retried.
+     */
+    public CloudVideoDownloadQueue.VideoStatus getVideoStatus(String seleniumSessionId) {
+        return CloudVideoDownloadQueue.VideoStatus.UNKNOWN;
+    }
+
     public String getProxyName() {
         return null;
     }
@@ -163,17 +241,22 @@ public class CloudTestingRemoteProxy extends DefaultRemoteProxy {
                 commonProxyUtilities.getCurrentDateAndTimeFormatted(), getVideoFileExtension()).
                 replace(' ', '_');
         String finalTestName = testName;
-        new Thread(() -> {
-            String localPath = commonProxyUtilities.currentLocalPath() + "/videos/";
-            String videoFileNameWithFullPath = localPath + fileName;
-            try {
-                commonProxyUtilities.downloadFile(videoFileNameWithFullPath, getVideoUrl(seleniumSessionId));
-                commonProxyUtilities.updateDashboard(finalTestName, executionTime, getProxyName(),
-                        browserName, platform, fileName, localPath);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, e.toString(), e);
-            }
-        }).start();
+        long finalExecutionTime = executionTime;
+        String localPath = commonProxyUtilities.currentLocalPath() + "/videos/";
+        File videoFile = new File(localPath, fileName);
+        CloudVideoDownloadQueue.getInstance(env).submit(getProxyName(), fileName,
+                () -> getVideoStatus(seleniumSessionId),
+                () -> commonProxyUtilities.downloadToFile(getVideoUrl(seleniumSessionId), videoFile),
+                () -> {
+                    logger.log(Level.INFO, "Video of session " + seleniumSessionId + " downloaded to " + videoFile);
+                    try {
+                        commonProxyUtilities.updateDashboard(finalTestName, finalExecutionTime, getProxyName(),
+                                browserName, platform, fileName, localPath);
+                    } catch (Exception e) {
+                        logger.log(Level.SEVERE, e.toString(), e);
+                    }
+                },
+                () -> commonProxyUtilities.deletePartialDownload(videoFile));
     }
 
     @Override
@@ -0,0 +1,337 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the videos of the sessions that ran in a cloud testing provider. A few workers do the downloads, and
+ * downloads that have to wait (the video is not ready yet, a retry, or the provider's rate limit) sit in the delay
+ * queue of the executor instead of keeping a sleeping thread each.
+ * When the provider tells through its API whether the video of a job is final, that status is polled with a growing
+ * interval and the download starts once the video is ready. Otherwise the first attempt waits a fixed time.
+ * Failed downloads are retried with an exponential backoff plus a random part, so the downloads of sessions that
+ * finished together do not hit the provider again at the same time.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CloudVideoDownloadQueue {
+
+    @VisibleForTesting
+    static final String ZALENIUM_MAX_CONCURRENT_DOWNLOADS = "ZALENIUM_MAX_CONCURRENT_DOWNLOADS";
+    @VisibleForTesting
+    static final String ZALENIUM_CLOUD_DOWNLOADS_PER_MINUTE = "ZALENIUM_CLOUD_DOWNLOADS_PER_MINUTE";
+    @VisibleForTesting
+    static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    // Per provider, 0 means no limit
+    @VisibleForTesting
+    static final int DEFAULT_CLOUD_DOWNLOADS_PER_MINUTE = 60;
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 10;
+    // Videos are usually not ready right away
+    @VisibleForTesting
+    static final long FIRST_ATTEMPT_DELAY = TimeUnit.SECONDS.toMillis(5);
+    @VisibleForTesting
+    static final long RETRY_BACKOFF = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+    @VisibleForTesting
+    static final long STATUS_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_STATUS_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    // After this, the download is attempted even if the provider still says the video is not ready
+    @VisibleForTesting
+    static final long STATUS_POLL_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    private static final Logger LOGGER = Logger.getLogger(CloudVideoDownloadQueue.class.getName());
+    private static final String LOGGING_PREFIX = "[DQ] ";
+    private static CloudVideoDownloadQueue instance;
+    private final ScheduledThreadPoolExecutor downloadExecutor;
+    private final long downloadInterval;
+    private final Map<String, Long> nextDownloadTimes = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingDownloads = new AtomicInteger();
+    private final LongAdder completedDownloads = new LongAdder();
+    private final LongAdder failedDownloads = new LongAdder();
+    private final LongAdder completionLatency = new LongAdder();
+    private final LongAdder statusChecks = new LongAdder();
+    private long firstAttemptDelay = FIRST_ATTEMPT_DELAY;
+    private long retryBackoff = RETRY_BACKOFF;
+    private long statusPollInterval = STATUS_POLL_INTERVAL;
+
+    @VisibleForTesting
+    CloudVideoDownloadQueue(Environment env) {
+        int workers = env.getIntEnvVariable(ZALENIUM_MAX_CONCURRENT_DOWNLOADS, DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+        int downloadsPerMinute = env.getIntEnvVariable(ZALENIUM_CLOUD_DOWNLOADS_PER_MINUTE,
+                DEFAULT_CLOUD_DOWNLOADS_PER_MINUTE);
+        this.downloadInterval = downloadsPerMinute <= 0 ? 0 : TimeUnit.MINUTES.toMillis(1) / downloadsPerMinute;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.downloadExecutor = new ScheduledThreadPoolExecutor(workers <= 0 ? DEFAULT_MAX_CONCURRENT_DOWNLOADS : workers,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "zalenium-cloud-video-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    static synchronized CloudVideoDownloadQueue getInstance(Environment env) {
+        if (instance == null) {
+            instance = new CloudVideoDownloadQueue(env);
+        }
+        return instance;
+    }
+
+    /*
+        Downloads waiting, running or waiting for a retry.
+     */
+    public int getQueueLength() {
+        return pendingDownloads.get();
+    }
+
+    public long getCompletedDownloads() {
+        return completedDownloads.sum();
+    }
+
+    public long getFailedDownloads() {
+        return failedDownloads.sum();
+    }
+
+    /*
+        Answers from the providers about whether a video is ready, UNKNOWN not included.
+     */
+    public long getStatusChecks() {
+        return statusChecks.sum();
+    }
+
+    /*
+        Average time from the end of a session until its video was downloaded, in milliseconds.
+     */
+    public long getAverageCompletionLatency() {
+        long completed = completedDownloads.sum();
+        return completed == 0 ? 0 : completionLatency.sum() / completed;
+    }
+
+    @VisibleForTesting
+    void setFirstAttemptDelay(long firstAttemptDelay) {
+        this.firstAttemptDelay = firstAttemptDelay;
+    }
+
+    @VisibleForTesting
+    void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    @VisibleForTesting
+    void setStatusPollInterval(long statusPollInterval) {
+        this.statusPollInterval = statusPollInterval;
+    }
+
+    /*
+        The download throws an exception when it failed and should be retried. After it succeeded, onSuccess runs,
+        and onFailure runs when the last attempt failed.
+     */
+    void submit(String provider, String videoName, Download download, Runnable onSuccess, Runnable onFailure) {
+        submit(provider, videoName, () -> VideoStatus.UNKNOWN, download, onSuccess, onFailure);
+    }
+
+    /*
+        Same as above, the download starts once videoStatus says the video is ready.
+     */
+    void submit(String provider, String videoName, Supplier<VideoStatus> videoStatus, Download download,
+                Runnable onSuccess, Runnable onFailure) {
+        pendingDownloads.incrementAndGet();
+        long submitted = System.currentTimeMillis();
+        LOGGER.log(Level.FINE, () -> String.format("%s[%s] Download of %s queued, %s pending.", LOGGING_PREFIX,
+                provider, videoName, pendingDownloads.get()));
+        DownloadJob job = new DownloadJob(provider, videoName, videoStatus, download, onSuccess, onFailure, submitted);
+        if (downloadExecutor.isShutdown()) {
+            finish(job, false);
+            return;
+        }
+        downloadExecutor.execute(() -> checkStatus(job));
+    }
+
+    /*
+        Polls the status until the video is ready. When the provider cannot tell, the download is attempted after
+        the fixed first delay and retried as usual.
+     */
+    private void checkStatus(DownloadJob job) {
+        VideoStatus status = getVideoStatus(job);
+        switch (status) {
+            case READY:
+                LOGGER.log(Level.FINE, () -> String.format("%s[%s] %s is ready after %s status checks.",
+                        LOGGING_PREFIX, job.provider, job.videoName, job.statusChecks));
+                startAttempt(job);
+                break;
+            case PROCESSING:
+                if (System.currentTimeMillis() - job.submitted >= STATUS_POLL_TIMEOUT) {
+                    LOGGER.log(Level.INFO, () -> String.format("%s[%s] %s still not ready, trying to download it.",
+                            LOGGING_PREFIX, job.provider, job.videoName));
+                    startAttempt(job);
+                } else {
+                    scheduleStatusCheck(job, getStatusPollDelay(job.statusChecks));
+                }
+                break;
+            case NOT_AVAILABLE:
+                LOGGER.log(Level.INFO, () -> String.format("%s[%s] No video available for %s.", LOGGING_PREFIX,
+                        job.provider, job.videoName));
+                finish(job, false);
+                break;
+            default:
+                schedule(job, Math.max(firstAttemptDelay - (System.currentTimeMillis() - job.submitted), 0));
+        }
+    }
+
+    private VideoStatus getVideoStatus(DownloadJob job) {
+        job.statusChecks++;
+        try {
+            VideoStatus status = job.videoStatus.get();
+            if (status != VideoStatus.UNKNOWN) {
+                statusChecks.increment();
+            }
+            return status == null ? VideoStatus.UNKNOWN : status;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, LOGGING_PREFIX + job.videoName + " " + e.toString(), e);
+            return VideoStatus.UNKNOWN;
+        }
+    }
+
+    private void scheduleStatusCheck(DownloadJob job, long delay) {
+        if (downloadExecutor.isShutdown()) {
+            finish(job, false);
+            return;
+        }
+        downloadExecutor.schedule(() -> checkStatus(job), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+        Doubles after each check until it reaches the maximum poll interval.
+     */
+    @VisibleForTesting
+    long getStatusPollDelay(int statusChecks) {
+        return Math.min(statusPollInterval << Math.min(Math.max(statusChecks - 1, 0), 16), MAX_STATUS_POLL_INTERVAL);
+    }
+
+    private void schedule(DownloadJob job, long delay) {
+        if (downloadExecutor.isShutdown()) {
+            finish(job, false);
+            return;
+        }
+        downloadExecutor.schedule(() -> startAttempt(job), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+        The attempt waits in the queue again when the provider had a download too recently.
+     */
+    private void startAttempt(DownloadJob job) {
+        long rateLimitDelay = reserveDownload(job.provider);
+        if (rateLimitDelay > 0) {
+            downloadExecutor.schedule(() -> attempt(job), rateLimitDelay, TimeUnit.MILLISECONDS);
+        } else {
+            attempt(job);
+        }
+    }
+
+    private void attempt(DownloadJob job) {
+        job.attempts++;
+        try {
+            job.download.run();
+            finish(job, true);
+        } catch (Exception e) {
+            if (job.attempts >= MAX_ATTEMPTS) {
+                LOGGER.log(Level.SEVERE, String.format("%s[%s] Download of %s failed after %s attempts. %s",
+                        LOGGING_PREFIX, job.provider, job.videoName, job.attempts, e.toString()), e);
+                finish(job, false);
+                return;
+            }
+            long delay = getRetryDelay(job.attempts);
+            LOGGER.log(Level.INFO, () -> String.format("%s[%s] Download of %s failed (%s), retrying in %sms.",
+                    LOGGING_PREFIX, job.provider, job.videoName, e.toString(), delay));
+            schedule(job, delay);
+        }
+    }
+
+    private void finish(DownloadJob job, boolean downloaded) {
+        try {
+            if (downloaded) {
+                long latency = System.currentTimeMillis() - job.submitted;
+                completedDownloads.increment();
+                completionLatency.add(latency);
+                LOGGER.log(Level.FINE, () -> String.format("%s[%s] %s downloaded after %sms, %s pending, %sms on " +
+                                "average.", LOGGING_PREFIX, job.provider, job.videoName, latency,
+                        pendingDownloads.get() - 1, getAverageCompletionLatency()));
+                job.onSuccess.run();
+            } else {
+                failedDownloads.increment();
+                job.onFailure.run();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + job.videoName + " " + e.toString(), e);
+        } finally {
+            pendingDownloads.decrementAndGet();
+        }
+    }
+
+    /*
+        Exponential backoff, half of it random.
+     */
+    @VisibleForTesting
+    long getRetryDelay(int attempts) {
+        long backoff = Math.min(retryBackoff << Math.min(attempts - 1, 16), MAX_RETRY_BACKOFF);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /*
+        Takes the next download slot of the provider, returns how long to wait for it.
+     */
+    private long reserveDownload(String provider) {
+        if (downloadInterval == 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long slot = nextDownloadTimes.compute(provider, (key, next) ->
+                next == null || next <= now ? now + downloadInterval : next + downloadInterval) - downloadInterval;
+        return Math.max(slot - now, 0);
+    }
+
+    /*
+        What a provider says about the video of a job. UNKNOWN when it cannot say, e.g. its API did not answer.
+     */
+    public enum VideoStatus {
+        READY, PROCESSING, NOT_AVAILABLE, UNKNOWN
+    }
+
+    @FunctionalInterface
+    interface Download {
+        void run() throws Exception;
+    }
+
+    private static final class DownloadJob {
+        private final String provider;
+        private final String videoName;
+        private final Supplier<VideoStatus> videoStatus;
+        private final Download download;
+        private final Runnable onSuccess;
+        private final Runnable onFailure;
+        private final long submitted;
+        private int attempts;
+        private int statusChecks;
+
+        private DownloadJob(String provider, String videoName, Supplier<VideoStatus> videoStatus, Download download,
+                            Runnable onSuccess, Runnable onFailure, long submitted) {
+            this.provider = provider;
+            this.videoName = videoName;
+            this.videoStatus = videoStatus;
+            this.download = download;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+            this.submitted = submitted;
+        }
+    }
+
+}
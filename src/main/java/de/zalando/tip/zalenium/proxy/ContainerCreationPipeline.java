@@ -0,0 +1,182 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates docker-selenium containers in parallel with a fixed amount of workers, so the create and start calls of
+ * several containers overlap instead of running one after the other.
+ * A container that could not be started is retried with an exponential backoff, without blocking a worker while
+ * waiting, unless the max. amount of docker-selenium containers was reached. While the max. amount of containers
+ * is starting, a creation waits for nodes to register without using up its retries.
+ * The latency of each stage (image resolution, create, start) is tracked to see where the time goes.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ContainerCreationPipeline {
+
+    @VisibleForTesting
+    static final String ZALENIUM_CONTAINER_CREATION_PARALLELISM = "ZALENIUM_CONTAINER_CREATION_PARALLELISM";
+    @VisibleForTesting
+    static final String ZALENIUM_CONTAINER_CREATION_RETRIES = "ZALENIUM_CONTAINER_CREATION_RETRIES";
+    @VisibleForTesting
+    static final String ZALENIUM_CONTAINER_CREATION_BACKOFF = "ZALENIUM_CONTAINER_CREATION_BACKOFF";
+    @VisibleForTesting
+    static final int DEFAULT_CONTAINER_CREATION_PARALLELISM = 5;
+    @VisibleForTesting
+    static final int DEFAULT_CONTAINER_CREATION_RETRIES = 3;
+    @VisibleForTesting
+    static final int DEFAULT_CONTAINER_CREATION_BACKOFF = 500;
+    static final String STAGE_IMAGE = "image";
+    static final String STAGE_CREATE = "create";
+    static final String STAGE_START = "start";
+    private static final Logger LOGGER = Logger.getLogger(ContainerCreationPipeline.class.getName());
+    private static final String LOGGING_PREFIX = "[CP] ";
+    private static final Map<String, StageLatency> stageLatencies = new ConcurrentHashMap<>();
+    private final DockerSeleniumStarterRemoteProxy starterProxy;
+    private final int parallelism;
+    private final int retries;
+    private final int backoff;
+    private final ScheduledThreadPoolExecutor creationExecutor;
+    private final Map<String, AtomicInteger> pendingCreations = new ConcurrentHashMap<>();
+
+    ContainerCreationPipeline(DockerSeleniumStarterRemoteProxy starterProxy, Environment env) {
+        this.starterProxy = starterProxy;
+        int configuredParallelism = env.getIntEnvVariable(ZALENIUM_CONTAINER_CREATION_PARALLELISM,
+                DEFAULT_CONTAINER_CREATION_PARALLELISM);
+        this.parallelism = configuredParallelism <= 0 ? DEFAULT_CONTAINER_CREATION_PARALLELISM : configuredParallelism;
+        int configuredRetries = env.getIntEnvVariable(ZALENIUM_CONTAINER_CREATION_RETRIES,
+                DEFAULT_CONTAINER_CREATION_RETRIES);
+        this.retries = configuredRetries < 0 ? DEFAULT_CONTAINER_CREATION_RETRIES : configuredRetries;
+        int configuredBackoff = env.getIntEnvVariable(ZALENIUM_CONTAINER_CREATION_BACKOFF,
+                DEFAULT_CONTAINER_CREATION_BACKOFF);
+        this.backoff = configuredBackoff <= 0 ? DEFAULT_CONTAINER_CREATION_BACKOFF : configuredBackoff;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.creationExecutor = new ScheduledThreadPoolExecutor(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-container-creation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /*
+        Queues the creation of a container for the given browser. The returned future completes with false when the
+        container could not be started after all retries.
+     */
+    CompletableFuture<Boolean> submit(String browser) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        getPendingCounter(browser).incrementAndGet();
+        creationExecutor.execute(() -> attempt(browser, 0, result));
+        return result;
+    }
+
+    /*
+        Containers queued or being created for the given browser, they are not known as starting nodes yet.
+     */
+    int getAmountOfPendingCreations(String browser) {
+        return getPendingCounter(browser.toLowerCase()).get();
+    }
+
+    int getAmountOfPendingCreations() {
+        int pending = 0;
+        for (AtomicInteger counter : pendingCreations.values()) {
+            pending += counter.get();
+        }
+        return pending;
+    }
+
+    void stop() {
+        creationExecutor.shutdownNow();
+    }
+
+    private void attempt(String browser, int attempt, CompletableFuture<Boolean> result) {
+        boolean created = false;
+        try {
+            created = starterProxy.startDockerSeleniumContainer(browser);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+        }
+        if (created) {
+            complete(browser, result, true);
+        } else if (!starterProxy.hasRoomForDockerSeleniumContainer()) {
+            LOGGER.log(Level.FINE, () -> String.format("%s%s container not started, max. amount of containers " +
+                    "reached.", LOGGING_PREFIX, browser));
+            complete(browser, result, false);
+        } else if (!starterProxy.hasRoomForStartingContainer() && !creationExecutor.isShutdown()) {
+            LOGGER.log(Level.FINE, () -> String.format("%s%s container not started, waiting for the starting nodes " +
+                    "to register.", LOGGING_PREFIX, browser));
+            creationExecutor.schedule(() -> attempt(browser, attempt, result), backoff, TimeUnit.MILLISECONDS);
+        } else if (attempt < retries && !creationExecutor.isShutdown()) {
+            long delay = (long) backoff << attempt;
+            LOGGER.log(Level.FINE, () -> String.format("%s%s container not started, retrying in %sms.",
+                    LOGGING_PREFIX, browser, delay));
+            creationExecutor.schedule(() -> attempt(browser, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        } else {
+            complete(browser, result, false);
+        }
+    }
+
+    private void complete(String browser, CompletableFuture<Boolean> result, boolean created) {
+        // Not pending anymore before anyone waiting for the result wakes up
+        getPendingCounter(browser).decrementAndGet();
+        result.complete(created);
+    }
+
+    private AtomicInteger getPendingCounter(String browser) {
+        return pendingCreations.computeIfAbsent(browser.toLowerCase(), key -> new AtomicInteger());
+    }
+
+    static void recordStageLatency(String stage, long latency) {
+        stageLatencies.computeIfAbsent(stage, key -> new StageLatency()).record(latency);
+    }
+
+    /*
+        Average and max. latency per stage, e.g. "image: avg 3ms, max 10ms (12 calls)"
+     */
+    public static String getStageLatencySummary() {
+        StringBuilder summary = new StringBuilder();
+        for (String stage : new String[]{STAGE_IMAGE, STAGE_CREATE, STAGE_START}) {
+            StageLatency latency = stageLatencies.get(stage);
+            if (latency == null || latency.calls.get() == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(String.format("%s: avg %sms, max %sms (%s calls)", stage,
+                    latency.total.get() / latency.calls.get(), latency.max.get(), latency.calls.get()));
+        }
+        return summary.toString();
+    }
+
+    @VisibleForTesting
+    static void resetStageLatencies() {
+        stageLatencies.clear();
+    }
+
+    private static final class StageLatency {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long latency) {
+            calls.incrementAndGet();
+            total.addAndGet(latency);
+            max.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+}
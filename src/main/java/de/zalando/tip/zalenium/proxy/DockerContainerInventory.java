@@ -0,0 +1,302 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Event;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory view of the containers known by the docker daemon, indexed by container id, name and docker-selenium node
+ * port. It is seeded once with a full container list and then kept current by listening to the docker events stream,
+ * so lookups do not need to list and scan all containers every time.
+ * If the events stream is not available, every lookup seeds the inventory again, which is the same amount of work that
+ * was done before the inventory existed.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DockerContainerInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(DockerContainerInventory.class.getName());
+    private static final String LOGGING_PREFIX = "[CI] ";
+    private static final long EVENTS_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final ConcurrentMap<DockerClient, DockerContainerInventory> inventories =
+            new MapMaker().weakKeys().makeMap();
+    private final DockerClient dockerClient;
+    private final Map<String, ContainerEntry> containersById = new ConcurrentHashMap<>();
+    private final Map<String, ContainerEntry> containersByName = new ConcurrentHashMap<>();
+    private final Map<Integer, ContainerEntry> containersByNodePort = new ConcurrentHashMap<>();
+    // Containers whose node already left the grid and are only kept to finalize the video, they do not use quota
+    private final Set<String> finalizingContainerIds = new HashSet<>();
+    private int runningDockerSeleniumContainers;
+    private volatile boolean listeningToEvents;
+    private boolean eventsThreadStarted;
+
+    private DockerContainerInventory(DockerClient dockerClient) {
+        this.dockerClient = dockerClient;
+    }
+
+    static DockerContainerInventory getInstance(DockerClient dockerClient) {
+        DockerContainerInventory inventory = inventories.computeIfAbsent(dockerClient, DockerContainerInventory::new);
+        inventory.ensureListening();
+        return inventory;
+    }
+
+    public synchronized int getAmountOfRunningDockerSeleniumContainers() {
+        seedIfNotListening();
+        return runningDockerSeleniumContainers;
+    }
+
+    public synchronized String getContainerIdByName(String containerName) {
+        seedIfNotListening();
+        ContainerEntry entry = containersByName.get(normalizeName(containerName));
+        return entry == null ? null : entry.id;
+    }
+
+    public synchronized String getContainerIdByNodePort(int nodePort) {
+        seedIfNotListening();
+        ContainerEntry entry = containersByNodePort.get(nodePort);
+        return entry == null ? null : entry.id;
+    }
+
+    /*
+        Registers a container started by Zalenium right away, without waiting for its event to arrive.
+     */
+    public synchronized void containerStarted(String containerId, String containerName, String image) {
+        put(new ContainerEntry(containerId, normalizeName(containerName), image, true, false));
+    }
+
+    /*
+        The node of the container left the grid, the container is not counted as running anymore while its video is
+        finalized.
+     */
+    public synchronized void containerFinalizing(String containerId) {
+        finalizingContainerIds.add(containerId);
+        ContainerEntry entry = containersById.get(containerId);
+        if (entry != null) {
+            put(entry.withFinalizing(true));
+        }
+    }
+
+    @VisibleForTesting
+    void setListeningToEvents(boolean listeningToEvents) {
+        this.listeningToEvents = listeningToEvents;
+    }
+
+    private synchronized void ensureListening() {
+        if (eventsThreadStarted) {
+            return;
+        }
+        eventsThreadStarted = true;
+        Thread eventsThread = new Thread(this::listenToEvents, "zalenium-container-inventory");
+        eventsThread.setDaemon(true);
+        eventsThread.start();
+    }
+
+    private void seedIfNotListening() {
+        if (!listeningToEvents) {
+            seed();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void seed() {
+        try {
+            List<Container> containerList = dockerClient.listContainers(DockerClient.ListContainersParam.allContainers());
+            clear();
+            if (containerList == null) {
+                finalizingContainerIds.clear();
+                return;
+            }
+            Set<String> listedContainerIds = new HashSet<>();
+            for (Container container : containerList) {
+                if (container.names() == null || container.names().isEmpty()) {
+                    continue;
+                }
+                listedContainerIds.add(container.id());
+                boolean running = !"exited".equalsIgnoreCase(container.state());
+                put(new ContainerEntry(container.id(), normalizeName(container.names().get(0)), container.image(),
+                        running, finalizingContainerIds.contains(container.id())));
+            }
+            finalizingContainerIds.retainAll(listedContainerIds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+        }
+    }
+
+    private void listenToEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            // The stream is opened before seeding, so no event is lost between both steps.
+            try (EventStream eventStream = dockerClient.events()) {
+                if (eventStream == null) {
+                    LOGGER.log(Level.FINE, LOGGING_PREFIX + "Docker events are not available, inventory will be seeded " +
+                            "on every lookup.");
+                    return;
+                }
+                seed();
+                listeningToEvents = true;
+                LOGGER.log(Level.FINE, LOGGING_PREFIX + "Listening to docker events.");
+                while (eventStream.hasNext()) {
+                    processEvent(eventStream.next());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, LOGGING_PREFIX + "Docker events stream closed, reconnecting. " + e.toString(), e);
+            } finally {
+                listeningToEvents = false;
+            }
+            try {
+                Thread.sleep(EVENTS_RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void processEvent(Event event) {
+        if (event.type() == Event.Type.IMAGE) {
+            // A pulled, tagged or removed image can change which docker-selenium image is the latest one
+            DockerSeleniumImageResolver.getInstance(dockerClient).invalidate();
+            return;
+        }
+        if (event.type() != null && event.type() != Event.Type.CONTAINER) {
+            return;
+        }
+        String action = event.action() != null ? event.action() : event.status();
+        String containerId = event.actor() != null ? event.actor().id() : event.id();
+        if (action == null || containerId == null) {
+            return;
+        }
+        ContainerEntry entry = containersById.get(containerId);
+        switch (action) {
+            case "create":
+            case "start":
+                if (entry == null) {
+                    Map<String, String> attributes = event.actor() != null ? event.actor().attributes() : null;
+                    if (attributes == null || !attributes.containsKey("name")) {
+                        return;
+                    }
+                    String image = attributes.getOrDefault("image", event.from());
+                    entry = new ContainerEntry(containerId, normalizeName(attributes.get("name")), image, false,
+                            false);
+                }
+                // Same as in the container list, a container counts as running until it exits
+                put(entry.withRunning(true));
+                break;
+            case "die":
+                if (entry != null) {
+                    put(entry.withRunning(false));
+                }
+                break;
+            case "destroy":
+                finalizingContainerIds.remove(containerId);
+                if (entry != null) {
+                    remove(entry);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void put(ContainerEntry entry) {
+        ContainerEntry previous = containersById.get(entry.id);
+        if (previous != null) {
+            remove(previous);
+        }
+        containersById.put(entry.id, entry);
+        containersByName.put(entry.name, entry);
+        int nodePort = getNodePort(entry.name);
+        if (nodePort != -1) {
+            containersByNodePort.put(nodePort, entry);
+        }
+        if (entry.isRunningDockerSelenium()) {
+            runningDockerSeleniumContainers++;
+        }
+    }
+
+    private void remove(ContainerEntry entry) {
+        containersById.remove(entry.id);
+        containersByName.remove(entry.name, entry);
+        containersByNodePort.remove(getNodePort(entry.name), entry);
+        if (entry.isRunningDockerSelenium()) {
+            runningDockerSeleniumContainers--;
+        }
+    }
+
+    private void clear() {
+        containersById.clear();
+        containersByName.clear();
+        containersByNodePort.clear();
+        runningDockerSeleniumContainers = 0;
+    }
+
+    /*
+        Names are looked up ignoring the case, as the name lookups did before the inventory.
+     */
+    private static String normalizeName(String containerName) {
+        String name = containerName.startsWith("/") ? containerName.substring(1) : containerName;
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /*
+        docker-selenium containers are named after the Zalenium container and their node port, e.g. zalenium_40000
+     */
+    private static int getNodePort(String containerName) {
+        String prefix = normalizeName(DockerSeleniumStarterRemoteProxy.getContainerName() + "_");
+        if (!containerName.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(containerName.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class ContainerEntry {
+        private final String id;
+        private final String name;
+        private final String image;
+        private final boolean running;
+        private final boolean finalizing;
+
+        private ContainerEntry(String id, String name, String image, boolean running, boolean finalizing) {
+            this.id = id;
+            this.name = name;
+            this.image = image;
+            this.running = running;
+            this.finalizing = finalizing;
+        }
+
+        private ContainerEntry withRunning(boolean running) {
+            return new ContainerEntry(id, name, image, running, finalizing);
+        }
+
+        private ContainerEntry withFinalizing(boolean finalizing) {
+            return new ContainerEntry(id, name, image, running, finalizing);
+        }
+
+        private boolean isRunningDockerSelenium() {
+            return running && !finalizing && image != null && image.contains(DockerSeleniumStarterRemoteProxy.DOCKER_SELENIUM_IMAGE);
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts docker-selenium containers based on the demand seen in the hub's new session request queue.
+ * Every tick, the queued requests are counted per browser and compared with the nodes that could take them (idle
+ * nodes plus containers that were started and have not registered yet). The missing containers are started, as long
+ * as the max. amount of docker-selenium containers and the max. amount of containers starting at the same time are
+ * respected. The last limit avoids flooding the hub with more node registrations than it can process.
+ * Containers are handed to the creation pipeline, so a tick does not wait for them to be created.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DockerSeleniumAutoscaler {
+
+    @VisibleForTesting
+    static final String ZALENIUM_AUTOSCALER_INTERVAL = "ZALENIUM_AUTOSCALER_INTERVAL";
+    @VisibleForTesting
+    static final String ZALENIUM_MAX_STARTING_CONTAINERS = "ZALENIUM_MAX_STARTING_CONTAINERS";
+    @VisibleForTesting
+    static final int DEFAULT_AUTOSCALER_INTERVAL = 500;
+    @VisibleForTesting
+    static final int DEFAULT_MAX_STARTING_CONTAINERS = 20;
+    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumAutoscaler.class.getName());
+    private static final String LOGGING_PREFIX = "[AS] ";
+    private static final List<String> SUPPORTED_BROWSERS = Arrays.asList(BrowserType.CHROME, BrowserType.FIREFOX);
+    private final DockerSeleniumStarterRemoteProxy starterProxy;
+    private final int interval;
+    private final int maxStartingContainers;
+    private ScheduledExecutorService scalingExecutor;
+
+    DockerSeleniumAutoscaler(DockerSeleniumStarterRemoteProxy starterProxy, Environment env) {
+        this.starterProxy = starterProxy;
+        int configuredInterval = env.getIntEnvVariable(ZALENIUM_AUTOSCALER_INTERVAL, DEFAULT_AUTOSCALER_INTERVAL);
+        this.interval = configuredInterval <= 0 ? DEFAULT_AUTOSCALER_INTERVAL : configuredInterval;
+        int configuredMaxStarting = env.getIntEnvVariable(ZALENIUM_MAX_STARTING_CONTAINERS,
+                DEFAULT_MAX_STARTING_CONTAINERS);
+        this.maxStartingContainers = configuredMaxStarting <= 0 ? DEFAULT_MAX_STARTING_CONTAINERS :
+                configuredMaxStarting;
+    }
+
+    public int getMaxStartingContainers() {
+        return maxStartingContainers;
+    }
+
+    synchronized void start() {
+        if (scalingExecutor != null) {
+            return;
+        }
+        LOGGER.log(Level.INFO, () -> String.format("%sChecking the new session queue every %sms, max. %s containers " +
+                "starting at the same time.", LOGGING_PREFIX, interval, maxStartingContainers));
+        scalingExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scalingExecutor.scheduleWithFixedDelay(this::scale, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scalingExecutor != null) {
+            scalingExecutor.shutdownNow();
+            scalingExecutor = null;
+        }
+    }
+
+    /*
+        Invoked when a request reached the starter proxy, which means no registered node could take it. A container
+        is started unless the ones already starting for that browser are enough to cover the queued requests.
+        The container is handed to the creation pipeline, so the hub does not wait for it while matching requests.
+     */
+    boolean startOnDemand(String browser) {
+        int demand = Math.max(1, getQueuedDemand().getOrDefault(browser.toLowerCase(), 0));
+        synchronized (this) {
+            if (getAmountOfStartingContainers(browser) >= demand) {
+                LOGGER.log(Level.FINE, () -> String.format("%sEnough %s containers starting for %s queued requests.",
+                        LOGGING_PREFIX, browser, demand));
+                return false;
+            }
+            starterProxy.getCreationPipeline().submit(browser);
+            return true;
+        }
+    }
+
+    @VisibleForTesting
+    void scale() {
+        try {
+            // Queue and registry are read before locking, the hub holds its queue lock while calling the proxies
+            Map<String, Integer> demand = getQueuedDemand();
+            Map<String, Integer> idleNodes = new HashMap<>();
+            for (String browser : SUPPORTED_BROWSERS) {
+                idleNodes.put(browser, getAmountOfIdleNodes(browser));
+            }
+            synchronized (this) {
+                scale(demand, idleNodes);
+            }
+            updateOverflowRouting(demand, idleNodes);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+        }
+    }
+
+    private void scale(Map<String, Integer> demand, Map<String, Integer> idleNodes) {
+        Map<String, Integer> missingContainers = new HashMap<>();
+        int totalMissingContainers = 0;
+        for (String browser : SUPPORTED_BROWSERS) {
+            int missing = demand.getOrDefault(browser, 0) - idleNodes.get(browser) -
+                    getAmountOfStartingContainers(browser);
+            if (missing > 0) {
+                missingContainers.put(browser, missing);
+                totalMissingContainers += missing;
+            }
+        }
+        if (totalMissingContainers == 0) {
+            return;
+        }
+        ContainerCreationPipeline pipeline = starterProxy.getCreationPipeline();
+        int startingContainers = DockerSeleniumStarterRemoteProxy.getAmountOfStartingNodes() +
+                pipeline.getAmountOfPendingCreations();
+        int containersToStart = Math.min(totalMissingContainers, maxStartingContainers - startingContainers);
+        int startedContainers = 0;
+        // Browsers take turns, so a burst of requests for one browser does not starve the other one
+        while (startedContainers < containersToStart) {
+            for (String browser : SUPPORTED_BROWSERS) {
+                int missing = missingContainers.getOrDefault(browser, 0);
+                if (missing > 0 && startedContainers < containersToStart) {
+                    pipeline.submit(browser);
+                    missingContainers.put(browser, missing - 1);
+                    startedContainers++;
+                }
+            }
+        }
+        int finalTotalMissingContainers = totalMissingContainers;
+        int finalStartedContainers = startedContainers;
+        LOGGER.log(Level.INFO, () -> String.format("%s%s queued requests not covered, %s containers requested.",
+                LOGGING_PREFIX, finalTotalMissingContainers, finalStartedContainers));
+    }
+
+    /*
+        Lets the routing policy know how long the queued requests would wait for a docker-selenium node.
+     */
+    private void updateOverflowRouting(Map<String, Integer> demand, Map<String, Integer> idleNodes) {
+        OverflowRoutingPolicy overflowRoutingPolicy = OverflowRoutingPolicy.getInstance();
+        if (!overflowRoutingPolicy.isEnabled()) {
+            return;
+        }
+        int maxContainers = DockerSeleniumStarterRemoteProxy.getMaxDockerSeleniumContainers();
+        int startableContainers = Math.max(0, maxContainers - starterProxy.getNumberOfRunningContainers());
+        for (String browser : SUPPORTED_BROWSERS) {
+            overflowRoutingPolicy.update(browser, demand.getOrDefault(browser, 0), idleNodes.get(browser),
+                    getAmountOfStartingContainers(browser), startableContainers, maxContainers);
+        }
+    }
+
+    private int getAmountOfStartingContainers(String browser) {
+        return DockerSeleniumStarterRemoteProxy.getAmountOfStartingNodes(browser) +
+                starterProxy.getCreationPipeline().getAmountOfPendingCreations(browser);
+    }
+
+    /*
+        Amount of queued requests per browser that can be handled by docker-selenium. The capabilities are matched as
+        the hub hands them out, copying them again would only add garbage on every tick.
+     */
+    private Map<String, Integer> getQueuedDemand() {
+        Map<String, Integer> demand = new HashMap<>();
+        if (starterProxy.getRegistry().getNewSessionRequestCount() == 0) {
+            return demand;
+        }
+        for (DesiredCapabilities desiredCapabilities : starterProxy.getRegistry().getDesiredCapabilities()) {
+            Object browserName = desiredCapabilities.getCapability(CapabilityType.BROWSER_NAME);
+            if (browserName == null || !starterProxy.hasCapability(asMap(desiredCapabilities))) {
+                continue;
+            }
+            demand.merge(browserName.toString().toLowerCase(), 1, Integer::sum);
+        }
+        return demand;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(DesiredCapabilities desiredCapabilities) {
+        return (Map<String, Object>) desiredCapabilities.asMap();
+    }
+
+    private int getAmountOfIdleNodes(String browser) {
+        int idleNodes = 0;
+        for (RemoteProxy proxy : starterProxy.getRegistry().getAllProxies()) {
+            if (proxy instanceof DockerSeleniumRemoteProxy && ((DockerSeleniumRemoteProxy) proxy).isIdle(browser)) {
+                idleNodes++;
+            }
+        }
+        return idleNodes;
+    }
+
+}
@@ -0,0 +1,123 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.ImageInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the latest downloaded docker-selenium image and the browser versions in its labels, and keeps the result
+ * for a while so starting a container does not list and sort all local images every time.
+ * The cached image is refreshed after its time to live, or right away when the docker events stream reports that an
+ * image was pulled, tagged or removed.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DockerSeleniumImageResolver {
+
+    @VisibleForTesting
+    static final long DEFAULT_IMAGE_CACHE_TTL = TimeUnit.MINUTES.toMillis(5);
+    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumImageResolver.class.getName());
+    private static final String LOGGING_PREFIX = "[IR] ";
+    private static final ConcurrentMap<DockerClient, DockerSeleniumImageResolver> resolvers =
+            new MapMaker().weakKeys().makeMap();
+    private static long timeToLive = DEFAULT_IMAGE_CACHE_TTL;
+    private final DockerClient dockerClient;
+    private ResolvedImage resolvedImage;
+
+    private DockerSeleniumImageResolver(DockerClient dockerClient) {
+        this.dockerClient = dockerClient;
+    }
+
+    static DockerSeleniumImageResolver getInstance(DockerClient dockerClient) {
+        return resolvers.computeIfAbsent(dockerClient, DockerSeleniumImageResolver::new);
+    }
+
+    static void setTimeToLive(long timeToLive) {
+        DockerSeleniumImageResolver.timeToLive = timeToLive < 0 ? DEFAULT_IMAGE_CACHE_TTL : timeToLive;
+    }
+
+    /*
+        Name and tag of the latest downloaded docker-selenium image, or the plain image name when none was found.
+     */
+    public String getLatestImage() throws DockerException, InterruptedException {
+        ResolvedImage image = resolve();
+        return image == null ? DockerSeleniumStarterRemoteProxy.DOCKER_SELENIUM_IMAGE : image.tag;
+    }
+
+    public String getChromeVersion() throws DockerException, InterruptedException {
+        ResolvedImage image = resolve();
+        return image == null ? null : image.chromeVersion;
+    }
+
+    public String getFirefoxVersion() throws DockerException, InterruptedException {
+        ResolvedImage image = resolve();
+        return image == null ? null : image.firefoxVersion;
+    }
+
+    /*
+        Invoked when the local images changed, the next lookup resolves the image again.
+     */
+    public synchronized void invalidate() {
+        resolvedImage = null;
+    }
+
+    private synchronized ResolvedImage resolve() throws DockerException, InterruptedException {
+        if (resolvedImage != null && System.currentTimeMillis() - resolvedImage.resolvedAt < timeToLive) {
+            return resolvedImage;
+        }
+        String latestImage = findLatestImage();
+        if (latestImage == null) {
+            // Not cached, so the image is picked up as soon as it is downloaded
+            return null;
+        }
+        String chromeVersion = null;
+        String firefoxVersion = null;
+        ImageInfo imageInfo = dockerClient.inspectImage(latestImage);
+        if (imageInfo != null && imageInfo.config() != null && imageInfo.config().labels() != null) {
+            Map<String, String> labels = imageInfo.config().labels();
+            chromeVersion = labels.get("selenium2_chrome_version");
+            firefoxVersion = labels.get("selenium2_firefox_version");
+        }
+        resolvedImage = new ResolvedImage(latestImage, chromeVersion, firefoxVersion);
+        LOGGER.log(Level.FINE, LOGGING_PREFIX + "Using {0}", latestImage);
+        return resolvedImage;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    private String findLatestImage() throws DockerException, InterruptedException {
+        List<Image> images = new ArrayList<>(dockerClient.listImages(
+                DockerClient.ListImagesParam.byName(DockerSeleniumStarterRemoteProxy.DOCKER_SELENIUM_IMAGE)));
+        images.removeIf(image -> image.repoTags() == null || image.repoTags().isEmpty());
+        if (images.isEmpty()) {
+            LOGGER.log(Level.SEVERE, "A downloaded docker-selenium image was not found!");
+            return null;
+        }
+        images.sort((o1, o2) -> o2.created().compareTo(o1.created()));
+        return images.get(0).repoTags().get(0);
+    }
+
+    private static final class ResolvedImage {
+        private final String tag;
+        private final String chromeVersion;
+        private final String firefoxVersion;
+        private final long resolvedAt;
+
+        private ResolvedImage(String tag, String chromeVersion, String firefoxVersion) {
+            this.tag = tag;
+            this.chromeVersion = chromeVersion;
+            this.firefoxVersion = firefoxVersion;
+            this.resolvedAt = System.currentTimeMillis();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the docker-selenium nodes to clean them up after a session, or to remove them from the grid once they ran
+ * all their sessions or were idle for too long. All nodes share a few threads instead of having a polling thread each.
+ * A node is checked right away when its session is stopped, and all nodes are checked in a periodic sweep as a
+ * fallback (e.g. for the idle timeout).
+ */
+@SuppressWarnings("WeakerAccess")
+public class DockerSeleniumNodeLifecycleManager {
+
+    @VisibleForTesting
+    static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    // The hub releases the slot right after the stop session command, a busy node is checked again shortly after
+    private static final long BUSY_NODE_RECHECK_DELAY = 50;
+    private static final int LIFECYCLE_THREADS = 4;
+    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumNodeLifecycleManager.class.getName());
+    private static final String LOGGING_PREFIX = "[LM] ";
+    private static DockerSeleniumNodeLifecycleManager instance;
+    private final ScheduledExecutorService lifecycleExecutor;
+    /*
+        Registered nodes, the flag is set while a node is being checked, so it is never checked twice at the same time.
+        Nodes are compared by identity, a node registering again with the same id is a different proxy instance.
+     */
+    private final Map<DockerSeleniumRemoteProxy, AtomicBoolean> nodes = new MapMaker().weakKeys().makeMap();
+
+    private DockerSeleniumNodeLifecycleManager() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        lifecycleExecutor = Executors.newScheduledThreadPool(LIFECYCLE_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-node-lifecycle-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        lifecycleExecutor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized DockerSeleniumNodeLifecycleManager getInstance() {
+        if (instance == null) {
+            instance = new DockerSeleniumNodeLifecycleManager();
+        }
+        return instance;
+    }
+
+    void register(DockerSeleniumRemoteProxy proxy) {
+        nodes.putIfAbsent(proxy, new AtomicBoolean(false));
+    }
+
+    void unregister(DockerSeleniumRemoteProxy proxy) {
+        nodes.remove(proxy);
+    }
+
+    /*
+        Something changed in the node (e.g. its session was stopped), so it is checked without waiting for the sweep.
+     */
+    void nodeChanged(DockerSeleniumRemoteProxy proxy) {
+        lifecycleExecutor.execute(() -> check(proxy));
+    }
+
+    private void sweep() {
+        for (DockerSeleniumRemoteProxy proxy : nodes.keySet()) {
+            check(proxy);
+        }
+    }
+
+    private void check(DockerSeleniumRemoteProxy proxy) {
+        AtomicBoolean checkInProgress = nodes.get(proxy);
+        if (checkInProgress == null || !checkInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            proxy.checkNodeLifecycle();
+            if (nodes.containsKey(proxy) && proxy.isWaitingForRelease()) {
+                lifecycleExecutor.schedule(() -> check(proxy), BUSY_NODE_RECHECK_DELAY, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+        } finally {
+            checkInProgress.set(false);
+        }
+    }
+
+}
@@ -5,19 +5,19 @@ import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerException;
-import com.spotify.docker.client.messages.Container;
 import com.spotify.docker.client.messages.ExecCreation;
+import de.zalando.tip.zalenium.util.CapabilityFingerprint;
 import de.zalando.tip.zalenium.util.CommonProxyUtilities;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.GoogleAnalyticsApi;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.utils.IOUtils;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.common.exception.RemoteNotReachableException;
 import org.openqa.grid.common.exception.RemoteUnregisterException;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TestSlot;
 import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
 import org.openqa.grid.web.servlet.handler.RequestType;
 import org.openqa.grid.web.servlet.handler.WebDriverRequest;
@@ -26,12 +26,14 @@ import org.openqa.selenium.remote.CapabilityType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,28 +47,50 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
     static final String ZALENIUM_VIDEO_RECORDING_ENABLED = "ZALENIUM_VIDEO_RECORDING_ENABLED";
     @VisibleForTesting
     static final boolean DEFAULT_VIDEO_RECORDING_ENABLED = true;
-    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumRemoteProxy.class.getName());
+    @VisibleForTesting
+    static final String ZALENIUM_SESSIONS_PER_CONTAINER = "ZALENIUM_SESSIONS_PER_CONTAINER";
+    @VisibleForTesting
+    static final String ZALENIUM_NODE_IDLE_TIMEOUT = "ZALENIUM_NODE_IDLE_TIMEOUT";
     // Amount of tests that can be executed in the node
-    private static final int MAX_UNIQUE_TEST_SESSIONS = 1;
+    @VisibleForTesting
+    static final int DEFAULT_SESSIONS_PER_CONTAINER = 1;
+    // Seconds a node that already executed tests can stay idle before it is recycled, 0 disables it
+    @VisibleForTesting
+    static final int DEFAULT_NODE_IDLE_TIMEOUT = 0;
+    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumRemoteProxy.class.getName());
     private static final DockerClient defaultDockerClient = new DefaultDockerClient("unix:///var/run/docker.sock");
     private static final Environment defaultEnvironment = new Environment();
     private static boolean videoRecordingEnabled;
+    private static int sessionsPerContainer = DEFAULT_SESSIONS_PER_CONTAINER;
+    private static long nodeIdleTimeout = DEFAULT_NODE_IDLE_TIMEOUT;
     private static DockerClient dockerClient = defaultDockerClient;
     private static Environment env = defaultEnvironment;
-    private static CommonProxyUtilities commonProxyUtilities = new CommonProxyUtilities();
+    private static final CommonProxyUtilities defaultCommonProxyUtilities = new CommonProxyUtilities();
+    private static CommonProxyUtilities commonProxyUtilities = defaultCommonProxyUtilities;
     private int amountOfExecutedTests;
     private long executionTime = 0;
     private String testName;
     private String testGroup;
     private String browserName;
-    private boolean stopSessionRequestReceived = false;
-    private DockerSeleniumNodePoller dockerSeleniumNodePollerThread = null;
+    private volatile boolean stopSessionRequestReceived = false;
+    // Set while the node is cleaned up after a session, so no new session is assigned until it is done
+    private volatile boolean cleanupPending = false;
+    private volatile long lastActivity;
+    // Set once stop-video ran, a retry after a failed copy does not stop the recording again
+    private volatile boolean recordingStopped = false;
+    // Copied by the last stop of the recording, added to the dashboard once the copy is done
+    private volatile List<String> copiedVideos = Collections.emptyList();
+    // Set when the container is stopped by the video finalization queue, which gives the port back afterwards
+    private volatile boolean containerFinalizing = false;
     private GoogleAnalyticsApi ga = new GoogleAnalyticsApi();
 
     public DockerSeleniumRemoteProxy(RegistrationRequest request, Registry registry) {
         super(request, registry);
         this.amountOfExecutedTests = 0;
         readEnvVarForVideoRecording();
+        readEnvVarsForNodeReuse();
+        this.lastActivity = System.currentTimeMillis();
+        DockerSeleniumStarterRemoteProxy.nodeRegistered(getRemoteHost().getPort());
     }
 
     @VisibleForTesting
@@ -76,6 +100,19 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         setVideoRecordingEnabled(videoEnabled);
     }
 
+    @VisibleForTesting
+    static void readEnvVarsForNodeReuse() {
+        int sessions = env.getIntEnvVariable(ZALENIUM_SESSIONS_PER_CONTAINER, DEFAULT_SESSIONS_PER_CONTAINER);
+        sessionsPerContainer = sessions <= 0 ? DEFAULT_SESSIONS_PER_CONTAINER : sessions;
+        int idleTimeout = env.getIntEnvVariable(ZALENIUM_NODE_IDLE_TIMEOUT, DEFAULT_NODE_IDLE_TIMEOUT);
+        nodeIdleTimeout = idleTimeout < 0 ? DEFAULT_NODE_IDLE_TIMEOUT : TimeUnit.SECONDS.toMillis(idleTimeout);
+    }
+
+    @VisibleForTesting
+    protected static int getSessionsPerContainer() {
+        return sessionsPerContainer;
+    }
+
     @VisibleForTesting
     static void setDockerClient(final DockerClient client) {
         dockerClient = client;
@@ -86,6 +123,16 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         dockerClient = defaultDockerClient;
     }
 
+    @VisibleForTesting
+    static void setCommonProxyUtilities(final CommonProxyUtilities utilities) {
+        commonProxyUtilities = utilities;
+    }
+
+    @VisibleForTesting
+    static void restoreCommonProxyUtilities() {
+        commonProxyUtilities = defaultCommonProxyUtilities;
+    }
+
     @VisibleForTesting
     protected static void setEnv(final Environment env) {
         DockerSeleniumRemoteProxy.env = env;
@@ -105,6 +152,18 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         DockerSeleniumRemoteProxy.videoRecordingEnabled = videoRecordingEnabled;
     }
 
+    /*
+        Every queued request is checked against the node again and again until it gets a session, the fingerprints
+        avoid reading and parsing the same capabilities each time.
+     */
+    @Override
+    public boolean hasCapability(Map<String, Object> requestedCapability) {
+        if (requestedCapability != null && CapabilityFingerprint.canReplace(getCapabilityHelper())) {
+            return CapabilityFingerprint.of(requestedCapability).matchesAny(getTestSlots());
+        }
+        return super.hasCapability(requestedCapability);
+    }
+
     /*
         Incrementing the number of tests that will be executed when the session is assigned.
      */
@@ -125,7 +184,8 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
                         newSession.getExternalKey().getKey() :
                         newSession.getInternalKey();
             }
-            testGroup = requestedCapability.getOrDefault("group", "").toString();
+            setTestGroup(requestedCapability.getOrDefault("group", "").toString());
+            DockerSeleniumWarmPool.recordSession(requestedCapability);
             videoRecording(VideoRecordingAction.START_RECORDING);
             return newSession;
         }
@@ -138,13 +198,16 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         if (request instanceof WebDriverRequest && "DELETE".equalsIgnoreCase(request.getMethod())) {
             WebDriverRequest seleniumRequest = (WebDriverRequest) request;
             if (RequestType.STOP_SESSION.equals(seleniumRequest.getRequestType())) {
+                this.cleanupPending = true;
                 this.stopSessionRequestReceived = true;
-                String message = String.format("%s STOP_SESSION command received. Node should shutdown soon...",
-                        getNodeIpAndPort());
+                String message = String.format("%s STOP_SESSION command received. Node should %s soon...",
+                        getNodeIpAndPort(), isTestSessionLimitReached() ? "shutdown" : "be cleaned up");
                 LOGGER.log(Level.INFO, message);
                 executionTime = (System.currentTimeMillis() - session.getSlot().getLastSessionStart()) / 1000;
                 ga.testEvent(DockerSeleniumRemoteProxy.class.getName(), session.getRequestedCapabilities().toString(),
                         executionTime);
+                OverflowRoutingPolicy.getInstance().recordSessionDuration(TimeUnit.SECONDS.toMillis(executionTime));
+                DockerSeleniumNodeLifecycleManager.getInstance().nodeChanged(this);
             }
         }
         super.afterCommand(session, request, response);
@@ -153,20 +216,40 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
     @Override
     public void startPolling() {
         super.startPolling();
-        dockerSeleniumNodePollerThread = new DockerSeleniumNodePoller(this);
-        dockerSeleniumNodePollerThread.start();
+        DockerSeleniumNodeLifecycleManager.getInstance().register(this);
     }
 
     @Override
     public void stopPolling() {
         super.stopPolling();
-        dockerSeleniumNodePollerThread.interrupt();
+        DockerSeleniumNodeLifecycleManager.getInstance().unregister(this);
     }
 
     @Override
     public void teardown() {
         super.teardown();
         stopPolling();
+        setTestGroup(null);
+        if (!containerFinalizing) {
+            DockerSeleniumStarterRemoteProxy.releasePort(getRemoteHost().getPort());
+        }
+        DockerSeleniumStarterRemoteProxy.triggerWarmPoolRefill();
+    }
+
+    /*
+        The node is idle when it is not running a test and it can still accept a new one for the given browser.
+     */
+    boolean isIdle(String browser) {
+        if (isBusy() || isTestSessionLimitReached() || cleanupPending) {
+            return false;
+        }
+        for (TestSlot testSlot : getTestSlots()) {
+            Object slotBrowser = testSlot.getCapabilities().get(CapabilityType.BROWSER_NAME);
+            if (slotBrowser != null && browser.equalsIgnoreCase(slotBrowser.toString())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private String getNodeIpAndPort() {
@@ -181,16 +264,79 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         if (isTestSessionLimitReached()) {
             return false;
         }
+        if (cleanupPending) {
+            LOGGER.log(Level.FINE, "{0} Node is being cleaned up after the previous session", getNodeIpAndPort());
+            return false;
+        }
         amountOfExecutedTests++;
+        lastActivity = System.currentTimeMillis();
         return true;
     }
 
+    /*
+        Blocks new sessions when the idle timeout was reached, so the node can be recycled.
+     */
+    private synchronized boolean markForRecycleIfIdle() {
+        if (isIdleTimeoutReached()) {
+            cleanupPending = true;
+            return true;
+        }
+        return false;
+    }
+
     /*
         Method to decide if the node can be removed based on the amount of executed tests.
      */
     @VisibleForTesting
     protected synchronized boolean isTestSessionLimitReached() {
-        return getAmountOfExecutedTests() >= MAX_UNIQUE_TEST_SESSIONS;
+        return getAmountOfExecutedTests() >= getSessionsPerContainer();
+    }
+
+    /*
+        The node already executed tests, is not running one now and has been idle longer than the idle timeout.
+     */
+    @VisibleForTesting
+    protected boolean isIdleTimeoutReached() {
+        return nodeIdleTimeout > 0 && getAmountOfExecutedTests() > 0 && !isBusy() && !cleanupPending &&
+                System.currentTimeMillis() - lastActivity > nodeIdleTimeout;
+    }
+
+    /*
+        Once a session finished and the node is kept, its video is stopped and copied in the video finalization
+        queue, so a slow copy does not hold up the lifecycle checks of the other nodes. The node takes no new session
+        until the queue reset it.
+     */
+    private void cleanUpAfterSession() {
+        stopSessionRequestReceived = false;
+        VideoFinalizationQueue.getInstance(env).submit(getNodeIpAndPort(),
+                () -> videoRecording(VideoRecordingAction.STOP_RECORDING),
+                () -> {
+                    addVideosToDashboard();
+                    resetAfterSession();
+                });
+    }
+
+    /*
+        Gets the node ready for the next session after its video was copied: the videos are removed from the
+        container so they are not copied again.
+        The browser itself is not reused, the node starts a new browser process for every session.
+     */
+    @VisibleForTesting
+    void resetAfterSession() {
+        if (isVideoRecordingEnabled()) {
+            try {
+                execCommand(getContainerId(), "rm -f /videos/*");
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, getNodeIpAndPort() + " " + e.toString(), e);
+            }
+        }
+        testName = null;
+        setTestGroup(null);
+        stopSessionRequestReceived = false;
+        lastActivity = System.currentTimeMillis();
+        cleanupPending = false;
+        LOGGER.log(Level.INFO, () -> String.format("%s Node ready for a new session, %s of %s sessions executed.",
+                getNodeIpAndPort(), getAmountOfExecutedTests(), getSessionsPerContainer()));
     }
 
     @VisibleForTesting
@@ -198,8 +344,11 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         return amountOfExecutedTests;
     }
 
+    /*
+        Returns false when the action failed, so it can be retried.
+     */
     @VisibleForTesting
-    protected void videoRecording(final VideoRecordingAction action) {
+    protected boolean videoRecording(final VideoRecordingAction action) {
         if (isVideoRecordingEnabled()) {
             try {
                 String containerId = getContainerId();
@@ -207,12 +356,14 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, getNodeIpAndPort() + e.toString(), e);
                 ga.trackException(e);
+                return false;
             }
         } else {
             String message = String.format("%s %s: Video recording is disabled", getNodeIpAndPort(),
                     action.getRecordingAction());
             LOGGER.log(Level.INFO, message);
         }
+        return true;
     }
 
     public String getTestName() {
@@ -223,42 +374,59 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
         return testGroup == null ? "" : testGroup;
     }
 
+    private void setTestGroup(String group) {
+        TestGroupIndex.groupChanged(this, testGroup, group);
+        testGroup = group;
+    }
+
     protected String getContainerId() throws DockerException, InterruptedException {
-        List<Container> containerList = dockerClient.listContainers(DockerClient.ListContainersParam.allContainers());
-        for (Container container : containerList) {
-            String containerName = String.format("/%s_%s", DockerSeleniumStarterRemoteProxy.getContainerName(),
-                    getRemoteHost().getPort());
-            if (containerName.equalsIgnoreCase(container.names().get(0))) {
-                return container.id();
-            }
-        }
-        return null;
+        return DockerContainerInventory.getInstance(dockerClient).getContainerIdByNodePort(getRemoteHost().getPort());
     }
 
+    /*
+        Stopping the recording also copies the videos, that part throws when it failed so it can be retried. The
+        dashboard is updated separately, see addVideosToDashboard.
+     */
     @VisibleForTesting
     void processVideoAction(final VideoRecordingAction action, final String containerId) throws
             DockerException, InterruptedException, IOException, URISyntaxException {
-        final String[] command = {"bash", "-c", action.getRecordingAction()};
+        if (VideoRecordingAction.STOP_RECORDING == action) {
+            if (!recordingStopped) {
+                execCommand(containerId, action.getRecordingAction());
+                recordingStopped = true;
+            }
+            copiedVideos = copyVideos(containerId);
+        } else {
+            execCommand(containerId, action.getRecordingAction());
+            recordingStopped = false;
+            copiedVideos = Collections.emptyList();
+        }
+    }
+
+    private void execCommand(final String containerId, final String commandToExecute) throws DockerException,
+            InterruptedException {
+        final String[] command = {"bash", "-c", commandToExecute};
         final ExecCreation execCreation = dockerClient.execCreate(containerId, command,
                 DockerClient.ExecCreateParam.attachStdout(), DockerClient.ExecCreateParam.attachStderr());
         final LogStream output = dockerClient.execStart(execCreation.id());
-        LOGGER.log(Level.INFO, () -> String.format("%s %s", getNodeIpAndPort(), action.getRecordingAction()));
+        LOGGER.log(Level.INFO, () -> String.format("%s %s", getNodeIpAndPort(), commandToExecute));
         try {
             LOGGER.log(Level.INFO, () -> String.format("%s %s", getNodeIpAndPort(), output.readFully()));
         } catch (RuntimeException e) {
             LOGGER.log(Level.FINE, getNodeIpAndPort() + " " + e.toString(), e);
             ga.trackException(e);
         }
-
-        if (VideoRecordingAction.STOP_RECORDING == action) {
-            copyVideos(containerId);
-        }
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
+    /*
+        Returns the names of the copied files. When the copy fails, the files copied so far are deleted, so a retry
+        does not leave duplicates behind.
+     */
     @VisibleForTesting
-    void copyVideos(final String containerId) throws IOException, DockerException, InterruptedException, URISyntaxException {
+    List<String> copyVideos(final String containerId) throws IOException, DockerException, InterruptedException {
         String localPath = commonProxyUtilities.currentLocalPath();
+        String timestamp = commonProxyUtilities.getCurrentDateAndTimeFormatted();
+        List<String> copiedFiles = new ArrayList<>();
         try (TarArchiveInputStream tarStream = new TarArchiveInputStream(dockerClient.archiveContainer(containerId,
                 "/videos/"))) {
             TarArchiveEntry entry;
@@ -266,30 +434,64 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
                 if (entry.isDirectory()) {
                     continue;
                 }
-                String fileExtension = entry.getName().substring(entry.getName().lastIndexOf('.'));
-                String folderName = entry.getName().substring(0, entry.getName().indexOf('/') + 1);
-                String fileName = String.format("%s_%s", entry.getName(), commonProxyUtilities.getCurrentDateAndTimeFormatted());
-                fileName = fileName.replace(fileExtension, "").concat(fileExtension);
-                fileName = getTestName().isEmpty() ? fileName : fileName.replace("vid_", getTestName() + "_");
-                fileName = fileName.replace(' ', '_');
-                fileName = fileName.replace(folderName, "");
-                fileName = folderName + DockerSeleniumStarterRemoteProxy.getContainerName() + "_" + fileName;
-                File curFile = new File(localPath, fileName);
-                File parent = curFile.getParentFile();
-                if (!parent.exists()) {
-                    parent.mkdirs();
-                }
-                OutputStream outputStream = new FileOutputStream(curFile);
-                IOUtils.copy(tarStream, outputStream);
-                outputStream.close();
-                commonProxyUtilities.updateDashboard(testName, executionTime, "Zalenium",
-                        browserName, "Linux", fileName.replace("videos/", ""), localPath + "/videos");
+                String fileName = getVideoFileName(entry.getName(), timestamp);
+                commonProxyUtilities.copyToFile(tarStream, entry.getSize(), new File(localPath, fileName));
+                copiedFiles.add(fileName.replace("videos/", ""));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, getNodeIpAndPort() + " Something happened while copying the video files.", e);
+            for (String copiedFile : copiedFiles) {
+                Files.deleteIfExists(new File(localPath + "/videos", copiedFile).toPath());
             }
+            throw e;
+        }
+        LOGGER.log(Level.INFO, "{0} {1} video files copied to: {2}",
+                new Object[]{getNodeIpAndPort(), copiedFiles.size(), localPath});
+        return copiedFiles;
+    }
+
+    /*
+        Adds the videos copied when the recording was stopped to the dashboard. Not part of the retried video job, so
+        a failure here does not copy the videos again.
+     */
+    @VisibleForTesting
+    void addVideosToDashboard() {
+        List<String> videos = copiedVideos;
+        copiedVideos = Collections.emptyList();
+        if (videos.isEmpty()) {
+            return;
+        }
+        try {
+            commonProxyUtilities.updateDashboard(getTestName(), executionTime, "Zalenium", browserName, "Linux",
+                    videos, commonProxyUtilities.currentLocalPath() + "/videos");
         } catch (Exception e) {
-            LOGGER.log(Level.FINE, getNodeIpAndPort() + " Something happened while copying the video file, " +
-                    "most of the time it is an issue while closing the input/output stream, which is usually OK.", e);
+            LOGGER.log(Level.SEVERE, getNodeIpAndPort() + " " + e.toString(), e);
+            ga.trackException(e);
         }
-        LOGGER.log(Level.INFO, "{0} Video files copies to: {1}", new Object[]{getNodeIpAndPort(), localPath});
+    }
+
+    /*
+        Name of the video in the dashboard, e.g. "videos/vid_chrome_40001.mp4" becomes
+        "videos/zalenium_myTest_chrome_40001_20170101120000.mp4".
+     */
+    @VisibleForTesting
+    String getVideoFileName(String entryName, String timestamp) {
+        int folderEnd = entryName.indexOf('/') + 1;
+        int extensionStart = entryName.lastIndexOf('.');
+        if (extensionStart < folderEnd) {
+            extensionStart = entryName.length();
+        }
+        String baseName = entryName.substring(folderEnd, extensionStart);
+        if (!getTestName().isEmpty()) {
+            baseName = baseName.replace("vid_", getTestName() + "_");
+        }
+        StringBuilder fileName = new StringBuilder(entryName.length() + timestamp.length() + 32)
+                .append(entryName, 0, folderEnd)
+                .append(DockerSeleniumStarterRemoteProxy.getContainerName()).append('_')
+                .append(baseName.replace(' ', '_')).append('_')
+                .append(timestamp)
+                .append(entryName, extensionStart, entryName.length());
+        return fileName.toString();
     }
 
     public enum VideoRecordingAction {
@@ -307,65 +509,77 @@ public class DockerSeleniumRemoteProxy extends DefaultRemoteProxy {
     }
 
     /*
-        Class to poll continuously the node status regarding the amount of tests executed. If MAX_UNIQUE_TEST_SESSIONS
-        have been executed, then the node is removed from the grid (this should trigger the docker container to stop).
+        Invoked by the lifecycle manager. If the sessions per container have been executed, or the node was idle for
+        too long, then the node is removed from the grid (this should trigger the docker container to stop).
+        Otherwise the node is cleaned up after each session. Nothing here waits for the container, the video work
+        runs in the video finalization queue.
      */
-    static class DockerSeleniumNodePoller extends Thread {
-
-        private static long sleepTimeBetweenChecks = 500;
-        private DockerSeleniumRemoteProxy dockerSeleniumRemoteProxy = null;
-
-        DockerSeleniumNodePoller(DockerSeleniumRemoteProxy dockerSeleniumRemoteProxy) {
-            this.dockerSeleniumRemoteProxy = dockerSeleniumRemoteProxy;
+    void checkNodeLifecycle() {
+        if (!isBusy() && stopSessionRequestReceived) {
+            if (isTestSessionLimitReached()) {
+                shutdownNode(String.format("it was stopped after %s tests", getAmountOfExecutedTests()), true);
+                return;
+            }
+            cleanUpAfterSession();
         }
-
-        protected long getSleepTimeBetweenChecks() {
-            return sleepTimeBetweenChecks;
+        if (markForRecycleIfIdle()) {
+            shutdownNode(String.format("it was idle for more than %s seconds",
+                    TimeUnit.MILLISECONDS.toSeconds(nodeIdleTimeout)), false);
         }
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-                /*
-                    If the proxy is not busy and it can be released since the MAX_UNIQUE_TEST_SESSIONS have been executed,
-                    then the node executes its teardown.
-                */
-                if (!dockerSeleniumRemoteProxy.isBusy() && dockerSeleniumRemoteProxy.isTestSessionLimitReached() &&
-                        dockerSeleniumRemoteProxy.stopSessionRequestReceived) {
-                    dockerSeleniumRemoteProxy.videoRecording(VideoRecordingAction.STOP_RECORDING);
-                    shutdownNode();
-                    return;
-                }
+    /*
+        The session was stopped but the hub did not release the slot yet.
+     */
+    boolean isWaitingForRelease() {
+        return stopSessionRequestReceived && isBusy();
+    }
 
-                try {
-                    Thread.sleep(getSleepTimeBetweenChecks());
-                } catch (InterruptedException e) {
-                    LOGGER.log(Level.FINE, dockerSeleniumRemoteProxy.getNodeIpAndPort() + " Error while sleeping the " +
-                            "thread, stopping thread execution.", e);
-                    Thread.currentThread().interrupt();
-                    dockerSeleniumRemoteProxy.ga.trackException(e);
-                    return;
-                }
-            }
+    /*
+        The node leaves the grid right away, so its slot and its quota are free for new nodes. Stopping the video and
+        the container happens afterwards in the video finalization queue. The port is given back only once the
+        container was stopped, finalizing the video can take longer than the port quarantine.
+     */
+    private void shutdownNode(String reason, boolean finalizeVideo) {
+        String shutdownReason = String.format("%s Marking the node as down because %s.", getNodeIpAndPort(), reason);
+        containerFinalizing = true;
+        String containerId = null;
+        try {
+            containerId = getContainerId();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, getNodeIpAndPort() + " " + e.getMessage(), e);
+            ga.trackException(e);
+        } finally {
+            addNewEvent(new RemoteNotReachableException(shutdownReason));
+            addNewEvent(new RemoteUnregisterException(shutdownReason));
+            teardown();
         }
-
-        private void shutdownNode() {
-            String shutdownReason = String.format("%s Marking the node as down because it was stopped after %s tests.",
-                    dockerSeleniumRemoteProxy.getNodeIpAndPort(), MAX_UNIQUE_TEST_SESSIONS);
-            try {
-                String containerId = dockerSeleniumRemoteProxy.getContainerId();
-                dockerClient.stopContainer(containerId, 5);
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, dockerSeleniumRemoteProxy.getNodeIpAndPort() + " " + e.getMessage(), e);
-                dockerSeleniumRemoteProxy.ga.trackException(e);
-            } finally {
-                dockerSeleniumRemoteProxy.addNewEvent(new RemoteNotReachableException(shutdownReason));
-                dockerSeleniumRemoteProxy.addNewEvent(new RemoteUnregisterException(shutdownReason));
-                dockerSeleniumRemoteProxy.teardown();
-            }
+        final String finalizingContainerId = containerId;
+        if (finalizingContainerId != null) {
+            DockerContainerInventory.getInstance(dockerClient).containerFinalizing(finalizingContainerId);
         }
-
+        VideoFinalizationQueue.getInstance(env).submit(getNodeIpAndPort(),
+                () -> !finalizeVideo || videoRecording(VideoRecordingAction.STOP_RECORDING),
+                () -> {
+                    try {
+                        addVideosToDashboard();
+                        stopContainer(finalizingContainerId);
+                    } finally {
+                        DockerSeleniumStarterRemoteProxy.releasePort(getRemoteHost().getPort());
+                    }
+                });
     }
 
+    private void stopContainer(String containerId) {
+        if (containerId == null) {
+            return;
+        }
+        try {
+            dockerClient.stopContainer(containerId, 5);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, getNodeIpAndPort() + " " + e.getMessage(), e);
+            ga.trackException(e);
+        }
+    }
 
 }
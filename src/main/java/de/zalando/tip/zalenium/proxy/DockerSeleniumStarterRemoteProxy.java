@@ -5,11 +5,13 @@ import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.*;
+import de.zalando.tip.zalenium.util.CapabilityFingerprint;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.GoogleAnalyticsApi;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TestSlot;
 import org.openqa.grid.internal.listeners.RegistrationListener;
 import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
 import org.openqa.selenium.Platform;
@@ -20,6 +22,10 @@ import org.openqa.selenium.remote.DesiredCapabilities;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +53,9 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
     static final int DEFAULT_SCREEN_WIDTH = 1900;
     @VisibleForTesting
     static final int DEFAULT_SCREEN_HEIGHT = 1880;
+    // How often the proxy checks if the docker-selenium image offers other browser versions
+    @VisibleForTesting
+    static final long DEFAULT_CAPABILITIES_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(10);
     @VisibleForTesting
     static final String ZALENIUM_CHROME_CONTAINERS = "ZALENIUM_CHROME_CONTAINERS";
     @VisibleForTesting
@@ -56,6 +65,12 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
     @VisibleForTesting
     static final String ZALENIUM_TZ = "ZALENIUM_TZ";
     @VisibleForTesting
+    static final String ZALENIUM_IMAGE_CACHE_TTL = "ZALENIUM_IMAGE_CACHE_TTL";
+    @VisibleForTesting
+    static final String ZALENIUM_PORT_QUARANTINE = "ZALENIUM_PORT_QUARANTINE";
+    @VisibleForTesting
+    static final int DEFAULT_PORT_QUARANTINE = 30;
+    @VisibleForTesting
     static final String ZALENIUM_SCREEN_WIDTH = "ZALENIUM_SCREEN_WIDTH";
     @VisibleForTesting
     static final String ZALENIUM_SCREEN_HEIGHT = "ZALENIUM_SCREEN_HEIGHT";
@@ -64,13 +79,21 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
     @VisibleForTesting
     private static final String ZALENIUM_CONTAINER_NAME = "ZALENIUM_CONTAINER_NAME";
     private static final Logger LOGGER = Logger.getLogger(DockerSeleniumStarterRemoteProxy.class.getName());
-    private static final String DOCKER_SELENIUM_IMAGE = "elgalu/selenium";
+    static final String DOCKER_SELENIUM_IMAGE = "elgalu/selenium";
     private static final int LOWER_PORT_BOUNDARY = 40000;
     private static final int UPPER_PORT_BOUNDARY = 49999;
+    // Same value as the WAIT_TIMEOUT given to the containers, after that a node that did not register is not expected
+    private static final long NODE_REGISTRATION_TIMEOUT = TimeUnit.SECONDS.toMillis(120);
     private static final DockerClient defaultDockerClient = new DefaultDockerClient("unix:///var/run/docker.sock");
     private static final Environment defaultEnvironment = new Environment();
     private static final String LOGGING_PREFIX = "[DS] ";
     private static List<DesiredCapabilities> dockerSeleniumCapabilities = new ArrayList<>();
+    private static long capabilitiesCheckInterval = DEFAULT_CAPABILITIES_CHECK_INTERVAL;
+    // Browser versions of the image the capabilities were built from
+    private static String capabilitiesChromeVersion;
+    private static String capabilitiesFirefoxVersion;
+    // Changes every time the capabilities offered by docker-selenium in the grid might have changed
+    private static final AtomicLong capabilitiesGeneration = new AtomicLong();
     private static DockerClient dockerClient = defaultDockerClient;
     private static Environment env = defaultEnvironment;
     private static GoogleAnalyticsApi ga = new GoogleAnalyticsApi();
@@ -81,12 +104,27 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
     private static int screenWidth;
     private static int screenHeight;
     private static String containerName;
-    private List<Integer> allocatedPorts = new ArrayList<>();
+    private static DockerSeleniumWarmPool warmPool;
+    // Containers that were already started but whose node has not registered yet, keyed by the node port
+    private static final Map<Integer, StartingNode> startingNodes = new ConcurrentHashMap<>();
+    // Containers that passed the limit checks but do not count as running and starting yet
+    private static final Object containerReservationLock = new Object();
+    private static int reservedContainers;
+    private static final PortAllocator portAllocator = new PortAllocator(LOWER_PORT_BOUNDARY, UPPER_PORT_BOUNDARY,
+            TimeUnit.SECONDS.toMillis(DEFAULT_PORT_QUARANTINE));
+    private DockerSeleniumAutoscaler autoscaler;
+    private ContainerCreationPipeline creationPipeline;
     private boolean setupCompleted;
+    // Capabilities the current test slots were built from, and the slots when they were built again
+    private volatile List<DesiredCapabilities> testSlotsCapabilities;
+    private volatile List<TestSlot> dockerSeleniumTestSlots;
+    private volatile long nextCapabilitiesCheck;
 
     @SuppressWarnings("WeakerAccess")
     public DockerSeleniumStarterRemoteProxy(RegistrationRequest request, Registry registry) {
         super(updateDSCapabilities(request), registry);
+        testSlotsCapabilities = dockerSeleniumCapabilities;
+        nextCapabilitiesCheck = System.currentTimeMillis() + capabilitiesCheckInterval;
     }
 
     /*
@@ -115,6 +153,13 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
 
         String containerN = env.getStringEnvVariable(ZALENIUM_CONTAINER_NAME, DEFAULT_ZALENIUM_CONTAINER_NAME);
         setContainerName(containerN);
+
+        int imageCacheTtl = env.getIntEnvVariable(ZALENIUM_IMAGE_CACHE_TTL,
+                (int) TimeUnit.MILLISECONDS.toSeconds(DockerSeleniumImageResolver.DEFAULT_IMAGE_CACHE_TTL));
+        DockerSeleniumImageResolver.setTimeToLive(TimeUnit.SECONDS.toMillis(imageCacheTtl));
+
+        int portQuarantine = env.getIntEnvVariable(ZALENIUM_PORT_QUARANTINE, DEFAULT_PORT_QUARANTINE);
+        portAllocator.setQuarantine(TimeUnit.SECONDS.toMillis(portQuarantine));
     }
 
     /*
@@ -128,28 +173,45 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         return registrationRequest;
     }
 
-    @SuppressWarnings("ConstantConditions")
+    /*
+        Used to know when the capabilities that can be served by docker-selenium have to be checked again.
+     */
+    public static long getCapabilitiesGeneration() {
+        return capabilitiesGeneration.get();
+    }
+
+    /*
+        The versions come from the image resolver, which caches the latest image for its time to live and resolves it
+        again when images are pulled or removed. The capabilities are built again only when those versions change.
+     */
     @VisibleForTesting
-    public static List<DesiredCapabilities> getCapabilities() {
-        if (!dockerSeleniumCapabilities.isEmpty()) {
-            return dockerSeleniumCapabilities;
-        }
+    static void setCapabilitiesCheckInterval(long capabilitiesCheckInterval) {
+        DockerSeleniumStarterRemoteProxy.capabilitiesCheckInterval = capabilitiesCheckInterval;
+    }
 
+    @SuppressWarnings("ConstantConditions")
+    @VisibleForTesting
+    public static synchronized List<DesiredCapabilities> getCapabilities() {
         String chromeVersion = "";
         String firefoxVersion = "";
 
         // Getting versions from the current docker-selenium image
         try {
-            String latestDownloadedImage = getLatestDownloadedImage(DOCKER_SELENIUM_IMAGE);
-            ImageInfo imageInfo = dockerClient.inspectImage(latestDownloadedImage);
-            chromeVersion = imageInfo.config().labels().get("selenium2_chrome_version");
-            firefoxVersion = imageInfo.config().labels().get("selenium2_firefox_version");
+            DockerSeleniumImageResolver imageResolver = getImageResolver();
+            chromeVersion = imageResolver.getChromeVersion();
+            firefoxVersion = imageResolver.getFirefoxVersion();
         } catch (DockerException | InterruptedException e) {
             LOGGER.log(Level.FINE, LOGGING_PREFIX + "Could not grab browser version information from the " +
                     "docker-selenium image", e);
+            if (!dockerSeleniumCapabilities.isEmpty()) {
+                return dockerSeleniumCapabilities;
+            }
         }
 
-        dockerSeleniumCapabilities.clear();
+        if (!dockerSeleniumCapabilities.isEmpty() && Objects.equals(chromeVersion, capabilitiesChromeVersion)
+                && Objects.equals(firefoxVersion, capabilitiesFirefoxVersion)) {
+            return dockerSeleniumCapabilities;
+        }
 
         List<DesiredCapabilities> dsCapabilities = new ArrayList<>();
         DesiredCapabilities firefoxCapabilities = new DesiredCapabilities();
@@ -170,6 +232,9 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         dsCapabilities.add(chromeCapabilities);
 
         dockerSeleniumCapabilities = dsCapabilities;
+        capabilitiesChromeVersion = chromeVersion;
+        capabilitiesFirefoxVersion = firefoxVersion;
+        capabilitiesGeneration.incrementAndGet();
         LOGGER.log(Level.INFO, LOGGING_PREFIX + "Capabilities grabbed from the docker-selenium image");
         return dockerSeleniumCapabilities;
     }
@@ -269,6 +334,55 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         env = defaultEnvironment;
     }
 
+    // Queued requests are checked again and again, fingerprints avoid parsing the same capabilities each time
+    @Override
+    public boolean hasCapability(Map<String, Object> requestedCapability) {
+        if (requestedCapability != null && CapabilityFingerprint.canReplace(getCapabilityHelper())) {
+            return CapabilityFingerprint.of(requestedCapability).matchesAny(getTestSlots());
+        }
+        for (TestSlot testSlot : getTestSlots()) {
+            if (getCapabilityHelper().matches(testSlot.getCapabilities(), requestedCapability)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        The slots registered with the proxy are built again when the docker-selenium image offers other browser
+        versions, so requests for the new versions reach this proxy. The hub calls this for every queued request, so
+        the image is checked at most once per interval. The slots never run a session, replacing them is safe.
+     */
+    @Override
+    public List<TestSlot> getTestSlots() {
+        long now = System.currentTimeMillis();
+        if (testSlotsCapabilities != null && now >= nextCapabilitiesCheck) {
+            nextCapabilitiesCheck = now + capabilitiesCheckInterval;
+            List<DesiredCapabilities> capabilities = getCapabilities();
+            if (capabilities != testSlotsCapabilities) {
+                dockerSeleniumTestSlots = buildTestSlots(capabilities);
+                testSlotsCapabilities = capabilities;
+                LOGGER.log(Level.INFO, LOGGING_PREFIX + "Test slots updated to {0}", capabilities);
+            }
+        }
+        List<TestSlot> testSlots = dockerSeleniumTestSlots;
+        return testSlots == null ? super.getTestSlots() : testSlots;
+    }
+
+    private List<TestSlot> buildTestSlots(List<DesiredCapabilities> capabilities) {
+        TestSlot registeredSlot = super.getTestSlots().get(0);
+        List<TestSlot> testSlots = new ArrayList<>();
+        for (DesiredCapabilities capability : capabilities) {
+            Object maxInstances = capability.getCapability(RegistrationRequest.MAX_INSTANCES);
+            int instances = maxInstances == null ? 1 : Integer.parseInt(maxInstances.toString());
+            for (int i = 0; i < instances; i++) {
+                testSlots.add(new TestSlot(this, registeredSlot.getProtocol(), registeredSlot.getPath(),
+                        new HashMap<>(capability.asMap())));
+            }
+        }
+        return Collections.unmodifiableList(testSlots);
+    }
+
     /**
      * Receives a request to create a new session, but instead of accepting it, it will create a
      * docker-selenium container which will register to the hub, then reject the request and the hub
@@ -291,11 +405,13 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         LOGGER.log(Level.INFO, LOGGING_PREFIX + "Starting new node for {0}.", requestedCapability);
 
         String browserName = requestedCapability.get(CapabilityType.BROWSER_NAME).toString();
+        DockerSeleniumWarmPool.recordMiss(requestedCapability);
 
         /*
-            Here a docker-selenium container will be started and it will register to the hub
+            Here a docker-selenium container will be started and it will register to the hub, unless enough
+            containers are already starting for the queued requests of this browser
          */
-        startDockerSeleniumContainer(browserName);
+        getAutoscaler().startOnDemand(browserName);
         return null;
     }
 
@@ -309,6 +425,32 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         readConfigurationFromEnvVariables();
         setupCompleted = false;
         createStartupContainers();
+        startWarmPool();
+        startAutoscaler();
+    }
+
+    /*
+        The registry starts polling right before the proxy is added, from then on its capabilities can be used.
+     */
+    @Override
+    public void startPolling() {
+        super.startPolling();
+        capabilitiesGeneration.incrementAndGet();
+    }
+
+    @Override
+    public void teardown() {
+        super.teardown();
+        capabilitiesGeneration.incrementAndGet();
+        if (warmPool != null) {
+            warmPool.stop();
+        }
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+        if (creationPipeline != null) {
+            creationPipeline.stop();
+        }
     }
 
     /*
@@ -320,98 +462,117 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         return 98;
     }
 
+    /*
+        The creation pipeline calls this from several workers at once, so a container is reserved before it is
+        created and the reservation is only given back once the container counts as running and starting.
+     */
     @VisibleForTesting
     boolean startDockerSeleniumContainer(String browser) {
+        if (!reserveDockerSeleniumContainer()) {
+            return false;
+        }
+        try {
+            return createDockerSeleniumContainer(browser);
+        } finally {
+            releaseReservedContainer();
+        }
+    }
 
-        if (validateAmountOfDockerSeleniumContainers()) {
-
-            String hostIpAddress = "localhost";
-
-            /*
-                Building the docker command, depending if Chrome or Firefox is requested.
-                To launch only the requested node type.
-             */
-
-            final int nodePort = findFreePortInRange(LOWER_PORT_BOUNDARY, UPPER_PORT_BOUNDARY);
-            final int vncPort = nodePort + 10000;
-
-            List<String> envVariables = new ArrayList<>();
-            envVariables.add("SELENIUM_HUB_HOST=" + hostIpAddress);
-            envVariables.add("SELENIUM_HUB_PORT=4445");
-            envVariables.add("SELENIUM_NODE_HOST=" + hostIpAddress);
-            envVariables.add("GRID=false");
-            envVariables.add("RC_CHROME=false");
-            envVariables.add("RC_FIREFOX=false");
-            envVariables.add("WAIT_TIMEOUT=120s");
-            envVariables.add("PICK_ALL_RANDMON_PORTS=true");
-            envVariables.add("PICK_ALL_RANDOM_PORTS=true");
-            envVariables.add("VIDEO_STOP_SLEEP_SECS=1");
-            envVariables.add("WAIT_TIME_OUT_VIDEO_STOP=20s");
-            boolean sendAnonymousUsageInfo = env.getBooleanEnvVariable("ZALENIUM_SEND_ANONYMOUS_USAGE_INFO", false);
-            envVariables.add("SEND_ANONYMOUS_USAGE_INFO=" + sendAnonymousUsageInfo);
-            envVariables.add("BUILD_URL=" + env.getStringEnvVariable("BUILD_URL", ""));
-            envVariables.add("NOVNC=true");
-            envVariables.add("NOVNC_PORT=" + vncPort);
-            envVariables.add("SCREEN_WIDTH=" + getScreenWidth());
-            envVariables.add("SCREEN_HEIGHT=" + getScreenHeight());
-            envVariables.add("TZ=" + getTimeZone());
-            envVariables.add("SELENIUM_NODE_REGISTER_CYCLE=0");
-            envVariables.add("SELENIUM_NODE_PROXY_PARAMS=de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy");
-            if (BrowserType.CHROME.equalsIgnoreCase(browser)) {
-                envVariables.add("SELENIUM_NODE_CH_PORT=" + nodePort);
-                envVariables.add("CHROME=true");
-            } else {
-                envVariables.add("CHROME=false");
-            }
-            if (BrowserType.FIREFOX.equalsIgnoreCase(browser)) {
-                envVariables.add("SELENIUM_NODE_FF_PORT=" + nodePort);
-                envVariables.add("FIREFOX=true");
-            } else {
-                envVariables.add("FIREFOX=false");
-            }
+    private boolean createDockerSeleniumContainer(String browser) {
 
-            String networkMode = String.format("container:%s", getContainerName());
-            HostConfig hostConfig = HostConfig.builder()
-                    .shmSize(1073741824L) // 1GB
-                    .networkMode(networkMode)
-                    .appendBinds("/tmp/mounted:/tmp/mounted")
-                    .autoRemove(true)
+        String hostIpAddress = "localhost";
+
+        /*
+            Building the docker command, depending if Chrome or Firefox is requested.
+            To launch only the requested node type.
+         */
+
+        final int nodePort = portAllocator.allocate(DockerSeleniumStarterRemoteProxy::isPortFree);
+        if (nodePort == -1) {
+            LOGGER.log(Level.WARNING, LOGGING_PREFIX + "No free port left to start a docker-selenium container.");
+            return false;
+        }
+        final int vncPort = nodePort + 10000;
+
+        List<String> envVariables = new ArrayList<>();
+        envVariables.add("SELENIUM_HUB_HOST=" + hostIpAddress);
+        envVariables.add("SELENIUM_HUB_PORT=4445");
+        envVariables.add("SELENIUM_NODE_HOST=" + hostIpAddress);
+        envVariables.add("GRID=false");
+        envVariables.add("RC_CHROME=false");
+        envVariables.add("RC_FIREFOX=false");
+        envVariables.add("WAIT_TIMEOUT=120s");
+        envVariables.add("PICK_ALL_RANDMON_PORTS=true");
+        envVariables.add("PICK_ALL_RANDOM_PORTS=true");
+        envVariables.add("VIDEO_STOP_SLEEP_SECS=1");
+        envVariables.add("WAIT_TIME_OUT_VIDEO_STOP=20s");
+        boolean sendAnonymousUsageInfo = env.getBooleanEnvVariable("ZALENIUM_SEND_ANONYMOUS_USAGE_INFO", false);
+        envVariables.add("SEND_ANONYMOUS_USAGE_INFO=" + sendAnonymousUsageInfo);
+        envVariables.add("BUILD_URL=" + env.getStringEnvVariable("BUILD_URL", ""));
+        envVariables.add("NOVNC=true");
+        envVariables.add("NOVNC_PORT=" + vncPort);
+        envVariables.add("SCREEN_WIDTH=" + getScreenWidth());
+        envVariables.add("SCREEN_HEIGHT=" + getScreenHeight());
+        envVariables.add("TZ=" + getTimeZone());
+        envVariables.add("SELENIUM_NODE_REGISTER_CYCLE=0");
+        envVariables.add("SELENIUM_NODE_PROXY_PARAMS=de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy");
+        if (BrowserType.CHROME.equalsIgnoreCase(browser)) {
+            envVariables.add("SELENIUM_NODE_CH_PORT=" + nodePort);
+            envVariables.add("CHROME=true");
+        } else {
+            envVariables.add("CHROME=false");
+        }
+        if (BrowserType.FIREFOX.equalsIgnoreCase(browser)) {
+            envVariables.add("SELENIUM_NODE_FF_PORT=" + nodePort);
+            envVariables.add("FIREFOX=true");
+        } else {
+            envVariables.add("FIREFOX=false");
+        }
+
+        String networkMode = String.format("container:%s", getContainerName());
+        HostConfig hostConfig = HostConfig.builder()
+                .shmSize(1073741824L) // 1GB
+                .networkMode(networkMode)
+                .appendBinds("/tmp/mounted:/tmp/mounted")
+                .autoRemove(true)
+                .build();
+
+        try {
+            long stageStart = System.currentTimeMillis();
+            String image = getImageResolver().getLatestImage();
+            stageStart = recordStageLatency(ContainerCreationPipeline.STAGE_IMAGE, stageStart);
+            final ContainerConfig containerConfig = ContainerConfig.builder()
+                    .image(image)
+                    .env(envVariables)
+                    .hostConfig(hostConfig)
                     .build();
 
-            try {
-                final ContainerConfig containerConfig = ContainerConfig.builder()
-                        .image(getLatestDownloadedImage(DOCKER_SELENIUM_IMAGE))
-                        .env(envVariables)
-                        .hostConfig(hostConfig)
-                        .build();
-
-                String dockerSeleniumContainerName = String.format("%s_%s", getContainerName(), nodePort);
-                final ContainerCreation dockerSeleniumContainer = dockerClient.createContainer(containerConfig,
-                        dockerSeleniumContainerName);
-                dockerClient.startContainer(dockerSeleniumContainer.id());
-                return true;
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
-                ga.trackException(e);
-            }
+            String dockerSeleniumContainerName = String.format("%s_%s", getContainerName(), nodePort);
+            final ContainerCreation dockerSeleniumContainer = dockerClient.createContainer(containerConfig,
+                    dockerSeleniumContainerName);
+            stageStart = recordStageLatency(ContainerCreationPipeline.STAGE_CREATE, stageStart);
+            dockerClient.startContainer(dockerSeleniumContainer.id());
+            recordStageLatency(ContainerCreationPipeline.STAGE_START, stageStart);
+            getContainerInventory().containerStarted(dockerSeleniumContainer.id(), dockerSeleniumContainerName,
+                    image);
+            startingNodes.put(nodePort, new StartingNode(browser));
+            return true;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+            ga.trackException(e);
         }
+        releasePort(nodePort);
         return false;
     }
 
-    @SuppressWarnings("ConstantConditions")
-    private static String getLatestDownloadedImage(String imageName) throws DockerException, InterruptedException {
-        List<Image> images = dockerClient.listImages(DockerClient.ListImagesParam.byName(imageName));
-        if (images.isEmpty()) {
-            LOGGER.log(Level.SEVERE, "A downloaded docker-selenium image was not found!");
-            return DOCKER_SELENIUM_IMAGE;
-        }
-        for (int i = images.size() - 1; i >= 0; i--) {
-            if (images.get(i).repoTags() == null) {
-                images.remove(i);
-            }
-        }
-        images.sort((o1, o2) -> o2.created().compareTo(o1.created()));
-        return images.get(0).repoTags().get(0);
+    private static long recordStageLatency(String stage, long stageStart) {
+        long now = System.currentTimeMillis();
+        ContainerCreationPipeline.recordStageLatency(stage, now - stageStart);
+        return now;
+    }
+
+    static DockerSeleniumImageResolver getImageResolver() {
+        return DockerSeleniumImageResolver.getInstance(dockerClient);
     }
 
     @VisibleForTesting
@@ -423,33 +584,129 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         int configuredContainers = getChromeContainersOnStartup() + getFirefoxContainersOnStartup();
         int containersToCreate = configuredContainers > getMaxDockerSeleniumContainers() ?
                 getMaxDockerSeleniumContainers() : configuredContainers;
-        new Thread(() -> {
-            LOGGER.log(Level.INFO, String.format("%s Setting up %s nodes...", LOGGING_PREFIX, configuredContainers));
-            int createdContainers = 0;
-            while (createdContainers < containersToCreate && getNumberOfRunningContainers() <= getMaxDockerSeleniumContainers()) {
-                boolean wasContainerCreated;
-                if (createdContainers < getChromeContainersOnStartup()) {
-                    wasContainerCreated = startDockerSeleniumContainer(BrowserType.CHROME);
-                } else {
-                    wasContainerCreated = startDockerSeleniumContainer(BrowserType.FIREFOX);
-                }
-                createdContainers = wasContainerCreated ? createdContainers + 1 : createdContainers;
-            }
-            LOGGER.log(Level.INFO, String.format("%s containers were created, it will take a bit more until all get registered.", createdContainers));
+        ContainerCreationPipeline pipeline = getCreationPipeline();
+        LOGGER.log(Level.INFO, String.format("%s Setting up %s nodes, %s at a time...", LOGGING_PREFIX,
+                configuredContainers, pipeline.getParallelism()));
+        List<CompletableFuture<Boolean>> creations = new ArrayList<>();
+        for (int i = 0; i < containersToCreate; i++) {
+            String browser = i < getChromeContainersOnStartup() ? BrowserType.CHROME : BrowserType.FIREFOX;
+            creations.add(pipeline.submit(browser));
+        }
+        CompletableFuture.allOf(creations.toArray(new CompletableFuture[creations.size()])).whenComplete((v, t) -> {
+            long createdContainers = creations.stream().filter(creation -> creation.getNow(false)).count();
+            LOGGER.log(Level.INFO, String.format("%s containers were created, it will take a bit more until all get " +
+                    "registered. %s", createdContainers, ContainerCreationPipeline.getStageLatencySummary()));
             setupCompleted = true;
-        }).start();
+        });
     }
 
-    private int getNumberOfRunningContainers() {
-        try {
-            List<Container> containerList = dockerClient.listContainers(DockerClient.ListContainersParam.allContainers());
-            int numberOfDockerSeleniumContainers = 0;
-            for (Container container : containerList) {
-                if (container.image().contains(DOCKER_SELENIUM_IMAGE) && !"exited".equalsIgnoreCase(container.state())) {
-                    numberOfDockerSeleniumContainers++;
-                }
+    private void startWarmPool() {
+        if (warmPool != null) {
+            warmPool.stop();
+        }
+        warmPool = new DockerSeleniumWarmPool(this, env);
+        warmPool.start();
+    }
+
+    private void startAutoscaler() {
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+        autoscaler = new DockerSeleniumAutoscaler(this, env);
+        autoscaler.start();
+    }
+
+    synchronized ContainerCreationPipeline getCreationPipeline() {
+        if (creationPipeline == null) {
+            creationPipeline = new ContainerCreationPipeline(this, env);
+        }
+        return creationPipeline;
+    }
+
+    private synchronized DockerSeleniumAutoscaler getAutoscaler() {
+        if (autoscaler == null) {
+            autoscaler = new DockerSeleniumAutoscaler(this, env);
+        }
+        return autoscaler;
+    }
+
+    @VisibleForTesting
+    static DockerSeleniumWarmPool getWarmPool() {
+        return warmPool;
+    }
+
+    /*
+        Invoked when a docker-selenium node leaves the grid, the warm pool (if enabled) gets refilled right away
+        instead of waiting for its next refill cycle.
+     */
+    static void triggerWarmPoolRefill() {
+        if (warmPool != null) {
+            warmPool.refillSoon();
+        }
+    }
+
+    /*
+        A docker-selenium node registered to the hub, so its container is not starting anymore.
+     */
+    static void nodeRegistered(int nodePort) {
+        StartingNode startingNode = startingNodes.remove(nodePort);
+        if (startingNode != null) {
+            OverflowRoutingPolicy.getInstance().recordNodeStartLatency(
+                    System.currentTimeMillis() - startingNode.startTime);
+        }
+    }
+
+    /*
+        Amount of containers started for the given browser that have not registered to the hub yet. Entries older than
+        the registration timeout are discarded, since those containers will not register anymore.
+     */
+    static int getAmountOfStartingNodes(String browser) {
+        removeExpiredStartingNodes();
+        int amountOfStartingNodes = 0;
+        for (StartingNode node : startingNodes.values()) {
+            if (node.browser.equalsIgnoreCase(browser)) {
+                amountOfStartingNodes++;
             }
-            return numberOfDockerSeleniumContainers;
+        }
+        return amountOfStartingNodes;
+    }
+
+    static int getAmountOfStartingNodes() {
+        removeExpiredStartingNodes();
+        return startingNodes.size();
+    }
+
+    private static void removeExpiredStartingNodes() {
+        long now = System.currentTimeMillis();
+        startingNodes.entrySet().removeIf(startingNode -> {
+            boolean expired = now - startingNode.getValue().startTime > NODE_REGISTRATION_TIMEOUT;
+            if (expired) {
+                releasePort(startingNode.getKey());
+            }
+            return expired;
+        });
+    }
+
+    /*
+        Invoked when a docker-selenium node leaves the grid or its container could not be started, the port goes
+        through a quarantine before being used again.
+     */
+    static void releasePort(int nodePort) {
+        portAllocator.release(nodePort);
+    }
+
+    @VisibleForTesting
+    static void clearStartingNodes() {
+        startingNodes.clear();
+    }
+
+    static DockerContainerInventory getContainerInventory() {
+        return DockerContainerInventory.getInstance(dockerClient);
+    }
+
+    int getNumberOfRunningContainers() {
+        try {
+            return getContainerInventory().getAmountOfRunningDockerSeleniumContainers();
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
             ga.trackException(e);
@@ -457,32 +714,39 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         return 0;
     }
 
-    private boolean validateAmountOfDockerSeleniumContainers() {
+    /*
+        Checks the limits and takes a place among them in one step, so containers created at the same time cannot
+        overshoot the max. amount of docker-selenium containers.
+     */
+    private boolean reserveDockerSeleniumContainer() {
         try {
-            int numberOfDockerSeleniumContainers = getNumberOfRunningContainers();
-
-            /*
-                Validation to avoid the situation where 20 containers are running and only 4 proxies are registered.
-                The remaining 16 are not registered because they are all trying to do it and the hub just cannot
-                process all the registrations fast enough, causing many unexpected errors.
-            */
-            int tolerableDifference = 4;
-            int numberOfProxies = getRegistry().getAllProxies().size() + tolerableDifference;
-            if (numberOfDockerSeleniumContainers > numberOfProxies) {
-                LOGGER.log(Level.FINE, LOGGING_PREFIX + "More docker-selenium containers running than proxies, {0} vs. {1}",
-                        new Object[]{numberOfDockerSeleniumContainers, numberOfProxies});
-                Thread.sleep(500);
-                return false;
-            }
+            int maxStartingContainers = getAutoscaler().getMaxStartingContainers();
+            synchronized (containerReservationLock) {
+                int numberOfDockerSeleniumContainers = getNumberOfRunningContainers() + reservedContainers;
+
+                /*
+                    Validation to avoid the situation where 20 containers are running and only 4 proxies are
+                    registered. The hub cannot process all registrations at once, so only a limited amount of
+                    containers is allowed to be starting at the same time.
+                */
+                int startingContainers = getAmountOfStartingNodes() + reservedContainers;
+                if (startingContainers >= maxStartingContainers) {
+                    LOGGER.log(Level.FINE, LOGGING_PREFIX + "{0} docker-selenium containers starting already, max. " +
+                            "is {1}", new Object[]{startingContainers, maxStartingContainers});
+                    return false;
+                }
 
-            LOGGER.log(Level.FINE, () -> String.format("%s %s docker-selenium containers running", LOGGING_PREFIX,
-                    numberOfDockerSeleniumContainers));
-            if (numberOfDockerSeleniumContainers >= getMaxDockerSeleniumContainers()) {
-                LOGGER.log(Level.FINE, LOGGING_PREFIX + "Max. number of docker-selenium containers has been reached, " +
-                        "no more will be created until the number decreases below {0}.", getMaxDockerSeleniumContainers());
-                return false;
+                LOGGER.log(Level.FINE, () -> String.format("%s %s docker-selenium containers running", LOGGING_PREFIX,
+                        numberOfDockerSeleniumContainers));
+                if (numberOfDockerSeleniumContainers >= getMaxDockerSeleniumContainers()) {
+                    LOGGER.log(Level.FINE, LOGGING_PREFIX + "Max. number of docker-selenium containers has been " +
+                            "reached, no more will be created until the number decreases below {0}.",
+                            getMaxDockerSeleniumContainers());
+                    return false;
+                }
+                reservedContainers++;
+                return true;
             }
-            return true;
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
             ga.trackException(e);
@@ -490,37 +754,52 @@ public class DockerSeleniumStarterRemoteProxy extends DefaultRemoteProxy impleme
         return false;
     }
 
+    private static void releaseReservedContainer() {
+        synchronized (containerReservationLock) {
+            reservedContainers--;
+        }
+    }
+
     /*
-        Method adapted from https://gist.github.com/vorburger/3429822
+        False once the running and reserved containers reached the max., retrying to create one is pointless then.
      */
-    private int findFreePortInRange(int lowerBoundary, int upperBoundary) {
-        /*
-            If the list size is this big (~9800), it means that almost all ports have been used, but
-            probably many have been released already. The list is cleared so ports can be reused.
-            If by any chance one of the first allocated ports is still used, it will be skipped by the
-            existing validation.
-         */
-        if (allocatedPorts.size() > (upperBoundary - lowerBoundary - 200)) {
-            allocatedPorts.clear();
-            LOGGER.log(Level.INFO, () -> LOGGING_PREFIX + "Cleaning allocated ports list.");
-        }
-        for (int portNumber = lowerBoundary; portNumber <= upperBoundary; portNumber++) {
-            if (!allocatedPorts.contains(portNumber)) {
-                int freePort = -1;
-
-                try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
-                    freePort = serverSocket.getLocalPort();
-                } catch (IOException e) {
-                    LOGGER.log(Level.FINE, LOGGING_PREFIX + e.toString(), e);
-                }
+    boolean hasRoomForDockerSeleniumContainer() {
+        synchronized (containerReservationLock) {
+            return getNumberOfRunningContainers() + reservedContainers < getMaxDockerSeleniumContainers();
+        }
+    }
 
-                if (freePort != -1) {
-                    allocatedPorts.add(freePort);
-                    return freePort;
-                }
-            }
+    /*
+        False while the max. amount of containers is starting, a creation has to wait for some nodes to register.
+     */
+    boolean hasRoomForStartingContainer() {
+        int maxStartingContainers = getAutoscaler().getMaxStartingContainers();
+        synchronized (containerReservationLock) {
+            return getAmountOfStartingNodes() + reservedContainers < maxStartingContainers;
+        }
+    }
+
+    /*
+        Checks that nothing outside Zalenium is listening on the port, the allocator already skips the ports of the
+        other nodes.
+     */
+    private static boolean isPortFree(int port) {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            return serverSocket.getLocalPort() == port;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, LOGGING_PREFIX + e.toString(), e);
+            return false;
+        }
+    }
+
+    private static final class StartingNode {
+        private final String browser;
+        private final long startTime;
+
+        private StartingNode(String browser) {
+            this.browser = browser;
+            this.startTime = System.currentTimeMillis();
         }
-        return -1;
     }
 
 }
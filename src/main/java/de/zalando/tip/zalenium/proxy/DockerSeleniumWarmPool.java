@@ -0,0 +1,196 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import de.zalando.tip.zalenium.util.Environment;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.selenium.remote.BrowserType;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a configurable amount of idle docker-selenium nodes per browser registered in the hub, so a new session
+ * does not need to wait until a container is started and its node registers.
+ * The pool is checked every refill interval and also right after a docker-selenium node leaves the grid. When the
+ * available nodes for a browser (idle + starting) drop below the low watermark, new containers are started until the
+ * high watermark is reached, but never more than the refill rate in a single cycle.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DockerSeleniumWarmPool {
+
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_CHROME_CONTAINERS = "ZALENIUM_WARM_POOL_CHROME_CONTAINERS";
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_FIREFOX_CONTAINERS = "ZALENIUM_WARM_POOL_FIREFOX_CONTAINERS";
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_LOW_WATERMARK = "ZALENIUM_WARM_POOL_LOW_WATERMARK";
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_HIGH_WATERMARK = "ZALENIUM_WARM_POOL_HIGH_WATERMARK";
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_REFILL_RATE = "ZALENIUM_WARM_POOL_REFILL_RATE";
+    @VisibleForTesting
+    static final String ZALENIUM_WARM_POOL_REFILL_INTERVAL = "ZALENIUM_WARM_POOL_REFILL_INTERVAL";
+    @VisibleForTesting
+    static final int DEFAULT_WARM_POOL_CONTAINERS = 0;
+    // Watermarks are a percentage of the pool size
+    @VisibleForTesting
+    static final int DEFAULT_WARM_POOL_LOW_WATERMARK = 100;
+    @VisibleForTesting
+    static final int DEFAULT_WARM_POOL_HIGH_WATERMARK = 100;
+    @VisibleForTesting
+    static final int DEFAULT_WARM_POOL_REFILL_RATE = 2;
+    @VisibleForTesting
+    static final int DEFAULT_WARM_POOL_REFILL_INTERVAL = 1000;
+    private static final Logger LOGGER = Logger.getLogger(DockerSeleniumWarmPool.class.getName());
+    private static final String LOGGING_PREFIX = "[WP] ";
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    /*
+        Requests already counted as a miss. The hub offers the same capabilities map again and again until the
+        request gets a session, so the map identifies the request. Weak keys drop requests that timed out.
+     */
+    private static final Set<Map<String, Object>> missedRequests =
+            Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+    private final DockerSeleniumStarterRemoteProxy starterProxy;
+    private final int chromeContainers;
+    private final int firefoxContainers;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int refillRate;
+    private final int refillInterval;
+    private ScheduledExecutorService refillExecutor;
+
+    DockerSeleniumWarmPool(DockerSeleniumStarterRemoteProxy starterProxy, Environment env) {
+        this.starterProxy = starterProxy;
+        this.chromeContainers = Math.max(0, env.getIntEnvVariable(ZALENIUM_WARM_POOL_CHROME_CONTAINERS,
+                DEFAULT_WARM_POOL_CONTAINERS));
+        this.firefoxContainers = Math.max(0, env.getIntEnvVariable(ZALENIUM_WARM_POOL_FIREFOX_CONTAINERS,
+                DEFAULT_WARM_POOL_CONTAINERS));
+        int low = env.getIntEnvVariable(ZALENIUM_WARM_POOL_LOW_WATERMARK, DEFAULT_WARM_POOL_LOW_WATERMARK);
+        this.lowWatermark = low <= 0 ? DEFAULT_WARM_POOL_LOW_WATERMARK : low;
+        int high = env.getIntEnvVariable(ZALENIUM_WARM_POOL_HIGH_WATERMARK, DEFAULT_WARM_POOL_HIGH_WATERMARK);
+        this.highWatermark = high < this.lowWatermark ? this.lowWatermark : high;
+        int rate = env.getIntEnvVariable(ZALENIUM_WARM_POOL_REFILL_RATE, DEFAULT_WARM_POOL_REFILL_RATE);
+        this.refillRate = rate <= 0 ? DEFAULT_WARM_POOL_REFILL_RATE : rate;
+        int interval = env.getIntEnvVariable(ZALENIUM_WARM_POOL_REFILL_INTERVAL, DEFAULT_WARM_POOL_REFILL_INTERVAL);
+        this.refillInterval = interval <= 0 ? DEFAULT_WARM_POOL_REFILL_INTERVAL : interval;
+    }
+
+    /*
+        A session was assigned to a docker-selenium node. It is a hit unless the request already had to wait for a
+        new container, in which case it was counted as a miss before.
+     */
+    static void recordSession(Map<String, Object> requestedCapability) {
+        if (!missedRequests.remove(requestedCapability)) {
+            hits.incrementAndGet();
+        }
+    }
+
+    /*
+        A request had to wait until a new container was started, counted only the first time it is offered.
+     */
+    static void recordMiss(Map<String, Object> requestedCapability) {
+        if (missedRequests.add(requestedCapability)) {
+            misses.incrementAndGet();
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    @VisibleForTesting
+    static void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        missedRequests.clear();
+    }
+
+    public boolean isEnabled() {
+        return chromeContainers > 0 || firefoxContainers > 0;
+    }
+
+    synchronized void start() {
+        if (!isEnabled() || refillExecutor != null) {
+            return;
+        }
+        LOGGER.log(Level.INFO, () -> String.format("%sKeeping %s Chrome and %s Firefox idle nodes, low watermark %s%%, " +
+                "high watermark %s%%, refill rate %s containers every %sms.", LOGGING_PREFIX, chromeContainers,
+                firefoxContainers, lowWatermark, highWatermark, refillRate, refillInterval));
+        refillExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-warm-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refillExecutor.scheduleWithFixedDelay(this::refill, refillInterval, refillInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (refillExecutor != null) {
+            refillExecutor.shutdownNow();
+            refillExecutor = null;
+        }
+    }
+
+    synchronized void refillSoon() {
+        if (refillExecutor != null) {
+            refillExecutor.execute(this::refill);
+        }
+    }
+
+    @VisibleForTesting
+    void refill() {
+        try {
+            refill(BrowserType.CHROME, chromeContainers);
+            refill(BrowserType.FIREFOX, firefoxContainers);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + e.toString(), e);
+        }
+    }
+
+    private void refill(String browser, int poolSize) {
+        if (poolSize == 0) {
+            return;
+        }
+        int availableNodes = getAmountOfIdleNodes(browser) +
+                DockerSeleniumStarterRemoteProxy.getAmountOfStartingNodes(browser);
+        if (availableNodes >= getWatermark(poolSize, lowWatermark)) {
+            return;
+        }
+        int containersToStart = Math.min(getWatermark(poolSize, highWatermark) - availableNodes, refillRate);
+        int startedContainers = 0;
+        while (startedContainers < containersToStart && starterProxy.startDockerSeleniumContainer(browser)) {
+            startedContainers++;
+        }
+        int finalStartedContainers = startedContainers;
+        LOGGER.log(Level.INFO, () -> String.format("%s%s %s nodes available, %s started. Hits: %s, misses: %s",
+                LOGGING_PREFIX, availableNodes, browser, finalStartedContainers, getHits(), getMisses()));
+    }
+
+    private int getAmountOfIdleNodes(String browser) {
+        int idleNodes = 0;
+        for (RemoteProxy proxy : starterProxy.getRegistry().getAllProxies()) {
+            if (proxy instanceof DockerSeleniumRemoteProxy && ((DockerSeleniumRemoteProxy) proxy).isIdle(browser)) {
+                idleNodes++;
+            }
+        }
+        return idleNodes;
+    }
+
+    private static int getWatermark(int poolSize, int percentage) {
+        return (int) Math.ceil(poolSize * percentage / 100.0);
+    }
+
+}
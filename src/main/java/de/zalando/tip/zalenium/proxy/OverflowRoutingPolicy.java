@@ -0,0 +1,180 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides when requests that docker-selenium can serve are sent to a cloud testing provider instead, so they do not
+ * wait too long in the queue during peaks. The wait for a local node is estimated from measured values: the time
+ * containers take to register while more containers can be started, and the duration of the tests once the max.
+ * amount of containers is reached. Queued requests that would wait longer than the configured threshold can go to a
+ * provider, as long as the provider has been starting sessions faster than that wait.
+ * The autoscaler updates the amount of requests that can overflow on every tick, and each session started in a
+ * provider for such a request uses one of them. Overflowing is disabled unless a threshold is configured.
+ */
+@SuppressWarnings("WeakerAccess")
+public class OverflowRoutingPolicy {
+
+    @VisibleForTesting
+    static final String ZALENIUM_OVERFLOW_WAIT_THRESHOLD = "ZALENIUM_OVERFLOW_WAIT_THRESHOLD";
+    // In seconds, 0 means that requests never overflow
+    @VisibleForTesting
+    static final int DEFAULT_OVERFLOW_WAIT_THRESHOLD = 0;
+    private static final Logger LOGGER = Logger.getLogger(OverflowRoutingPolicy.class.getName());
+    private static final String LOGGING_PREFIX = "[OR] ";
+    private static final Environment defaultEnvironment = new Environment();
+    private static OverflowRoutingPolicy instance;
+    private final long waitThreshold;
+    private final MeasuredLatency nodeStartLatency = new MeasuredLatency();
+    private final MeasuredLatency sessionDuration = new MeasuredLatency();
+    private final Map<String, MeasuredLatency> providerStartLatencies = new ConcurrentHashMap<>();
+    private final Map<String, BrowserOverflow> overflows = new ConcurrentHashMap<>();
+
+    @VisibleForTesting
+    OverflowRoutingPolicy(Environment env) {
+        int threshold = env.getIntEnvVariable(ZALENIUM_OVERFLOW_WAIT_THRESHOLD, DEFAULT_OVERFLOW_WAIT_THRESHOLD);
+        this.waitThreshold = TimeUnit.SECONDS.toMillis(Math.max(threshold, 0));
+    }
+
+    public static synchronized OverflowRoutingPolicy getInstance() {
+        if (instance == null) {
+            instance = new OverflowRoutingPolicy(defaultEnvironment);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void setInstance(OverflowRoutingPolicy overflowRoutingPolicy) {
+        instance = overflowRoutingPolicy;
+    }
+
+    @VisibleForTesting
+    public static synchronized void restoreInstance() {
+        instance = null;
+    }
+
+    public boolean isEnabled() {
+        return waitThreshold > 0;
+    }
+
+    /*
+        Time between starting a docker-selenium container and its registration in the hub.
+     */
+    void recordNodeStartLatency(long latency) {
+        nodeStartLatency.record(latency);
+    }
+
+    void recordSessionDuration(long duration) {
+        sessionDuration.record(duration);
+    }
+
+    /*
+        Time the given provider took to start a session.
+     */
+    void recordProviderStartLatency(String provider, long latency) {
+        providerStartLatencies.computeIfAbsent(provider, key -> new MeasuredLatency()).record(latency);
+    }
+
+    /*
+        Invoked by the autoscaler with the queued requests for the browser and the docker-selenium capacity for them:
+        idle nodes, containers starting, and containers that can still be started.
+     */
+    void update(String browser, int queuedRequests, int idleNodes, int startingNodes, int startableNodes,
+                int maxNodes) {
+        if (!isEnabled()) {
+            return;
+        }
+        int waitingForNodes = Math.max(0, queuedRequests - idleNodes);
+        int waitingForStartingNodes = Math.min(waitingForNodes, startingNodes + startableNodes);
+        int waitingForFreeNodes = waitingForNodes - waitingForStartingNodes;
+        long expectedWait = 0;
+        int overflowingRequests = 0;
+        if (waitingForStartingNodes > 0 && nodeStartLatency.isMeasured() &&
+                nodeStartLatency.getAverage() > waitThreshold) {
+            expectedWait = nodeStartLatency.getAverage();
+            overflowingRequests += waitingForStartingNodes;
+        }
+        if (waitingForFreeNodes > 0) {
+            // A node is freed when a running test finishes, all nodes take one more round of tests before the last
+            long rounds = (waitingForFreeNodes + Math.max(maxNodes, 1) - 1) / Math.max(maxNodes, 1);
+            long freeNodeWait = sessionDuration.isMeasured() ? rounds * sessionDuration.getAverage() : Long.MAX_VALUE;
+            if (freeNodeWait > waitThreshold) {
+                expectedWait = Math.max(expectedWait, freeNodeWait);
+                overflowingRequests += waitingForFreeNodes;
+            }
+        }
+        BrowserOverflow overflow = overflows.computeIfAbsent(browser.toLowerCase(), key -> new BrowserOverflow());
+        int previousOverflowingRequests = overflow.allowedRequests.getAndSet(overflowingRequests);
+        overflow.expectedWait = expectedWait;
+        if (overflowingRequests != previousOverflowingRequests && overflowingRequests > 0) {
+            int finalOverflowingRequests = overflowingRequests;
+            long finalExpectedWait = expectedWait;
+            LOGGER.log(Level.INFO, () -> String.format("%s%s queued %s requests would wait %s, they can be sent to a " +
+                    "cloud testing provider.", LOGGING_PREFIX, finalOverflowingRequests, browser,
+                    finalExpectedWait == Long.MAX_VALUE ? "for a running test to finish" :
+                            "about " + TimeUnit.MILLISECONDS.toSeconds(finalExpectedWait) + "s"));
+        }
+    }
+
+    /*
+        Whether a request for the browser, which docker-selenium can serve, should go to the given provider.
+     */
+    public boolean canOverflow(String browser, String provider) {
+        if (!isEnabled()) {
+            return false;
+        }
+        BrowserOverflow overflow = overflows.get(browser.toLowerCase());
+        if (overflow == null || overflow.allowedRequests.get() <= 0) {
+            return false;
+        }
+        MeasuredLatency providerStartLatency = provider == null ? null : providerStartLatencies.get(provider);
+        // Providers without sessions yet get a chance, otherwise they need to be faster than waiting
+        return providerStartLatency == null || !providerStartLatency.isMeasured() ||
+                providerStartLatency.getAverage() < overflow.expectedWait;
+    }
+
+    /*
+        A request for the browser was sent to a provider.
+     */
+    public void overflowed(String browser) {
+        BrowserOverflow overflow = overflows.get(browser.toLowerCase());
+        if (overflow != null) {
+            overflow.allowedRequests.getAndUpdate(allowed -> Math.max(allowed - 1, 0));
+        }
+    }
+
+    private static final class BrowserOverflow {
+        private final AtomicInteger allowedRequests = new AtomicInteger();
+        private volatile long expectedWait;
+    }
+
+    /*
+        Exponentially weighted moving average, recent measurements count more.
+     */
+    private static final class MeasuredLatency {
+        private static final double WEIGHT = 0.2;
+        private final AtomicLong average = new AtomicLong(-1);
+
+        private void record(long latency) {
+            average.getAndUpdate(previous -> previous < 0 ? latency :
+                    Math.round(previous + WEIGHT * (latency - previous)));
+        }
+
+        private boolean isMeasured() {
+            return average.get() >= 0;
+        }
+
+        private long getAverage() {
+            return average.get();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.function.IntPredicate;
+
+/**
+ * Hands out ports from a fixed range to docker-selenium nodes. Free ports are kept in a queue and allocated ports in a
+ * bit set, so allocating and releasing a port does not depend on how many ports are in use.
+ * A released port goes through a quarantine before it can be allocated again, which gives the container that used it
+ * some time to be stopped and removed. Released ports are reused in the same order they were released.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PortAllocator {
+
+    private final int lowerBoundary;
+    private final int upperBoundary;
+    private final BitSet allocatedPorts;
+    private final Deque<Integer> freePorts = new ArrayDeque<>();
+    private final Deque<QuarantinedPort> quarantinedPorts = new ArrayDeque<>();
+    private long quarantine;
+
+    public PortAllocator(int lowerBoundary, int upperBoundary, long quarantine) {
+        this.lowerBoundary = lowerBoundary;
+        this.upperBoundary = upperBoundary;
+        this.allocatedPorts = new BitSet(upperBoundary - lowerBoundary + 1);
+        this.quarantine = quarantine;
+        for (int port = lowerBoundary; port <= upperBoundary; port++) {
+            freePorts.add(port);
+        }
+    }
+
+    public synchronized void setQuarantine(long quarantine) {
+        this.quarantine = quarantine;
+    }
+
+    /*
+        Allocates the next free port that also passes the given check, e.g. that nothing else is listening on it.
+        Ports failing the check are quarantined as if they were released. Returns -1 when no port is available.
+     */
+    public synchronized int allocate(IntPredicate isPortAvailable) {
+        releaseQuarantinedPorts();
+        int candidates = freePorts.size();
+        for (int i = 0; i < candidates; i++) {
+            int port = freePorts.poll();
+            if (isPortAvailable.test(port)) {
+                allocatedPorts.set(port - lowerBoundary);
+                return port;
+            }
+            quarantine(port);
+        }
+        return -1;
+    }
+
+    public synchronized void release(int port) {
+        if (port < lowerBoundary || port > upperBoundary || !allocatedPorts.get(port - lowerBoundary)) {
+            return;
+        }
+        allocatedPorts.clear(port - lowerBoundary);
+        quarantine(port);
+    }
+
+    public synchronized boolean isAllocated(int port) {
+        return port >= lowerBoundary && port <= upperBoundary && allocatedPorts.get(port - lowerBoundary);
+    }
+
+    @VisibleForTesting
+    synchronized int getAmountOfFreePorts() {
+        releaseQuarantinedPorts();
+        return freePorts.size();
+    }
+
+    private void quarantine(int port) {
+        if (quarantine <= 0) {
+            freePorts.add(port);
+        } else {
+            quarantinedPorts.add(new QuarantinedPort(port, System.currentTimeMillis() + quarantine));
+        }
+    }
+
+    /*
+        Ports are quarantined in release order, so only the head of the queue needs to be checked.
+     */
+    private void releaseQuarantinedPorts() {
+        long now = System.currentTimeMillis();
+        while (!quarantinedPorts.isEmpty() && quarantinedPorts.peek().releaseTime <= now) {
+            freePorts.add(quarantinedPorts.poll().port);
+        }
+    }
+
+    private static final class QuarantinedPort {
+        private final int port;
+        private final long releaseTime;
+
+        private QuarantinedPort(int port, long releaseTime) {
+            this.port = port;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+}
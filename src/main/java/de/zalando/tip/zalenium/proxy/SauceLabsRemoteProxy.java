@@ -27,9 +27,61 @@ public class SauceLabsRemoteProxy extends CloudTestingRemoteProxy {
     private static final String SAUCE_LABS_URL = "http://ondemand.saucelabs.com:80";
     private static final Logger LOGGER = Logger.getLogger(SauceLabsRemoteProxy.class.getName());
     private static final String SAUCE_LABS_DEFAULT_CAPABILITIES_BK_FILE = "saucelabs_capabilities.json";
+    private static final String SAUCE_LABS_CONCURRENCY_URL =
+            "https://%s:%s@saucelabs.com/rest/v1.1/users/%s/concurrency";
+    private static final String SAUCE_LABS_CONCURRENCY_BK_FILE = "saucelabs_concurrency.json";
+    private static final String SAUCE_LABS_JOB_URL = "https://%s:%s@saucelabs.com/rest/v1/%s/jobs/%s";
 
     public SauceLabsRemoteProxy(RegistrationRequest request, Registry registry) {
-        super(updateSLCapabilities(request, SAUCE_LABS_CAPABILITIES_URL), registry);
+        super(setMaxSessions(updateSLCapabilities(request, SAUCE_LABS_CAPABILITIES_URL),
+                getAccountConcurrencyLimit().getLimit()), registry);
+    }
+
+    private static CloudConcurrencyLimit getAccountConcurrencyLimit() {
+        return CloudConcurrencyLimit.getInstance("SauceLabs", () -> readAccountConcurrency(String.format(
+                SAUCE_LABS_CONCURRENCY_URL, SAUCE_LABS_USER_NAME, SAUCE_LABS_ACCESS_KEY, SAUCE_LABS_USER_NAME)),
+                getEnv());
+    }
+
+    /*
+        Virtual machines the organization of the account can use at the same time, -1 when it is not known.
+     */
+    @VisibleForTesting
+    static int readAccountConcurrency(String url) {
+        JsonElement slConcurrency = getCommonProxyUtilities().readJSONFromUrl(url);
+        if (slConcurrency == null) {
+            LOGGER.log(Level.INFO, "[SL] Concurrency limit was NOT fetched, loading from backup file");
+            slConcurrency = getCommonProxyUtilities().readJSONFromFile(SAUCE_LABS_CONCURRENCY_BK_FILE);
+        }
+        try {
+            return slConcurrency.getAsJsonObject().getAsJsonObject("concurrency").getAsJsonObject("organization")
+                    .getAsJsonObject("allowed").get("vms").getAsInt();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+        }
+        return -1;
+    }
+
+    /*
+        The assets of a job are uploaded once the job is complete, and there is no video when it was not recorded.
+     */
+    @VisibleForTesting
+    static CloudVideoDownloadQueue.VideoStatus readVideoStatus(String url) {
+        JsonElement slJob = getCommonProxyUtilities().readJSONFromUrl(url);
+        try {
+            JsonObject job = slJob.getAsJsonObject();
+            if (job.has("record_video") && !job.get("record_video").getAsBoolean()) {
+                return CloudVideoDownloadQueue.VideoStatus.NOT_AVAILABLE;
+            }
+            String status = job.get("status").getAsString();
+            if ("complete".equalsIgnoreCase(status) || "error".equalsIgnoreCase(status)) {
+                return CloudVideoDownloadQueue.VideoStatus.READY;
+            }
+            return CloudVideoDownloadQueue.VideoStatus.PROCESSING;
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "[SL] Job status was NOT fetched " + e.toString(), e);
+        }
+        return CloudVideoDownloadQueue.VideoStatus.UNKNOWN;
     }
 
     @VisibleForTesting
@@ -56,7 +108,6 @@ public class SauceLabsRemoteProxy extends CloudTestingRemoteProxy {
         for (JsonElement cap : slCapabilities.getAsJsonArray()) {
             JsonObject capAsJsonObject = cap.getAsJsonObject();
             DesiredCapabilities desiredCapabilities = new DesiredCapabilities();
-            desiredCapabilities.setCapability(RegistrationRequest.MAX_INSTANCES, 5);
             desiredCapabilities.setBrowserName(capAsJsonObject.get("api_name").getAsString());
             desiredCapabilities.setPlatform(getPlatform(capAsJsonObject.get("os").getAsString()));
             if (!registrationRequest.getCapabilities().contains(desiredCapabilities)) {
@@ -79,6 +130,11 @@ public class SauceLabsRemoteProxy extends CloudTestingRemoteProxy {
         return super.getNewSession(requestedCapability);
     }
 
+    @Override
+    protected CloudConcurrencyLimit getConcurrencyLimit() {
+        return getAccountConcurrencyLimit();
+    }
+
     @Override
     public String getUserNameProperty() {
         return "username";
@@ -110,6 +166,12 @@ public class SauceLabsRemoteProxy extends CloudTestingRemoteProxy {
         return String.format(sauceLabsVideoUrl, getUserNameValue(), getAccessKeyValue(), getUserNameValue(), seleniumSessionId);
     }
 
+    @Override
+    public CloudVideoDownloadQueue.VideoStatus getVideoStatus(String seleniumSessionId) {
+        return readVideoStatus(String.format(SAUCE_LABS_JOB_URL, getUserNameValue(), getAccessKeyValue(),
+                getUserNameValue(), seleniumSessionId));
+    }
+
     @Override
     public String getVideoFileExtension() {
         return ".flv";
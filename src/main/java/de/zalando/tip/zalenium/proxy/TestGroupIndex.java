@@ -0,0 +1,48 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Docker-selenium nodes by the test group of their current session, so the live preview filtered by a group only
+ * goes through the nodes of that group. Nodes are added when a session with a group starts, and removed when the
+ * node is cleaned up after the session or leaves the grid. Groups are compared ignoring the case.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TestGroupIndex {
+
+    private static final Map<String, Set<DockerSeleniumRemoteProxy>> groups = new ConcurrentHashMap<>();
+
+    private TestGroupIndex() {
+    }
+
+    public static List<DockerSeleniumRemoteProxy> getProxies(String group) {
+        Set<DockerSeleniumRemoteProxy> proxies = groups.get(group.toLowerCase());
+        return proxies == null ? Collections.emptyList() : new ArrayList<>(proxies);
+    }
+
+    static void groupChanged(DockerSeleniumRemoteProxy proxy, String previousGroup, String group) {
+        if (previousGroup != null && !previousGroup.isEmpty()) {
+            groups.computeIfPresent(previousGroup.toLowerCase(), (key, proxies) -> {
+                proxies.remove(proxy);
+                return proxies.isEmpty() ? null : proxies;
+            });
+        }
+        if (group != null && !group.isEmpty()) {
+            // Nodes are compared by identity, a node registering again with the same id is a different proxy
+            groups.compute(group.toLowerCase(), (key, proxies) -> {
+                Set<DockerSeleniumRemoteProxy> groupProxies = proxies == null ?
+                        Collections.newSetFromMap(new MapMaker().weakKeys().makeMap()) : proxies;
+                groupProxies.add(proxy);
+                return groupProxies;
+            });
+        }
+    }
+
+}
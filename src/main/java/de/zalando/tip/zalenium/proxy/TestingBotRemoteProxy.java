@@ -24,10 +24,53 @@ public class TestingBotRemoteProxy extends CloudTestingRemoteProxy {
     private static final String TESTINGBOT_CAPABILITIES_BK_FILE = "testingbot_capabilities.json";
     private static final String TESTINGBOT_KEY = getEnv().getStringEnvVariable("TESTINGBOT_KEY", "");
     private static final String TESTINGBOT_SECRET = getEnv().getStringEnvVariable("TESTINGBOT_SECRET", "");
+    private static final String TESTINGBOT_USER_URL = "https://%s:%s@api.testingbot.com/v1/user";
+    private static final String TESTINGBOT_USER_BK_FILE = "testingbot_user.json";
+    private static final String TESTINGBOT_TEST_URL = "https://%s:%s@api.testingbot.com/v1/tests/%s";
 
     public TestingBotRemoteProxy(RegistrationRequest request, Registry registry) {
-        super(updateTBCapabilities(request, String.format(TESTINGBOT_CAPABILITIES_URL, TESTINGBOT_KEY,
-                TESTINGBOT_SECRET)), registry);
+        super(setMaxSessions(updateTBCapabilities(request, String.format(TESTINGBOT_CAPABILITIES_URL, TESTINGBOT_KEY,
+                TESTINGBOT_SECRET)), getAccountConcurrencyLimit().getLimit()), registry);
+    }
+
+    private static CloudConcurrencyLimit getAccountConcurrencyLimit() {
+        return CloudConcurrencyLimit.getInstance("TestingBot", () -> readAccountConcurrency(String.format(
+                TESTINGBOT_USER_URL, TESTINGBOT_KEY, TESTINGBOT_SECRET)), getEnv());
+    }
+
+    /*
+        Concurrent sessions allowed for the user, -1 when it is not known.
+     */
+    @VisibleForTesting
+    static int readAccountConcurrency(String url) {
+        JsonElement tbUser = getCommonProxyUtilities().readJSONFromUrl(url);
+        if (tbUser == null) {
+            logger.log(Level.INFO, "[TB] User information was NOT fetched, loading from backup file");
+            tbUser = getCommonProxyUtilities().readJSONFromFile(TESTINGBOT_USER_BK_FILE);
+        }
+        try {
+            return tbUser.getAsJsonObject().get("max_concurrent").getAsInt();
+        } catch (Exception e) {
+            logger.log(Level.FINE, e.toString(), e);
+        }
+        return -1;
+    }
+
+    /*
+        TestingBot says when the video and the other assets of a test were uploaded.
+     */
+    @VisibleForTesting
+    static CloudVideoDownloadQueue.VideoStatus readVideoStatus(String url) {
+        JsonElement tbTest = getCommonProxyUtilities().readJSONFromUrl(url);
+        try {
+            if (tbTest.getAsJsonObject().get("assets_available").getAsBoolean()) {
+                return CloudVideoDownloadQueue.VideoStatus.READY;
+            }
+            return CloudVideoDownloadQueue.VideoStatus.PROCESSING;
+        } catch (Exception e) {
+            logger.log(Level.FINE, "[TB] Test status was NOT fetched " + e.toString(), e);
+        }
+        return CloudVideoDownloadQueue.VideoStatus.UNKNOWN;
     }
 
     @VisibleForTesting
@@ -55,7 +98,6 @@ public class TestingBotRemoteProxy extends CloudTestingRemoteProxy {
         for (JsonElement cap : tbCapabilities.getAsJsonArray()) {
             JsonObject capAsJsonObject = cap.getAsJsonObject();
             DesiredCapabilities desiredCapabilities = new DesiredCapabilities();
-            desiredCapabilities.setCapability(RegistrationRequest.MAX_INSTANCES, 5);
             desiredCapabilities.setBrowserName(capAsJsonObject.get("name").getAsString());
             desiredCapabilities.setPlatform(Platform.extractFromSysProperty(capAsJsonObject.get("platform").getAsString()));
             if (!registrationRequest.getCapabilities().contains(desiredCapabilities)) {
@@ -71,6 +113,11 @@ public class TestingBotRemoteProxy extends CloudTestingRemoteProxy {
         return super.getNewSession(requestedCapability);
     }
 
+    @Override
+    protected CloudConcurrencyLimit getConcurrencyLimit() {
+        return getAccountConcurrencyLimit();
+    }
+
     @Override
     public String getUserNameProperty() {
         return "key";
@@ -102,6 +149,12 @@ public class TestingBotRemoteProxy extends CloudTestingRemoteProxy {
         return String.format(testingBotVideoUrl, seleniumSessionId);
     }
 
+    @Override
+    public CloudVideoDownloadQueue.VideoStatus getVideoStatus(String seleniumSessionId) {
+        return readVideoStatus(String.format(TESTINGBOT_TEST_URL, getUserNameValue(), getAccessKeyValue(),
+                seleniumSessionId));
+    }
+
     @Override
     public String getVideoFileExtension() {
         return ".mp4";
@@ -0,0 +1,140 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.annotations.VisibleForTesting;
+import de.zalando.tip.zalenium.util.Environment;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finalizes the videos of docker-selenium nodes that already left the grid: stops the recording, copies the files and
+ * updates the dashboard, then runs the cleanup of the node (stopping its container). This happens in the background,
+ * so a node does not keep its slot while the video is processed.
+ * Failed jobs are retried with an exponential backoff. When too many jobs are pending, new jobs run in the calling
+ * thread, which slows down the node teardown instead of piling up jobs.
+ */
+@SuppressWarnings("WeakerAccess")
+public class VideoFinalizationQueue {
+
+    @VisibleForTesting
+    static final String ZALENIUM_VIDEO_WORKERS = "ZALENIUM_VIDEO_WORKERS";
+    @VisibleForTesting
+    static final String ZALENIUM_VIDEO_QUEUE_CAPACITY = "ZALENIUM_VIDEO_QUEUE_CAPACITY";
+    @VisibleForTesting
+    static final int DEFAULT_VIDEO_WORKERS = 2;
+    @VisibleForTesting
+    static final int DEFAULT_VIDEO_QUEUE_CAPACITY = 50;
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 3;
+    @VisibleForTesting
+    static final long RETRY_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    private static final Logger LOGGER = Logger.getLogger(VideoFinalizationQueue.class.getName());
+    private static final String LOGGING_PREFIX = "[VQ] ";
+    private static VideoFinalizationQueue instance;
+    private final ScheduledThreadPoolExecutor videoExecutor;
+    private final int capacity;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private long retryBackoff = RETRY_BACKOFF;
+
+    @VisibleForTesting
+    VideoFinalizationQueue(Environment env) {
+        int workers = env.getIntEnvVariable(ZALENIUM_VIDEO_WORKERS, DEFAULT_VIDEO_WORKERS);
+        int queueCapacity = env.getIntEnvVariable(ZALENIUM_VIDEO_QUEUE_CAPACITY, DEFAULT_VIDEO_QUEUE_CAPACITY);
+        this.capacity = queueCapacity <= 0 ? DEFAULT_VIDEO_QUEUE_CAPACITY : queueCapacity;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.videoExecutor = new ScheduledThreadPoolExecutor(workers <= 0 ? DEFAULT_VIDEO_WORKERS : workers,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "zalenium-video-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    static synchronized VideoFinalizationQueue getInstance(Environment env) {
+        if (instance == null) {
+            instance = new VideoFinalizationQueue(env);
+        }
+        return instance;
+    }
+
+    /*
+        Jobs waiting, running or waiting for a retry.
+     */
+    public int getQueueDepth() {
+        return pendingJobs.get();
+    }
+
+    @VisibleForTesting
+    void setRetryBackoff(long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /*
+        The video job returns false when it failed and should be retried, the cleanup runs once after the video job
+        succeeded or after its last attempt.
+     */
+    void submit(String nodeName, BooleanSupplier videoJob, Runnable cleanup) {
+        if (pendingJobs.incrementAndGet() > capacity) {
+            LOGGER.log(Level.WARNING, () -> String.format("%s%s More than %s video jobs pending, finalizing in the " +
+                    "calling thread.", LOGGING_PREFIX, nodeName, capacity));
+            try {
+                runNow(nodeName, videoJob, cleanup);
+            } finally {
+                pendingJobs.decrementAndGet();
+            }
+            return;
+        }
+        LOGGER.log(Level.FINE, () -> String.format("%s%s Video job queued, %s pending.", LOGGING_PREFIX, nodeName,
+                pendingJobs.get()));
+        videoExecutor.execute(() -> attempt(nodeName, videoJob, cleanup, 1));
+    }
+
+    private void runNow(String nodeName, BooleanSupplier videoJob, Runnable cleanup) {
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS && !runJob(nodeName, videoJob); attempt++) {
+                LOGGER.log(Level.FINE, LOGGING_PREFIX + "{0} Video job failed, attempt {1}",
+                        new Object[]{nodeName, attempt});
+            }
+        } finally {
+            runCleanup(nodeName, cleanup);
+        }
+    }
+
+    private void attempt(String nodeName, BooleanSupplier videoJob, Runnable cleanup, int attempt) {
+        if (!runJob(nodeName, videoJob) && attempt < MAX_ATTEMPTS && !videoExecutor.isShutdown()) {
+            long delay = retryBackoff << (attempt - 1);
+            LOGGER.log(Level.INFO, () -> String.format("%s%s Video job failed, retrying in %sms.", LOGGING_PREFIX,
+                    nodeName, delay));
+            videoExecutor.schedule(() -> attempt(nodeName, videoJob, cleanup, attempt + 1), delay,
+                    TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            runCleanup(nodeName, cleanup);
+        } finally {
+            pendingJobs.decrementAndGet();
+        }
+    }
+
+    private boolean runJob(String nodeName, BooleanSupplier videoJob) {
+        try {
+            return videoJob.getAsBoolean();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + nodeName + " " + e.toString(), e);
+            return false;
+        }
+    }
+
+    private void runCleanup(String nodeName, Runnable cleanup) {
+        try {
+            cleanup.run();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, LOGGING_PREFIX + nodeName + " " + e.toString(), e);
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package de.zalando.tip.zalenium.servlet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the docker-selenium nodes of the registry and publishes what changed (node added or removed, session
+ * started or stopped) to the live preview pages that are listening, so they can update the page instead of reloading
+ * it. The registry is checked by a single thread for all pages, and only while at least one page is listening.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LiveNodeEventPublisher {
+
+    @VisibleForTesting
+    static final long CHECK_INTERVAL = 1000;
+    // Events a page can fall behind before it is disconnected, it gets all nodes again when it reconnects
+    @VisibleForTesting
+    static final int SUBSCRIBER_QUEUE_CAPACITY = 500;
+    private static final Logger LOGGER = Logger.getLogger(LiveNodeEventPublisher.class.getName());
+    private static final ConcurrentMap<Registry, LiveNodeEventPublisher> publishers =
+            new MapMaker().weakKeys().makeMap();
+    private final Registry registry;
+    private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<>();
+    private Map<String, NodeState> nodes = new HashMap<>();
+    private ScheduledExecutorService checkExecutor;
+
+    @VisibleForTesting
+    LiveNodeEventPublisher(Registry registry) {
+        this.registry = registry;
+    }
+
+    static LiveNodeEventPublisher getInstance(Registry registry) {
+        return publishers.computeIfAbsent(registry, LiveNodeEventPublisher::new);
+    }
+
+    /*
+        The subscription starts with the current nodes, followed by their changes.
+     */
+    public synchronized Subscription subscribe() {
+        if (subscriptions.isEmpty()) {
+            nodes = getCurrentNodes();
+            startChecking();
+        }
+        Subscription subscription = new Subscription(new ArrayList<>(nodes.keySet()));
+        for (NodeState node : nodes.values()) {
+            subscription.events.offer(new NodeEvent(NodeEvent.Type.NODE_ADDED, node.proxy));
+        }
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public synchronized void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+        if (subscriptions.isEmpty() && checkExecutor != null) {
+            checkExecutor.shutdownNow();
+            checkExecutor = null;
+        }
+    }
+
+    private void startChecking() {
+        if (checkExecutor != null) {
+            return;
+        }
+        checkExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-live-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                checkForChanges();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, e.toString(), e);
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @VisibleForTesting
+    synchronized void checkForChanges() {
+        Map<String, NodeState> currentNodes = getCurrentNodes();
+        for (Map.Entry<String, NodeState> node : nodes.entrySet()) {
+            if (!currentNodes.containsKey(node.getKey())) {
+                publish(new NodeEvent(NodeEvent.Type.NODE_REMOVED, node.getValue().proxy));
+            }
+        }
+        for (Map.Entry<String, NodeState> node : currentNodes.entrySet()) {
+            NodeState previous = nodes.get(node.getKey());
+            NodeState current = node.getValue();
+            if (previous == null || previous.proxy != current.proxy) {
+                publish(new NodeEvent(NodeEvent.Type.NODE_ADDED, current.proxy));
+            } else if (!previous.equals(current)) {
+                publish(new NodeEvent(current.busy ? NodeEvent.Type.SESSION_STARTED : NodeEvent.Type.SESSION_STOPPED,
+                        current.proxy));
+            }
+        }
+        nodes = currentNodes;
+    }
+
+    private void publish(NodeEvent event) {
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.events.offer(event)) {
+                LOGGER.log(Level.FINE, "A live preview page is not keeping up, disconnecting it.");
+                subscription.overflowed = true;
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    private Map<String, NodeState> getCurrentNodes() {
+        Map<String, NodeState> currentNodes = new LinkedHashMap<>();
+        for (RemoteProxy proxy : registry.getAllProxies()) {
+            if (proxy instanceof DockerSeleniumRemoteProxy) {
+                currentNodes.put(proxy.getId(), new NodeState((DockerSeleniumRemoteProxy) proxy));
+            }
+        }
+        return currentNodes;
+    }
+
+    public static final class Subscription {
+        private final BlockingQueue<NodeEvent> events = new ArrayBlockingQueue<>(SUBSCRIBER_QUEUE_CAPACITY);
+        private final List<String> initialNodeIds;
+        private volatile boolean overflowed;
+
+        private Subscription(List<String> initialNodeIds) {
+            this.initialNodeIds = initialNodeIds;
+        }
+
+        // Nodes when the subscription started, any other node shown in the page is gone
+        public List<String> getInitialNodeIds() {
+            return initialNodeIds;
+        }
+
+        /*
+            Next event, or null when nothing happened in the given time.
+         */
+        public NodeEvent poll(long timeout) throws InterruptedException {
+            return events.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        // Events were dropped, the page needs to reconnect to get all nodes again
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+    }
+
+    public static final class NodeEvent {
+        public enum Type {
+            NODE_ADDED("nodeAdded"),
+            NODE_REMOVED("nodeRemoved"),
+            SESSION_STARTED("sessionStarted"),
+            SESSION_STOPPED("sessionStopped");
+
+            private final String eventName;
+
+            Type(String eventName) {
+                this.eventName = eventName;
+            }
+
+            public String getEventName() {
+                return eventName;
+            }
+        }
+
+        private final Type type;
+        private final DockerSeleniumRemoteProxy proxy;
+
+        private NodeEvent(Type type, DockerSeleniumRemoteProxy proxy) {
+            this.type = type;
+            this.proxy = proxy;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public DockerSeleniumRemoteProxy getProxy() {
+            return proxy;
+        }
+    }
+
+    private static final class NodeState {
+        private final DockerSeleniumRemoteProxy proxy;
+        private final boolean busy;
+        private final String testName;
+        private final String testGroup;
+
+        private NodeState(DockerSeleniumRemoteProxy proxy) {
+            this.proxy = proxy;
+            this.busy = proxy.isBusy();
+            this.testName = proxy.getTestName();
+            this.testGroup = proxy.getTestGroup();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof NodeState)) {
+                return false;
+            }
+            NodeState other = (NodeState) o;
+            return proxy == other.proxy && busy == other.busy && testName.equals(other.testName)
+                    && testGroup.equals(other.testGroup);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(proxy) + testName.hashCode();
+        }
+    }
+
+}
@@ -1,8 +1,8 @@
 package de.zalando.tip.zalenium.servlet;
 
-import com.google.gson.JsonObject;
 import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
 import de.zalando.tip.zalenium.util.Environment;
+import de.zalando.tip.zalenium.util.Template;
 import org.openqa.grid.internal.TestSession;
 import org.openqa.grid.internal.TestSlot;
 import org.openqa.grid.internal.utils.HtmlRenderer;
@@ -11,23 +11,34 @@ import org.openqa.grid.web.servlet.beta.SlotsLines;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.remote.CapabilityType;
 
+import java.io.IOException;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 public class LiveNodeHtmlRenderer implements HtmlRenderer {
 
-    private static final Logger LOGGER = Logger.getLogger(LiveNodeHtmlRenderer.class.getName());
+    // the tabs header.
+    private static final String NODE_TABS = "<div class='tabs'><ul>" +
+            "<li class='tab' type='browsers'><a title='test slots' href='#'>Browsers</a></li>" +
+            "<li class='tab' type='config'><a title='node configuration' href='#'>Configuration</a></li>" +
+            "</ul></div>";
 
     private final Environment defaultEnvironment = new Environment();
     private Environment env = defaultEnvironment;
     private DockerSeleniumRemoteProxy proxy;
     private String serverName;
+    // Until when the version of the node is waited for, shared by all nodes rendered in the same page
+    private long versionDeadline;
 
     @SuppressWarnings("WeakerAccess")
     public LiveNodeHtmlRenderer(DockerSeleniumRemoteProxy proxy, String serverName) {
+        this(proxy, serverName, System.currentTimeMillis() + NodeVersionCache.LOOKUP_TIMEOUT);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public LiveNodeHtmlRenderer(DockerSeleniumRemoteProxy proxy, String serverName, long versionDeadline) {
         this.proxy = proxy;
         this.serverName = serverName;
+        this.versionDeadline = versionDeadline;
     }
 
     /**
@@ -61,155 +72,150 @@ public class LiveNodeHtmlRenderer implements HtmlRenderer {
     @Override
     public String renderSummary() {
         StringBuilder builder = new StringBuilder();
-        builder.append("<div class='proxy'>");
-        builder.append("<p class='proxyname'>");
-        builder.append(proxy.getClass().getSimpleName());
-
-        builder.append(getHtmlNodeVersion());
+        try {
+            renderSummary(builder);
+        } catch (IOException e) {
+            // A StringBuilder does not throw it
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
 
-        String platform = getPlatform(proxy);
+    /*
+        Writes the node straight into the given output, without building its HTML first.
+     */
+    public void renderSummary(Appendable out) throws IOException {
+        out.append("<div class='proxy' data-node='");
+        Template.escapeHtml(proxy.getId(), out);
+        out.append("'>");
+        out.append("<p class='proxyname'>");
+        out.append(proxy.getClass().getSimpleName());
 
-        builder.append("<p class='proxyid'>id : ");
-        builder.append(proxy.getId());
-        builder.append(", OS : ").append(platform).append("</p>");
+        long versionTimeout = Math.max(0, versionDeadline - System.currentTimeMillis());
+        out.append(NodeVersionCache.getInstance().getHtmlNodeVersion(proxy, versionTimeout));
 
-        builder.append(nodeTabs());
+        String platform = getPlatform(proxy);
 
-        builder.append("<div class='content'>");
+        out.append("<p class='proxyid'>id : ");
+        out.append(proxy.getId());
+        out.append(", OS : ").append(platform).append("</p>");
 
-        builder.append(tabBrowsers());
-        builder.append(tabConfig());
+        out.append(NODE_TABS);
 
-        builder.append("</div></div>");
+        out.append("<div class='content'>");
 
-        return builder.toString();
-    }
+        tabBrowsers(out);
+        tabConfig(out);
 
-    private String getHtmlNodeVersion() {
-        try {
-            JsonObject object = proxy.getStatus();
-            String version = object.get("value").getAsJsonObject()
-                    .get("build").getAsJsonObject()
-                    .get("version").getAsString();
-            return " (version : " + version + ")";
-        } catch (Exception e) {
-            LOGGER.log(Level.FINE, e.toString(), e);
-            return " unknown version, " + e.getMessage();
-        }
+        out.append("</div></div>");
     }
 
     // content of the config tab.
-    private String tabConfig() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("<div type='config' class='content_detail'>");
+    private void tabConfig(Appendable out) throws IOException {
+        out.append("<div type='config' class='content_detail'>");
         Map<String, Object> config = proxy.getConfig();
 
         for (Map.Entry<String, Object> entry : config.entrySet()) {
-            builder.append("<p>");
-            builder.append(entry.getKey());
-            builder.append(":");
-            builder.append(entry.getValue());
-            builder.append("</p>");
+            out.append("<p>");
+            out.append(entry.getKey());
+            out.append(":");
+            out.append(String.valueOf(entry.getValue()));
+            out.append("</p>");
         }
 
-        builder.append("</div>");
-        return builder.toString();
+        out.append("</div>");
     }
 
     // content of the browsers tab
-    private String tabBrowsers() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("<div type='browsers' class='content_detail'>");
+    private void tabBrowsers(Appendable out) throws IOException {
+        out.append("<div type='browsers' class='content_detail'>");
+
+        renderStatus(out);
+
+        // Adding live preview
+        int vncPort = proxy.getRemoteHost().getPort() + 10000;
+        int mainVncPort = env.getIntEnvVariable("ZALENIUM_CONTAINER_LIVE_PREVIEW_PORT", 5555);
+        String vncViewBaseUrl = "http://%s:%s/proxy/%s/?nginx=%s&view_only=%s";
+        String vncReadOnlyUrl = String.format(vncViewBaseUrl, serverName, mainVncPort, vncPort, vncPort, "true");
+        String vncInteractUrl = String.format(vncViewBaseUrl, serverName, mainVncPort, vncPort, vncPort, "false");
+
+        out.append("<p class='vnc'>");
+        out.append("<a href='").append(vncReadOnlyUrl).append("' target='_blank'>Read-only VNC</a>||");
+        out.append("<a href='").append(vncInteractUrl).append("' target='_blank'>Interact via VNC</a>");
+        out.append("</p>");
+
+        out.append("<iframe src='").append(vncReadOnlyUrl).append("' class='vnc' ");
+        out.append("style='display: inline-flex; width: 100%; height: 300px; border:none; margin:0; padding:0;'>");
+        out.append("Your browser does not support iframes. </iframe></div>");
+    }
 
+    /*
+        Test name, group and slots of the node, the part of the node that changes when a session starts or stops.
+     */
+    public void renderStatus(Appendable out) throws IOException {
+        out.append("<div class='node-status'>");
         SlotsLines wdLines = new SlotsLines();
 
         for (TestSlot slot : proxy.getTestSlots()) {
             wdLines.add(slot);
             // Display test name when it exists in the capabilities
             if (!proxy.getTestName().isEmpty()) {
-                builder.append("<p>Test name: ").append(proxy.getTestName()).append("</p>");
+                out.append("<p>Test name: ");
+                Template.escapeHtml(proxy.getTestName(), out);
+                out.append("</p>");
             }
             if (!proxy.getTestGroup().isEmpty()) {
-                builder.append("<p>Test group: ").append(proxy.getTestGroup()).append("</p>");
+                out.append("<p>Test group: ");
+                Template.escapeHtml(proxy.getTestGroup(), out);
+                out.append("</p>");
             }
         }
 
         if (!wdLines.getLinesType().isEmpty()) {
-            builder.append("<p class='protocol' >WebDriver</p>");
-            builder.append(getLines(wdLines));
+            out.append("<p class='protocol' >WebDriver</p>");
+            getLines(wdLines, out);
         }
-
-        // Adding live preview
-        int vncPort = proxy.getRemoteHost().getPort() + 10000;
-        int mainVncPort = env.getIntEnvVariable("ZALENIUM_CONTAINER_LIVE_PREVIEW_PORT", 5555);
-        String vncViewBaseUrl = "http://%s:%s/proxy/%s/?nginx=%s&view_only=%s";
-        String vncReadOnlyUrl = String.format(vncViewBaseUrl, serverName, mainVncPort, vncPort, vncPort, "true");
-        String vncInteractUrl = String.format(vncViewBaseUrl, serverName, mainVncPort, vncPort, vncPort, "false");
-
-        builder.append("<p class='vnc'>");
-        builder.append("<a href='").append(vncReadOnlyUrl).append("' target='_blank'>Read-only VNC</a>||");
-        builder.append("<a href='").append(vncInteractUrl).append("' target='_blank'>Interact via VNC</a>");
-        builder.append("</p>");
-
-        builder.append("<iframe src='").append(vncReadOnlyUrl).append("' class='vnc' ");
-        builder.append("style='display: inline-flex; width: 100%; height: 300px; border:none; margin:0; padding:0;'>");
-        builder.append("Your browser does not support iframes. </iframe></div>");
-        return builder.toString();
+        out.append("</div>");
     }
 
     // the lines of icon representing the possible slots
-    private String getLines(SlotsLines lines) {
-        StringBuilder builder = new StringBuilder();
+    private void getLines(SlotsLines lines, Appendable out) throws IOException {
         for (MiniCapability cap : lines.getLinesType()) {
             String icon = cap.getIcon();
             String version = cap.getVersion();
-            builder.append("<p>");
+            out.append("<p>");
             if (version != null) {
-                builder.append("v:").append(version);
+                out.append("v:").append(version);
             }
             for (TestSlot s : lines.getLine(cap)) {
-                builder.append(getSingleSlotHtml(s, icon));
+                getSingleSlotHtml(s, icon, out);
             }
-            builder.append("</p>");
+            out.append("</p>");
         }
-        return builder.toString();
     }
 
     // icon ( or generic html if icon not available )
-    private String getSingleSlotHtml(TestSlot s, String icon) {
-        StringBuilder builder = new StringBuilder();
+    private void getSingleSlotHtml(TestSlot s, String icon, Appendable out) throws IOException {
         TestSession session = s.getSession();
         if (icon != null) {
-            builder.append("<img src='").append(icon).append("' width='16' height='16'");
+            out.append("<img src='").append(icon).append("' width='16' height='16'");
         } else {
-            builder.append("<a href='#' ");
+            out.append("<a href='#' ");
         }
 
         if (session != null) {
-            builder.append(" class='busy' title='").append(session.get("lastCommand")).append("' ");
+            out.append(" class='busy' title='").append(String.valueOf(session.get("lastCommand"))).append("' ");
         } else {
-            builder.append(" title='").append(s.getCapabilities()).append("'");
+            out.append(" title='").append(String.valueOf(s.getCapabilities())).append("'");
         }
 
         if (icon != null) {
-            builder.append(" />\n");
+            out.append(" />\n");
         } else {
-            builder.append(">");
-            builder.append(s.getCapabilities().get(CapabilityType.BROWSER_NAME));
-            builder.append("</a>");
+            out.append(">");
+            out.append(String.valueOf(s.getCapabilities().get(CapabilityType.BROWSER_NAME)));
+            out.append("</a>");
         }
-        return builder.toString();
-    }
-
-    // the tabs header.
-    private String nodeTabs() {
-        String nodeTabs = "";
-        nodeTabs = nodeTabs.concat("<div class='tabs'>");
-        nodeTabs = nodeTabs.concat("<ul>");
-        nodeTabs = nodeTabs.concat("<li class='tab' type='browsers'><a title='test slots' href='#'>Browsers</a></li>");
-        nodeTabs = nodeTabs.concat("<li class='tab' type='config'><a title='node configuration' href='#'>Configuration</a></li>");
-        nodeTabs = nodeTabs.concat("</ul></div>");
-        return nodeTabs;
     }
 
 }
@@ -0,0 +1,139 @@
+package de.zalando.tip.zalenium.servlet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.google.gson.JsonObject;
+import org.openqa.grid.internal.RemoteProxy;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the Selenium version of each node, so rendering the live preview does not ask every node for its status.
+ * Versions are fetched in parallel in the background and kept for a while, a node that does not answer in time is
+ * rendered with an unknown version instead of stalling the whole page.
+ */
+@SuppressWarnings("WeakerAccess")
+public class NodeVersionCache {
+
+    @VisibleForTesting
+    static final long VERSION_TTL = TimeUnit.MINUTES.toMillis(5);
+    // Failed lookups are tried again sooner
+    @VisibleForTesting
+    static final long FAILED_VERSION_TTL = TimeUnit.SECONDS.toMillis(10);
+    @VisibleForTesting
+    static final long LOOKUP_TIMEOUT = 1000;
+    private static final int LOOKUP_THREADS = 8;
+    private static final Logger LOGGER = Logger.getLogger(NodeVersionCache.class.getName());
+    private static NodeVersionCache instance;
+    private final ExecutorService lookupExecutor;
+    // Proxies are compared by identity, a node registering again with the same id might run another version
+    private final ConcurrentMap<RemoteProxy, CachedVersion> versions = new MapMaker().weakKeys().makeMap();
+
+    @VisibleForTesting
+    NodeVersionCache() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        lookupExecutor = Executors.newFixedThreadPool(LOOKUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "zalenium-node-version-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static synchronized NodeVersionCache getInstance() {
+        if (instance == null) {
+            instance = new NodeVersionCache();
+        }
+        return instance;
+    }
+
+    /*
+        Starts the lookups of the given nodes whose version is not known or expired, so they run at the same time.
+     */
+    public void prefetch(Collection<? extends RemoteProxy> proxies) {
+        for (RemoteProxy proxy : proxies) {
+            lookup(proxy);
+        }
+    }
+
+    /*
+        The version of the node, e.g. " (version : 2.53.1)", or why it is not known. A known version is returned right
+        away even when it expired, while it is refreshed in the background. With a timeout of 0 a lookup still
+        running is not waited for.
+     */
+    public String getHtmlNodeVersion(RemoteProxy proxy, long timeout) {
+        CachedVersion cached = lookup(proxy);
+        if (cached.version.isDone() || cached.previous == null) {
+            try {
+                return cached.version.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return " unknown version, the node did not answer in time";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return " unknown version";
+            } catch (ExecutionException e) {
+                return e.getCause().getMessage();
+            }
+        }
+        return cached.previous;
+    }
+
+    private CachedVersion lookup(RemoteProxy proxy) {
+        return versions.compute(proxy, (key, cached) -> {
+            if (cached != null && !cached.isExpired()) {
+                return cached;
+            }
+            String previous = cached == null ? null : cached.getKnownVersion();
+            CompletableFuture<String> version = CompletableFuture.supplyAsync(() -> fetchVersion(proxy),
+                    lookupExecutor);
+            return new CachedVersion(version, previous);
+        });
+    }
+
+    private static String fetchVersion(RemoteProxy proxy) {
+        try {
+            JsonObject object = proxy.getStatus();
+            String version = object.get("value").getAsJsonObject()
+                    .get("build").getAsJsonObject()
+                    .get("version").getAsString();
+            return " (version : " + version + ")";
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+            throw new IllegalStateException(" unknown version, " + e.getMessage(), e);
+        }
+    }
+
+    private static final class CachedVersion {
+        private final CompletableFuture<String> version;
+        // Version from the previous lookup, shown while this one is running
+        private final String previous;
+        private final long createdAt = System.currentTimeMillis();
+
+        private CachedVersion(CompletableFuture<String> version, String previous) {
+            this.version = version;
+            this.previous = previous;
+        }
+
+        private boolean isExpired() {
+            if (!version.isDone()) {
+                return false;
+            }
+            long ttl = version.isCompletedExceptionally() ? FAILED_VERSION_TTL : VERSION_TTL;
+            return System.currentTimeMillis() - createdAt >= ttl;
+        }
+
+        private String getKnownVersion() {
+            return version.isDone() && !version.isCompletedExceptionally() ? version.join() : previous;
+        }
+    }
+
+}
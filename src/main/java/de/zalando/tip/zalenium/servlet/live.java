@@ -6,19 +6,21 @@ package de.zalando.tip.zalenium.servlet;
     The code here is based on the ConsoleServlet class from the Selenium Grid
  */
 
-import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
 import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
+import de.zalando.tip.zalenium.proxy.TestGroupIndex;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.RemoteProxy;
-import org.openqa.grid.internal.utils.HtmlRenderer;
 import org.openqa.grid.web.servlet.RegistryBasedServlet;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -28,6 +30,67 @@ import java.util.logging.Logger;
 public class live extends RegistryBasedServlet {
 
     private static final Logger LOGGER = Logger.getLogger(live.class.getName());
+    // Bytes written to the response at once, a page with many nodes is sent in several chunks
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final String HEAD_START = "<html>" +
+            "<head>" +
+            "<script src='//ajax.googleapis.com/ajax/libs/jquery/1.6.1/jquery.min.js'></script>" +
+            "<script src='/grid/resources/org/openqa/grid/images/console-beta.js'></script>" +
+            "<link href='/grid/resources/org/openqa/grid/images/console-beta.css' rel='stylesheet' type='text/css' />" +
+            "<link href='/grid/resources/org/openqa/grid/images/favicon.ico' rel='icon' type='image/x-icon' />";
+    private static final String LIVE_EVENTS_SCRIPT = "<script>" +
+            "(function() {" +
+            "var refresh = %d, group = %s;" +
+            "function reload() { if (refresh > 0) { setTimeout(function() { location.reload(); }, refresh * 1000); } }" +
+            "if (!window.EventSource) { reload(); return; }" +
+            "function findNode(id) {" +
+            "  var nodes = document.querySelectorAll('.proxy');" +
+            "  for (var i = 0; i < nodes.length; i++) { if (nodes[i].getAttribute('data-node') === id) { return nodes[i]; } }" +
+            "  return null;" +
+            "}" +
+            "function toElement(html) { var div = document.createElement('div'); div.innerHTML = html; return div.firstChild; }" +
+            "function patchStatus(node, html) {" +
+            "  var status = node.querySelector('.node-status'), element = toElement(html);" +
+            "  var fresh = element.className === 'node-status' ? element : element.querySelector('.node-status');" +
+            "  if (status && fresh) { status.parentNode.replaceChild(fresh, status); }" +
+            "}" +
+            "function removeNode(node) { if (node) { node.parentNode.removeChild(node); } }" +
+            "var source = new EventSource('/grid/admin/liveEvents' + (group ? '?group=' + encodeURIComponent(group) : ''));" +
+            "source.addEventListener('sync', function(event) {" +
+            "  var ids = JSON.parse(event.data), nodes = document.querySelectorAll('.proxy');" +
+            "  for (var i = 0; i < nodes.length; i++) {" +
+            "    if (ids.indexOf(nodes[i].getAttribute('data-node')) < 0) { removeNode(nodes[i]); }" +
+            "  }" +
+            "});" +
+            "source.addEventListener('nodeAdded', function(event) {" +
+            "  var data = JSON.parse(event.data), node = findNode(data.id);" +
+            "  if (node) { patchStatus(node, data.html); return; }" +
+            "  var left = document.getElementById('leftColumn'), right = document.getElementById('rightColumn');" +
+            "  var column = left.children.length <= right.children.length ? left : right;" +
+            "  column.appendChild(toElement(data.html));" +
+            "});" +
+            "source.addEventListener('nodeRemoved', function(event) { removeNode(findNode(JSON.parse(event.data).id)); });" +
+            "function sessionChanged(event) {" +
+            "  var data = JSON.parse(event.data), node = findNode(data.id);" +
+            "  if (node) { patchStatus(node, data.html); }" +
+            "}" +
+            "source.addEventListener('sessionStarted', sessionChanged);" +
+            "source.addEventListener('sessionStopped', sessionChanged);" +
+            "source.onerror = function() { if (source.readyState === EventSource.CLOSED) { reload(); } };" +
+            "})();" +
+            "</script>";
+    private static final Gson gson = new Gson();
+    private static final String HEAD_END = "<title>Live Preview</title>" +
+            "<style>" +
+            ".busy {opacity : 0.4; filter: alpha(opacity=40);}" +
+            "</style>" +
+            "</head>" +
+            "<body>" +
+            "<div id='main_content'>" +
+            "<div id='header'>" +
+            "<h1><a href='/grid/live'>Zalenium Live Preview</a></h1>" +
+            "<h2>Zalenium Live Preview</h2>" +
+            "<div><a id='helplink' target='_blank' href='https://github.com/zalando/zalenium'>Help</a></div></div>";
 
     @SuppressWarnings("unused")
     public live(){
@@ -76,78 +139,59 @@ public class live extends RegistryBasedServlet {
         response.setCharacterEncoding("UTF-8");
         response.setStatus(200);
 
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("<html>");
-        builder.append("<head>");
-        builder.append("<script src='//ajax.googleapis.com/ajax/libs/jquery/1.6.1/jquery.min.js'></script>");
-        builder.append("<script src='/grid/resources/org/openqa/grid/images/console-beta.js'></script>");
-        builder.append("<link href='/grid/resources/org/openqa/grid/images/console-beta.css' rel='stylesheet' type='text/css' />");
-        builder.append("<link href='/grid/resources/org/openqa/grid/images/favicon.ico' rel='icon' type='image/x-icon' />");
-
-        if (refresh != -1) {
-            builder.append(String.format("<meta http-equiv='refresh' content='%d' />", refresh));
-        }
-
-        builder.append("<title>Live Preview</title>");
-
-        builder.append("<style>");
-        builder.append(".busy {opacity : 0.4; filter: alpha(opacity=40);}");
-        builder.append("</style>");
-        builder.append("</head>");
-
-        builder.append("<body>");
-
-        builder.append("<div id='main_content'>");
-
-        builder.append(getHeader());
-
-        List<String> nodes = new ArrayList<>();
-        for (RemoteProxy proxy : getRegistry().getAllProxies()) {
-            if (proxy instanceof DockerSeleniumRemoteProxy) {
-                DockerSeleniumRemoteProxy dockerSeleniumRemoteProxy = (DockerSeleniumRemoteProxy) proxy;
-                HtmlRenderer renderer = new LiveNodeHtmlRenderer(dockerSeleniumRemoteProxy, request.getServerName());
-                // Render the nodes that are part of an specified test group
-                if (testGroup.isEmpty() || testGroup.equalsIgnoreCase(dockerSeleniumRemoteProxy.getTestGroup())) {
-                    nodes.add(renderer.renderSummary());
+        // Only the nodes to render are collected, their HTML goes straight into the response
+        List<DockerSeleniumRemoteProxy> nodes = new ArrayList<>();
+        if (testGroup.isEmpty()) {
+            for (RemoteProxy proxy : getRegistry().getAllProxies()) {
+                if (proxy instanceof DockerSeleniumRemoteProxy) {
+                    nodes.add((DockerSeleniumRemoteProxy) proxy);
+                }
+            }
+        } else {
+            // Render the nodes that are part of an specified test group
+            for (DockerSeleniumRemoteProxy proxy : TestGroupIndex.getProxies(testGroup)) {
+                if (proxy.getRegistry() == getRegistry()) {
+                    nodes.add(proxy);
                 }
             }
         }
 
+        // The versions of all nodes are looked up at the same time, instead of one after the other while rendering
+        NodeVersionCache.getInstance().prefetch(nodes);
+        // One deadline for the whole page, nodes still not answering after it are rendered with an unknown version
+        long versionDeadline = System.currentTimeMillis() + NodeVersionCache.LOOKUP_TIMEOUT;
+
         int size = nodes.size();
         int rightColumnSize = size / 2;
         int leftColumnSize = size - rightColumnSize;
 
-        builder.append("<div id='leftColumn'>");
-        for (int i = 0; i < leftColumnSize; i++) {
-            builder.append(nodes.get(i));
-        }
-        builder.append("</div>");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),
+                StandardCharsets.UTF_8), RESPONSE_BUFFER_SIZE)) {
+            writer.append(HEAD_START);
+            // Pages get the changes through liveEvents, reloading is only the fallback when it is not available
+            if (refresh != -1) {
+                writer.append(String.format("<noscript><meta http-equiv='refresh' content='%d' /></noscript>",
+                        refresh));
+            }
+            writer.append(HEAD_END);
 
-        builder.append("<div id='rightColumn'>");
-        for (int i = leftColumnSize; i < nodes.size(); i++) {
-            builder.append(nodes.get(i));
-        }
-        builder.append("</div></div>");
-        builder.append("</body>");
-        builder.append("</html>");
-
-        try (InputStream in = new ByteArrayInputStream(builder.toString().getBytes("UTF-8"))) {
-            ByteStreams.copy(in, response.getOutputStream());
-        } finally {
-            response.getOutputStream().close();
-        }
-    }
+            writer.append("<div id='leftColumn'>");
+            for (int i = 0; i < leftColumnSize; i++) {
+                new LiveNodeHtmlRenderer(nodes.get(i), request.getServerName(), versionDeadline)
+                        .renderSummary(writer);
+            }
+            writer.append("</div>");
 
-    private Object getHeader() {
-        String header = "";
-        header = header.concat("<div id='header'>");
-        header = header.concat("<h1><a href='/grid/live'>Zalenium Live Preview</a></h1>");
-        header = header.concat("<h2>Zalenium Live Preview");
-        header = header.concat("</h2>");
-        header = header.concat("<div><a id='helplink' target='_blank' ");
-        header = header.concat("href='https://github.com/zalando/zalenium'>Help</a></div></div>");
-        return header;
+            writer.append("<div id='rightColumn'>");
+            for (int i = leftColumnSize; i < size; i++) {
+                new LiveNodeHtmlRenderer(nodes.get(i), request.getServerName(), versionDeadline)
+                        .renderSummary(writer);
+            }
+            writer.append("</div></div>");
+            writer.append(String.format(LIVE_EVENTS_SCRIPT, refresh, gson.toJson(testGroup)));
+            writer.append("</body>");
+            writer.append("</html>");
+        }
     }
 
 }
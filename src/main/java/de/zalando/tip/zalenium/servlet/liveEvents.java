@@ -0,0 +1,151 @@
+package de.zalando.tip.zalenium.servlet;
+
+/*
+    Streams the changes of the docker-selenium nodes to the live preview as Server-Sent Events, so the page is updated
+    in place instead of being reloaded, which also keeps the VNC previews connected.
+    Each stream is closed after a while and the browser reconnects, starting again with all current nodes.
+ */
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.web.servlet.RegistryBasedServlet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// We use this class name to be able to go to the resource like this: http://localhost:4444/grid/admin/liveEvents
+public class liveEvents extends RegistryBasedServlet {
+
+    // Each open stream keeps a hub thread busy, pages over the limit fall back to reloading
+    @VisibleForTesting
+    static final int MAX_STREAMS = 20;
+    private static final long HEARTBEAT_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    private static final Logger LOGGER = Logger.getLogger(liveEvents.class.getName());
+    private static final AtomicInteger openStreams = new AtomicInteger();
+    private static final Gson gson = new Gson();
+    private static long streamDuration = TimeUnit.MINUTES.toMillis(5);
+
+    @SuppressWarnings("unused")
+    public liveEvents() {
+        this(null);
+    }
+
+    public liveEvents(Registry registry) {
+        super(registry);
+    }
+
+    @VisibleForTesting
+    static void setStreamDuration(long streamDuration) {
+        liveEvents.streamDuration = streamDuration;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (openStreams.incrementAndGet() > MAX_STREAMS) {
+            openStreams.decrementAndGet();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many live preview streams");
+            return;
+        }
+        try {
+            process(request, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Usually the page was closed
+            LOGGER.log(Level.FINE, e.toString(), e);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        } finally {
+            openStreams.decrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    protected void process(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, InterruptedException {
+        String testGroup = request.getParameter("group") == null ? "" : request.getParameter("group");
+        String serverName = request.getServerName();
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setStatus(200);
+
+        LiveNodeEventPublisher publisher = LiveNodeEventPublisher.getInstance(getRegistry());
+        LiveNodeEventPublisher.Subscription subscription = publisher.subscribe();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),
+                StandardCharsets.UTF_8))) {
+            writeEvent(writer, "sync", gson.toJson(subscription.getInitialNodeIds()));
+            writer.flush();
+            long end = System.currentTimeMillis() + streamDuration;
+            long remaining;
+            while ((remaining = end - System.currentTimeMillis()) > 0 && !subscription.isOverflowed()) {
+                LiveNodeEventPublisher.NodeEvent event = subscription.poll(Math.min(remaining, HEARTBEAT_INTERVAL));
+                if (event == null) {
+                    // Keeps the connection open through proxies, and notices when the page was closed
+                    writer.write(": heartbeat\n\n");
+                } else {
+                    writeNodeEvent(writer, event, testGroup, serverName);
+                    // Events happening together go out together
+                    while ((event = subscription.poll(0)) != null) {
+                        writeNodeEvent(writer, event, testGroup, serverName);
+                    }
+                }
+                writer.flush();
+            }
+        } finally {
+            publisher.unsubscribe(subscription);
+        }
+    }
+
+    private void writeNodeEvent(Writer writer, LiveNodeEventPublisher.NodeEvent event, String testGroup,
+                                String serverName) throws IOException {
+        DockerSeleniumRemoteProxy proxy = event.getProxy();
+        JsonObject data = new JsonObject();
+        data.addProperty("id", proxy.getId());
+        LiveNodeEventPublisher.NodeEvent.Type type = event.getType();
+        // Nodes out of the requested group are removed from the page, e.g. after its session stopped
+        boolean inGroup = testGroup.isEmpty() || testGroup.equalsIgnoreCase(proxy.getTestGroup());
+        if (type == LiveNodeEventPublisher.NodeEvent.Type.NODE_REMOVED || !inGroup) {
+            writeEvent(writer, LiveNodeEventPublisher.NodeEvent.Type.NODE_REMOVED.getEventName(), data.toString());
+            return;
+        }
+        // A node can join the requested group with its session, then the page gets the whole node
+        if (!testGroup.isEmpty()) {
+            type = LiveNodeEventPublisher.NodeEvent.Type.NODE_ADDED;
+        }
+        LiveNodeHtmlRenderer renderer = new LiveNodeHtmlRenderer(proxy, serverName);
+        StringBuilder html = new StringBuilder();
+        if (type == LiveNodeEventPublisher.NodeEvent.Type.NODE_ADDED) {
+            renderer.renderSummary(html);
+        } else {
+            renderer.renderStatus(html);
+        }
+        data.addProperty("html", html.toString());
+        writeEvent(writer, type.getEventName(), data.toString());
+    }
+
+    private static void writeEvent(Writer writer, String name, String data) throws IOException {
+        // JSON from Gson has no line breaks, so the data fits in a single line
+        writer.write("event: ");
+        writer.write(name);
+        writer.write("\ndata: ");
+        writer.write(data);
+        writer.write("\n\n");
+    }
+
+}
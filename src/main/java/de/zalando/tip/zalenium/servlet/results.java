@@ -0,0 +1,114 @@
+package de.zalando.tip.zalenium.servlet;
+
+/*
+    Serves the results of the executed tests as JSON, one page at a time, so the dashboard can load them on demand
+    instead of embedding all of them. Results are returned newest first and can be filtered, e.g.
+    http://localhost:4444/grid/admin/results?page=2&pageSize=20&browser=chrome&platform=linux&proxyName=zalenium
+    &from=1493200000000&to=1493300000000 (from and to are milliseconds since the epoch).
+ */
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import de.zalando.tip.zalenium.util.CommonProxyUtilities;
+import de.zalando.tip.zalenium.util.TestResultsStore;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.web.servlet.RegistryBasedServlet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// We use this class name to be able to go to the resource like this: http://localhost:4444/grid/admin/results
+public class results extends RegistryBasedServlet {
+
+    @VisibleForTesting
+    static final int DEFAULT_PAGE_SIZE = 50;
+    @VisibleForTesting
+    static final int MAX_PAGE_SIZE = 500;
+    private static final Logger LOGGER = Logger.getLogger(results.class.getName());
+    private static final Gson gson = new Gson();
+    private final TestResultsStore store;
+
+    @SuppressWarnings("unused")
+    public results() {
+        this(null);
+    }
+
+    public results(Registry registry) {
+        this(registry, TestResultsStore.getInstance(new CommonProxyUtilities().currentLocalPath() + "/videos"));
+    }
+
+    @VisibleForTesting
+    results(Registry registry, TestResultsStore store) {
+        super(registry);
+        this.store = store;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            process(request, response);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, e.toString(), e);
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    protected void process(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        int page = Math.max(1, getIntParameter(request, "page", 1));
+        int pageSize = Math.min(MAX_PAGE_SIZE, Math.max(1, getIntParameter(request, "pageSize", DEFAULT_PAGE_SIZE)));
+        long from = getLongParameter(request, "from", 0);
+        long to = getLongParameter(request, "to", Long.MAX_VALUE);
+        Predicate<TestResultsStore.TestResult> filter = result -> result.getTimestamp() <= to
+                && matches(request.getParameter("browser"), result.getBrowser())
+                && matches(request.getParameter("platform"), result.getPlatform())
+                && matches(request.getParameter("proxyName"), result.getProxyName());
+
+        // One more result than requested tells if there is a next page
+        List<TestResultsStore.TestResult> found = store.find(filter, from, (page - 1) * pageSize, pageSize + 1);
+        boolean hasMore = found.size() > pageSize;
+        if (hasMore) {
+            found = found.subList(0, pageSize);
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("page", page);
+        body.addProperty("pageSize", pageSize);
+        body.addProperty("hasMore", hasMore);
+        body.add("results", gson.toJsonTree(found));
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(200);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.isEmpty() || expected.equalsIgnoreCase(actual);
+    }
+
+    private static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+        return (int) Math.min(Integer.MAX_VALUE, getLongParameter(request, name, defaultValue));
+    }
+
+    private static long getLongParameter(HttpServletRequest request, String name, long defaultValue) {
+        try {
+            return request.getParameter(name) == null ? defaultValue : Long.parseLong(request.getParameter(name));
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.FINE, e.toString(), e);
+            return defaultValue;
+        }
+    }
+
+}
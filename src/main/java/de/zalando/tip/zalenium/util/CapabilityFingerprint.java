@@ -0,0 +1,170 @@
+package de.zalando.tip.zalenium.util;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
+import org.openqa.grid.internal.TestSlot;
+import org.openqa.grid.internal.utils.CapabilityMatcher;
+import org.openqa.grid.internal.utils.DefaultCapabilityMatcher;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.CapabilityType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The capabilities the grid matches on (platform, browser name, version and application name), read once from the
+ * capabilities map of a request or a test slot. Matching two fingerprints gives the same result as the
+ * DefaultCapabilityMatcher, without converting and parsing the values again for every slot and every queued request.
+ * Fingerprints are interned, so requests asking for the same capabilities share the same fingerprint and it can be
+ * used as a key.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CapabilityFingerprint {
+
+    private static final String[] KEYS = {CapabilityType.PLATFORM, CapabilityType.BROWSER_NAME,
+            CapabilityType.VERSION, "applicationName"};
+    private static final Interner<CapabilityFingerprint> interner = Interners.newWeakInterner();
+    // Maps are compared by identity, a queued request is matched with the same map until it gets a session
+    private static final ConcurrentMap<Map<String, Object>, CapabilityFingerprint> fingerprints =
+            new MapMaker().weakKeys().makeMap();
+    private final Object[] values;
+    private final Platform[] platforms;
+    // Values that accept anything when they are requested
+    private final boolean[] wildcards;
+    private final int hash;
+
+    private CapabilityFingerprint(Object[] values) {
+        this.values = values;
+        this.platforms = new Platform[values.length];
+        this.wildcards = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                wildcards[i] = true;
+                continue;
+            }
+            String value = values[i].toString();
+            wildcards[i] = "ANY".equalsIgnoreCase(value) || "".equals(value) || "*".equals(value);
+            platforms[i] = extractPlatform(values[i]);
+        }
+        this.hash = Arrays.hashCode(values);
+    }
+
+    /*
+        The fingerprint of the given capabilities. It is kept with the map and only built again when one of the
+        matched values of the map changes.
+     */
+    public static CapabilityFingerprint of(Map<String, Object> capabilities) {
+        CapabilityFingerprint fingerprint = fingerprints.get(capabilities);
+        if (fingerprint != null && fingerprint.isFingerprintOf(capabilities)) {
+            return fingerprint;
+        }
+        Object[] values = new Object[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++) {
+            values[i] = capabilities.get(KEYS[i]);
+        }
+        fingerprint = interner.intern(new CapabilityFingerprint(values));
+        fingerprints.put(capabilities, fingerprint);
+        return fingerprint;
+    }
+
+    /*
+        Fingerprints can only replace matchers that look at the same capabilities in the same way.
+     */
+    public static boolean canReplace(CapabilityMatcher capabilityMatcher) {
+        return capabilityMatcher != null && capabilityMatcher.getClass() == DefaultCapabilityMatcher.class;
+    }
+
+    /*
+        Whether these requested capabilities can be served by one of the given slots.
+     */
+    public boolean matchesAny(List<TestSlot> testSlots) {
+        for (TestSlot testSlot : testSlots) {
+            if (matches(of(testSlot.getCapabilities()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        Whether these requested capabilities can be served by a node with the given ones.
+     */
+    public boolean matches(CapabilityFingerprint node) {
+        if (this == node) {
+            return true;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (wildcards[i]) {
+                continue;
+            }
+            if (platforms[i] != null) {
+                if (node.platforms[i] == null || !node.platforms[i].is(platforms[i])) {
+                    return false;
+                }
+            } else if (!values[i].equals(node.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isFingerprintOf(Map<String, Object> capabilities) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (!Objects.equals(capabilities.get(KEYS[i]), values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        Same as the DefaultCapabilityMatcher, which tries to read every matched value as a platform.
+     */
+    private static Platform extractPlatform(Object value) {
+        if (value instanceof Platform) {
+            return (Platform) value;
+        }
+        if (!(value instanceof String)) {
+            return null;
+        }
+        try {
+            return Platform.valueOf((String) value);
+        } catch (IllegalArgumentException e) {
+            for (Platform platform : Platform.values()) {
+                for (String osName : platform.getPartOfOsName()) {
+                    if (!"".equals(osName) && osName.equalsIgnoreCase((String) value)) {
+                        return platform;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CapabilityFingerprint)) {
+            return false;
+        }
+        CapabilityFingerprint other = (CapabilityFingerprint) o;
+        return hash == other.hash && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+
+}
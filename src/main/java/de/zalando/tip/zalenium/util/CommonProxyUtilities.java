@@ -2,24 +2,41 @@ package de.zalando.tip.zalenium.util;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 
 import java.io.*;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.Charset;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class CommonProxyUtilities {
 
     private static final Logger LOG = Logger.getLogger(CommonProxyUtilities.class.getName());
+    // Bytes moved per transfer call while writing a stream to disk
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
 
     /*
         Reading a JSON with DockerSelenium capabilities from a given URL
@@ -27,19 +44,14 @@ public class CommonProxyUtilities {
         http://stackoverflow.com/questions/496651/connecting-to-remote-url-which-requires-authentication-using-java
      */
     public JsonElement readJSONFromUrl(String jsonUrl) {
-        try {
-            URL url = new URL(jsonUrl);
-            URLConnection urlConnection = url.openConnection();
-
-            if (url.getUserInfo() != null) {
-                String basicAuth = "Basic " + new String(new Base64().encode(url.getUserInfo().getBytes()));
-                urlConnection.setRequestProperty("Authorization", basicAuth);
+        try (CloseableHttpResponse response = SharedHttpClient.getInstance().execute(SharedHttpClient.get(jsonUrl))) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                LOG.log(Level.FINE, "Got status " + statusCode + " while reading " + jsonUrl);
+                return null;
             }
-
-            InputStream is = urlConnection.getInputStream();
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-            String jsonText = readAll(rd);
-            is.close();
+            String jsonText = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
             return new JsonParser().parse(jsonText);
         } catch (Exception e) {
             LOG.log(Level.FINE, e.toString(), e);
@@ -72,54 +84,108 @@ public class CommonProxyUtilities {
     /*
         Downloading a file, method adapted from:
         http://code.runnable.com/Uu83dm5vSScIAACw/download-a-file-from-the-web-for-java-files-and-save
+        The bytes go to a partial file next to the given one, which is renamed once it is complete. When a partial
+        file is there from a previous attempt, only the missing bytes are requested, servers that do not support
+        ranges send the whole file again.
      */
-    public void downloadFile(String fileNameWithFullPath, String url) throws InterruptedException {
-        int maxAttempts = 10;
-        int currentAttempts = 0;
-        // Videos are usually not ready right away, we put a little sleep to avoid falling into the catch/retry.
-        Thread.sleep(1000 * 5);
-        while (currentAttempts < maxAttempts) {
-            try {
-                URL link = new URL(url);
-                URLConnection urlConnection = link.openConnection();
+    public void downloadToFile(String url, File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path partialFile = getPartialFile(target);
+        long downloadedBytes = Files.exists(partialFile) ? Files.size(partialFile) : 0;
+        HttpGet httpGet = SharedHttpClient.get(url);
+        if (downloadedBytes > 0) {
+            httpGet.setHeader(HttpHeaders.RANGE, "bytes=" + downloadedBytes + "-");
+        }
+        try (CloseableHttpResponse httpResponse = SharedHttpClient.getInstance().execute(httpGet)) {
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            HttpEntity entity = httpResponse.getEntity();
+            if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && downloadedBytes > 0) {
+                // The partial file does not fit the file on the server anymore
+                EntityUtils.consumeQuietly(entity);
+                Files.delete(partialFile);
+                throw new IOException("Could not resume download from " + url);
+            }
+            if ((statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_PARTIAL_CONTENT) || entity == null) {
+                EntityUtils.consumeQuietly(entity);
+                throw new IOException("Got status " + statusCode + " while downloading " + url);
+            }
+            long position = statusCode == HttpStatus.SC_PARTIAL_CONTENT ? downloadedBytes : 0;
+            long expectedLength = entity.getContentLength() < 0 ? -1 : position + entity.getContentLength();
+            try (InputStream inputStream = entity.getContent();
+                 FileChannel destination = FileChannel.open(partialFile, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE)) {
+                destination.truncate(position);
+                ReadableByteChannel source = Channels.newChannel(inputStream);
+                long transferred;
+                do {
+                    transferred = destination.transferFrom(source, position, TRANSFER_CHUNK_SIZE);
+                    position += transferred;
+                } while (transferred > 0);
+            }
+            if (expectedLength >= 0 && position != expectedLength) {
+                throw new IOException(String.format("Downloaded %s of %s bytes from %s", position, expectedLength,
+                        url));
+            }
+        }
+        try {
+            Files.move(partialFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partialFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-                if (link.getUserInfo() != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(link.getUserInfo().getBytes()));
-                    urlConnection.setRequestProperty("Authorization", basicAuth);
-                }
+    private static Path getPartialFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PARTIAL_FILE_SUFFIX);
+    }
+
+    /*
+        Removes what a failed download left behind, once it will not be retried anymore.
+     */
+    public void deletePartialDownload(File file) {
+        try {
+            Files.deleteIfExists(getPartialFile(file.toPath().toAbsolutePath()));
+        } catch (IOException e) {
+            LOG.log(Level.FINE, e.toString(), e);
+        }
+    }
 
-                //Code to download
-                InputStream in = new BufferedInputStream(urlConnection.getInputStream());
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                byte[] buf = new byte[1024];
-                int n;
-                while (-1!=(n=in.read(buf)))
-                {
-                    out.write(buf, 0, n);
+    /*
+        Writes the next bytes of the stream to the given file, without loading them in memory. The bytes go to a
+        temporary file in the same folder first, which is then renamed, so a half written file is never visible.
+        The temporary file is created with the default permissions (not the owner-only ones of Files.createTempFile),
+        so the videos stay readable for other users of the mounted folder.
+        The stream is not closed, e.g. a tar stream can still be used to read the next entry.
+     */
+    public void copyToFile(InputStream inputStream, long length, File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temporaryFile = Files.createFile(target.resolveSibling(String.format("%s.%s%s", target.getFileName(),
+                UUID.randomUUID(), PARTIAL_FILE_SUFFIX)));
+        try {
+            // Not closed on purpose, closing the channel would close the stream as well
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            try (FileChannel destination = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (position < length) {
+                    long transferred = destination.transferFrom(source, position,
+                            Math.min(TRANSFER_CHUNK_SIZE, length - position));
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
                 }
-                out.close();
-                in.close();
-                byte[] response = out.toByteArray();
-
-                FileOutputStream fos = new FileOutputStream(fileNameWithFullPath);
-                fos.write(response);
-                fos.close();
-                //End download code
-                LOG.log(Level.INFO, "Video downloaded from " + url + " to " + fileNameWithFullPath);
-                currentAttempts = maxAttempts + 1;
-            } catch (IOException e) {
-                // Catching this exception generally means that the file was not ready, so we try again.
-                currentAttempts++;
-                if (currentAttempts >= maxAttempts) {
-                    LOG.log(Level.SEVERE, e.toString(), e);
-                } else {
-                    LOG.log(Level.INFO, "Trying download once again from " + url);
-                    Thread.sleep(currentAttempts * 5 * 1000);
+                if (position < length) {
+                    throw new IOException(String.format("Copied %s of %s bytes to %s", position, length, file));
                 }
-            } catch (Exception e) {
-                currentAttempts = maxAttempts + 1;
-                LOG.log(Level.SEVERE, e.toString(), e);
             }
+            try {
+                Files.move(temporaryFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
         }
     }
 
@@ -128,33 +194,25 @@ public class CommonProxyUtilities {
         return dateFormat.format(new Date());
     }
 
-    public synchronized void updateDashboard(String testName, long duration, String proxyName, String browser,
-                                             String platform, String fileName, String path) throws IOException {
-        // Show duration of 80 seconds like 1m20s
-        long minutes = duration / 60;
-        long seconds = duration - (minutes * 60);
-        String testDuration = String.format("%sm%ss", minutes, seconds);
-
-        String testEntry = FileUtils.readFileToString(new File(currentLocalPath(), "list_template.html"), StandardCharsets.UTF_8);
-        testEntry = testEntry.replace("{fileName}", fileName).
-                replace("{testName}", testName).
-                replace("{testDuration}", testDuration).
-                replace("{browser}", browser).
-                replace("{platform}", platform).
-                replace("{proxyName}", proxyName);
-
-        File testList = new File(path, "list.html");
-        // Putting the new entry at the top
-        if (testList.exists()) {
-            String testListContents = FileUtils.readFileToString(testList, StandardCharsets.UTF_8);
-            testEntry = testEntry.concat("\n").concat(testListContents);
-        }
-        FileUtils.writeStringToFile(testList, testEntry, StandardCharsets.UTF_8);
+    public void updateDashboard(String testName, long duration, String proxyName, String browser,
+                                String platform, String fileName, String path) throws IOException {
+        updateDashboard(testName, duration, proxyName, browser, platform, Collections.singletonList(fileName), path);
+    }
 
-        File dashboardHtml = new File(path, "dashboard.html");
-        String dashboard = FileUtils.readFileToString(new File(currentLocalPath(), "dashboard_template.html"), StandardCharsets.UTF_8);
-        dashboard = dashboard.replace("{testList}", testEntry);
-        FileUtils.writeStringToFile(dashboardHtml, dashboard, StandardCharsets.UTF_8);
+    /*
+        Adds one entry per file to the dashboard. The results are appended to a log and only the latest page of the
+        dashboard is rendered again, see TestResultsStore.
+     */
+    public void updateDashboard(String testName, long duration, String proxyName, String browser,
+                                String platform, List<String> fileNames, String path) throws IOException {
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        List<TestResultsStore.TestResult> results = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames) {
+            results.add(new TestResultsStore.TestResult(testName, duration, proxyName, browser, platform, fileName));
+        }
+        TestResultsStore.getInstance(path).add(results, currentLocalPath());
 
         File dashboardCss = new File(path, "dashboard.css");
         if (!dashboardCss.exists()) {
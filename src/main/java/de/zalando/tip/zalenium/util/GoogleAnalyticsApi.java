@@ -3,10 +3,11 @@ package de.zalando.tip.zalenium.util;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,7 +30,7 @@ public class GoogleAnalyticsApi {
     private Environment env = defaultEnvironment;
 
     public GoogleAnalyticsApi() {
-        this.httpClient = HttpClientBuilder.create().build();
+        this.httpClient = SharedHttpClient.getInstance();
     }
 
     @VisibleForTesting
@@ -69,7 +70,9 @@ public class GoogleAnalyticsApi {
                 HttpPost httpPost = new HttpPost(gaEndpoint);
                 HttpEntity httpEntity = new ByteArrayEntity(finalPayload.getBytes("UTF-8"));
                 httpPost.setEntity(httpEntity);
-                httpClient.execute(httpPost);
+                HttpResponse response = httpClient.execute(httpPost);
+                // The connection goes back to the pool once the response is read
+                EntityUtils.consumeQuietly(response.getEntity());
             } catch (Exception e) {
                 logger.log(Level.FINE, e.getMessage(), e);
             }
@@ -0,0 +1,149 @@
+package de.zalando.tip.zalenium.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An HTML template with {placeholders}, parsed once into literal text and placeholder segments. Rendering writes the
+ * segments one after the other into the given output, so it only costs as much as the output it produces.
+ * Values are HTML escaped, unless they are a {@link Fragment}, which writes already rendered HTML (e.g. a list of
+ * entries rendered with another template) straight into the output.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Template {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([a-zA-Z]+)}");
+    private static final Map<String, CachedTemplate> cache = new ConcurrentHashMap<>();
+    private final String[] literals;
+    private final String[] placeholders;
+
+    private Template(String[] literals, String[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    public static Template compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int start = 0;
+        while (matcher.find()) {
+            literals.add(source.substring(start, matcher.start()));
+            placeholders.add(matcher.group(1));
+            start = matcher.end();
+        }
+        literals.add(source.substring(start));
+        return new Template(literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /*
+        Compiled template from the given file, it is only read and parsed again when the file changes.
+     */
+    public static Template load(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        CachedTemplate cached = cache.get(key);
+        if (cached == null || cached.lastModified != lastModified) {
+            cached = new CachedTemplate(compile(FileUtils.readFileToString(file, StandardCharsets.UTF_8)),
+                    lastModified);
+            cache.put(key, cached);
+        }
+        return cached.template;
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        cache.clear();
+    }
+
+    /*
+        Placeholders without a value are rendered empty.
+     */
+    public void render(Appendable out, Map<String, ?> values) throws IOException {
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(literals[i]);
+            Object value = values.get(placeholders[i]);
+            if (value instanceof Fragment) {
+                ((Fragment) value).writeTo(out);
+            } else if (value != null) {
+                escapeHtml(value.toString(), out);
+            }
+        }
+        out.append(literals[literals.length - 1]);
+    }
+
+    public String render(Map<String, ?> values) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        render(builder, values);
+        return builder.toString();
+    }
+
+    public static void escapeHtml(CharSequence text, Appendable out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(text, start, i).append(replacement);
+            start = i + 1;
+        }
+        out.append(text, start, text.length());
+    }
+
+    public static String escapeHtml(CharSequence text) {
+        StringBuilder builder = new StringBuilder(text.length() + 16);
+        try {
+            escapeHtml(text, builder);
+        } catch (IOException e) {
+            // A StringBuilder does not throw it
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /*
+        HTML rendered into the output as it is.
+     */
+    @FunctionalInterface
+    public interface Fragment {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    private static final class CachedTemplate {
+        private final Template template;
+        private final long lastModified;
+
+        private CachedTemplate(Template template, long lastModified) {
+            this.template = template;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
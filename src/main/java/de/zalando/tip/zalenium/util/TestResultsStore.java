@@ -0,0 +1,386 @@
+package de.zalando.tip.zalenium.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the results of the executed tests in an append-only log (one JSON object per line) next to the videos, and
+ * renders the dashboard from it page by page.
+ * Adding a result appends one line and renders only the page it belongs to, so the work per test does not grow with
+ * the amount of tests already executed. The offset of each line is indexed in memory, so a page is read without
+ * going through the whole log. Full pages are written once as dashboard_N.html and dashboard.html always shows the
+ * latest page together with the one before, so it never shows only a few tests after a page was completed.
+ * The tests in a list.html written by earlier versions are imported into the log the first time it is created.
+ */
+@SuppressWarnings("WeakerAccess")
+public class TestResultsStore {
+
+    @VisibleForTesting
+    static final String RESULTS_FILE = "results.jsonl";
+    @VisibleForTesting
+    static final int PAGE_SIZE = 50;
+    @VisibleForTesting
+    static final String LEGACY_LIST_FILE = "list.html";
+    private static final Pattern LEGACY_ENTRY = Pattern.compile("data-video=\"([^\"]*)\".*?font-weight-bold\">(.*?)" +
+            "</small>\\s*<small>(\\d+)m(\\d+)s</small>.*?<small>(.*?)</small>\\s*<small>(.*?)</small>", Pattern.DOTALL);
+    private static final Logger LOG = Logger.getLogger(TestResultsStore.class.getName());
+    private static final Map<String, TestResultsStore> stores = new ConcurrentHashMap<>();
+    private static final Gson gson = new Gson();
+    private final File path;
+    private final File resultsFile;
+    // Reused for every rendered page
+    private final StringBuilder renderedPage = new StringBuilder();
+    // Offset of every line in the log, plus the end of the log as the last element
+    private long[] offsets = new long[1024];
+    private int amountOfResults;
+    private boolean loaded;
+    private long lastTimestamp = -1;
+    // Imported results are rendered with the next added ones
+    private boolean historyImported;
+
+    @VisibleForTesting
+    TestResultsStore(String path) {
+        this.path = new File(path);
+        this.resultsFile = new File(path, RESULTS_FILE);
+    }
+
+    public static TestResultsStore getInstance(String path) {
+        return stores.computeIfAbsent(new File(path).getAbsolutePath(), TestResultsStore::new);
+    }
+
+    public synchronized int getAmountOfResults() throws IOException {
+        load();
+        return amountOfResults;
+    }
+
+    /*
+        Appends the results to the log and renders the pages they were added to. The templates are read from the
+        given folder.
+        The timestamps are taken here, while holding the lock, so the log is always ordered by time and find() can
+        stop at the first result that is too old.
+     */
+    public synchronized void add(List<TestResult> results, String templatesPath) throws IOException {
+        if (results.isEmpty()) {
+            return;
+        }
+        load();
+        if (lastTimestamp < 0) {
+            lastTimestamp = amountOfResults == 0 ? 0 : read(amountOfResults - 1, amountOfResults).stream()
+                    .mapToLong(TestResult::getTimestamp).findFirst().orElse(0);
+        }
+        // The clock might be set back, the log stays ordered anyway
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        for (TestResult result : results) {
+            result.timestamp = lastTimestamp;
+        }
+        int firstNewResult = historyImported ? 0 : amountOfResults;
+        append(results);
+        historyImported = false;
+        renderPages(firstNewResult, templatesPath);
+    }
+
+    private void append(List<TestResult> results) throws IOException {
+        ByteBuffer[] lines = new ByteBuffer[results.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = ByteBuffer.wrap((gson.toJson(results.get(i)) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        FileUtils.forceMkdir(path);
+        try (FileChannel log = FileChannel.open(resultsFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (lines[lines.length - 1].hasRemaining()) {
+                log.write(lines);
+            }
+        } catch (IOException e) {
+            // The log might end with an incomplete line now, it is checked again before the next access
+            loaded = false;
+            throw e;
+        }
+        for (ByteBuffer line : lines) {
+            addOffset(offsets[amountOfResults] + line.limit());
+        }
+    }
+
+    /*
+        Results on the given page (starting at 1, oldest tests first), newest result first.
+     */
+    public synchronized List<TestResult> getPage(int page) throws IOException {
+        load();
+        int first = (page - 1) * PAGE_SIZE;
+        if (page < 1 || first >= amountOfResults) {
+            return Collections.emptyList();
+        }
+        return read(first, Math.min(first + PAGE_SIZE, amountOfResults));
+    }
+
+    /*
+        Results matching the filter, newest first, skipping the first matches. The log is read backwards one page at a
+        time, and since results are appended in order, reading stops at the first result older than the given time.
+     */
+    public synchronized List<TestResult> find(Predicate<TestResult> filter, long notBefore, int skip, int limit)
+            throws IOException {
+        load();
+        List<TestResult> found = new ArrayList<>();
+        int skipped = 0;
+        for (int last = amountOfResults; last > 0 && found.size() < limit; last -= PAGE_SIZE) {
+            for (TestResult result : read(Math.max(0, last - PAGE_SIZE), last)) {
+                if (result.getTimestamp() < notBefore) {
+                    return found;
+                }
+                if (!filter.test(result)) {
+                    continue;
+                }
+                if (skipped < skip) {
+                    skipped++;
+                } else if (found.size() < limit) {
+                    found.add(result);
+                }
+            }
+        }
+        return found;
+    }
+
+    public synchronized int getAmountOfPages() throws IOException {
+        load();
+        return (amountOfResults + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private void renderPages(int firstNewResult, String templatesPath) throws IOException {
+        int firstPage = firstNewResult / PAGE_SIZE + 1;
+        int lastPage = getAmountOfPages();
+        Template entryTemplate = Template.load(new File(templatesPath, "list_template.html"));
+        Template dashboardTemplate = Template.load(new File(templatesPath, "dashboard_template.html"));
+        // The previous page gets a link to the new one
+        if (firstNewResult > 0 && firstNewResult % PAGE_SIZE == 0) {
+            firstPage--;
+        }
+        for (int page = firstPage; page <= lastPage; page++) {
+            renderedPage.setLength(0);
+            renderPage(getPage(page), page < lastPage ? page + 1 : 0, page - 1, entryTemplate, dashboardTemplate,
+                    renderedPage);
+            writePage(getPageFileName(page));
+        }
+        int firstDashboardPage = Math.max(1, lastPage - 1);
+        renderedPage.setLength(0);
+        renderPage(read((firstDashboardPage - 1) * PAGE_SIZE, amountOfResults), 0, firstDashboardPage - 1,
+                entryTemplate, dashboardTemplate, renderedPage);
+        writePage("dashboard.html");
+    }
+
+    /*
+        Renders the given results with links to the newer and older pages, 0 when there is no such page.
+     */
+    private void renderPage(List<TestResult> results, int newerPage, int olderPage, Template entryTemplate,
+                            Template dashboardTemplate, Appendable out) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("testList", (Template.Fragment) testList -> {
+            Map<String, Object> entryValues = new HashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                TestResult result = results.get(i);
+                if (i > 0) {
+                    testList.append("\n");
+                }
+                entryValues.put("fileName", result.getFileName());
+                entryValues.put("testName", result.getTestName());
+                entryValues.put("testDuration", result.getFormattedDuration());
+                entryValues.put("browser", result.getBrowser());
+                entryValues.put("platform", result.getPlatform());
+                entryValues.put("proxyName", result.getProxyName());
+                entryTemplate.render(testList, entryValues);
+            }
+        });
+        values.put("pagination", (Template.Fragment) pagination -> {
+            if (newerPage > 0) {
+                pagination.append("<a class=\"nav-link\" href=\"").append(getPageFileName(newerPage))
+                        .append("\">Newer tests</a>");
+            }
+            if (olderPage > 0) {
+                pagination.append("<a class=\"nav-link\" href=\"").append(getPageFileName(olderPage))
+                        .append("\">Older tests</a>");
+            }
+        });
+        dashboardTemplate.render(out, values);
+    }
+
+    private void writePage(String fileName) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(new File(path, fileName).toPath(), StandardCharsets.UTF_8)) {
+            writer.append(renderedPage);
+        }
+    }
+
+    @VisibleForTesting
+    static String getPageFileName(int page) {
+        return String.format("dashboard_%s.html", page);
+    }
+
+    /*
+        Builds the offset index with a single pass over the log. A line that was cut while being written (e.g. the
+        hub stopped) is removed, so the next results are appended after the last complete one.
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        amountOfResults = 0;
+        offsets[0] = 0;
+        if (!resultsFile.exists()) {
+            importLegacyList();
+            return;
+        }
+        try (FileChannel log = FileChannel.open(resultsFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = 0;
+            while (log.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position++;
+                    if (buffer.get() == '\n') {
+                        addOffset(position);
+                    }
+                }
+                buffer.clear();
+            }
+            if (position > offsets[amountOfResults]) {
+                LOG.log(Level.WARNING, "Removing an incomplete test result from {0}", resultsFile);
+                log.truncate(offsets[amountOfResults]);
+            }
+        }
+    }
+
+    /*
+        Earlier versions kept the whole dashboard in list.html, newest test first. Its tests are added to the log
+        oldest first, without a timestamp since it was not recorded. The file is left in place.
+     */
+    private void importLegacyList() throws IOException {
+        File legacyList = new File(path, LEGACY_LIST_FILE);
+        if (!legacyList.exists()) {
+            return;
+        }
+        Matcher entry = LEGACY_ENTRY.matcher(FileUtils.readFileToString(legacyList, StandardCharsets.UTF_8));
+        List<TestResult> results = new ArrayList<>();
+        while (entry.find()) {
+            String browserAndPlatform = entry.group(5);
+            int separator = browserAndPlatform.indexOf('-');
+            long duration = Long.parseLong(entry.group(3)) * 60 + Long.parseLong(entry.group(4));
+            results.add(new TestResult(entry.group(2), duration, entry.group(6),
+                    separator < 0 ? browserAndPlatform : browserAndPlatform.substring(0, separator),
+                    separator < 0 ? "" : browserAndPlatform.substring(separator + 1), entry.group(1)));
+        }
+        if (results.isEmpty()) {
+            return;
+        }
+        Collections.reverse(results);
+        append(results);
+        historyImported = true;
+        LOG.log(Level.INFO, "Imported {0} test results from {1}", new Object[]{results.size(), legacyList});
+    }
+
+    private void addOffset(long end) {
+        if (amountOfResults + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[++amountOfResults] = end;
+    }
+
+    private List<TestResult> read(int first, int last) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (offsets[last] - offsets[first]));
+        try (FileChannel log = FileChannel.open(resultsFile.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && log.read(buffer, offsets[first] + buffer.position()) > 0) {
+                // Reading until the page is complete
+            }
+        }
+        String[] lines = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).split("\n");
+        List<TestResult> results = new ArrayList<>(lines.length);
+        for (int i = lines.length - 1; i >= 0; i--) {
+            try {
+                results.add(gson.fromJson(lines[i], TestResult.class));
+            } catch (JsonParseException e) {
+                LOG.log(Level.WARNING, "Skipping an invalid test result: " + lines[i], e);
+            }
+        }
+        return results;
+    }
+
+    public static class TestResult {
+        private final String testName;
+        private final long duration;
+        private final String proxyName;
+        private final String browser;
+        private final String platform;
+        private final String fileName;
+        // Set when the result is stored
+        private long timestamp;
+
+        public TestResult(String testName, long duration, String proxyName, String browser, String platform,
+                          String fileName) {
+            this.testName = testName;
+            this.duration = duration;
+            this.proxyName = proxyName;
+            this.browser = browser;
+            this.platform = platform;
+            this.fileName = fileName;
+        }
+
+        public String getTestName() {
+            return testName == null ? "" : testName;
+        }
+
+        // Duration of the test in seconds
+        public long getDuration() {
+            return duration;
+        }
+
+        // Show duration of 80 seconds like 1m20s
+        public String getFormattedDuration() {
+            long minutes = duration / 60;
+            long seconds = duration - (minutes * 60);
+            return String.format("%sm%ss", minutes, seconds);
+        }
+
+        public String getProxyName() {
+            return proxyName == null ? "" : proxyName;
+        }
+
+        public String getBrowser() {
+            return browser == null ? "" : browser;
+        }
+
+        public String getPlatform() {
+            return platform == null ? "" : platform;
+        }
+
+        public String getFileName() {
+            return fileName == null ? "" : fileName;
+        }
+
+        // When the result was stored, in milliseconds since the epoch, 0 for results imported from list.html
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+}
@@ -1,23 +1,34 @@
 package de.zalando.tip.zalenium.util;
 
+import com.google.common.collect.MapMaker;
+import de.zalando.tip.zalenium.proxy.CloudTestingRemoteProxy;
 import de.zalando.tip.zalenium.proxy.DockerSeleniumStarterRemoteProxy;
+import de.zalando.tip.zalenium.proxy.OverflowRoutingPolicy;
+import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.RemoteProxy;
 import org.openqa.grid.internal.utils.DefaultCapabilityMatcher;
 import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
 import org.openqa.selenium.remote.CapabilityType;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The purpose of this class is to check if the capabilities cannot be supplied by docker-selenium so they can be just
- * forwarded to Sauce Labs
+ * forwarded to Sauce Labs.
+ * Whether docker-selenium can serve a request is kept in a routing table per registry, keyed by the fingerprint of
+ * the requested capabilities, so matching a request against every slot of every cloud proxy does not go through all
+ * the proxies of the grid each time. The table is discarded when the capabilities offered by docker-selenium change.
+ * Requests docker-selenium can serve still go to the cloud when the {@link OverflowRoutingPolicy} lets them overflow.
  */
 
 public class ZaleniumCapabilityMatcher extends DefaultCapabilityMatcher {
 
     private static final Logger logger = Logger.getLogger(ZaleniumCapabilityMatcher.class.getName());
+    private static final ConcurrentMap<Registry, RoutingTable> routingTables = new MapMaker().weakKeys().makeMap();
 
     private DefaultRemoteProxy proxy;
 
@@ -37,16 +48,66 @@ public class ZaleniumCapabilityMatcher extends DefaultCapabilityMatcher {
             return false;
         }
 
-        for (RemoteProxy remoteProxy : proxy.getRegistry().getAllProxies()) {
+        if (isSupportedByDockerSelenium(requestedCapability)) {
+            if (canOverflow(nodeCapability, requestedCapability)) {
+                return true;
+            }
+            logger.log(Level.FINE, "Capability supported by docker-selenium, should not be processed by " +
+                    "Sauce Labs nor BrowserStack: {0}", requestedCapability);
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+        Whether docker-selenium can serve the requested capabilities, answered from the routing table of the registry.
+     */
+    public boolean isSupportedByDockerSelenium(Map<String, Object> requestedCapability) {
+        Registry registry = proxy.getRegistry();
+        long generation = DockerSeleniumStarterRemoteProxy.getCapabilitiesGeneration();
+        RoutingTable routingTable = routingTables.get(registry);
+        if (routingTable == null || routingTable.generation != generation) {
+            routingTable = routingTables.compute(registry, (key, table) ->
+                    table == null || table.generation != generation ? new RoutingTable(generation) : table);
+        }
+        return routingTable.routes.computeIfAbsent(CapabilityFingerprint.of(requestedCapability),
+                routingKey -> isSupportedByDockerSelenium(registry, requestedCapability));
+    }
+
+    /*
+        During peaks the routing policy can send requests that would wait too long for docker-selenium to the cloud
+        testing provider, when the provider offers the requested browser and platform.
+     */
+    private boolean canOverflow(Map<String, Object> nodeCapability, Map<String, Object> requestedCapability) {
+        OverflowRoutingPolicy overflowRoutingPolicy = OverflowRoutingPolicy.getInstance();
+        if (!overflowRoutingPolicy.isEnabled() || !(proxy instanceof CloudTestingRemoteProxy) ||
+                nodeCapability == null) {
+            return false;
+        }
+        String provider = ((CloudTestingRemoteProxy) proxy).getProxyName();
+        return overflowRoutingPolicy.canOverflow(requestedCapability.get(CapabilityType.BROWSER_NAME).toString(),
+                provider) &&
+                CapabilityFingerprint.of(requestedCapability).matches(CapabilityFingerprint.of(nodeCapability));
+    }
+
+    private static boolean isSupportedByDockerSelenium(Registry registry, Map<String, Object> requestedCapability) {
+        for (RemoteProxy remoteProxy : registry.getAllProxies()) {
             if ((remoteProxy instanceof DockerSeleniumStarterRemoteProxy) &&
                     remoteProxy.hasCapability(requestedCapability)) {
-                logger.log(Level.FINE, "Capability supported by docker-selenium, should not be processed by " +
-                        "Sauce Labs nor BrowserStack: {0}", requestedCapability);
-                return false;
+                return true;
             }
         }
+        return false;
+    }
 
-        return true;
+    private static final class RoutingTable {
+        private final long generation;
+        private final Map<CapabilityFingerprint, Boolean> routes = new ConcurrentHashMap<>();
+
+        private RoutingTable(long generation) {
+            this.generation = generation;
+        }
     }
 
 }
@@ -2,6 +2,7 @@ package de.zalando.tip.zalenium.proxy;
 
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import de.zalando.tip.zalenium.util.CommonProxyUtilities;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.TestUtils;
@@ -167,6 +168,27 @@ public class BrowserStackRemoteProxyTest {
         Assert.assertThat(request.getBody(), CoreMatchers.not(CoreMatchers.containsString("browserstack.key")));
     }
 
+    @Test
+    public void videoIsReadyOnceTheSessionStoppedRunning() {
+        CommonProxyUtilities commonProxyUtilities = mock(CommonProxyUtilities.class);
+        BrowserStackRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+        JsonParser jsonParser = new JsonParser();
+        String url = "https://www.browserstack.com/automate/sessions/testSeleniumSessionId.json";
+
+        when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(jsonParser.parse(
+                "{\"automation_session\": {\"status\": \"running\", \"video_url\": \"https://video\"}}"));
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.PROCESSING, BrowserStackRemoteProxy.readVideoStatus(url));
+        when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(jsonParser.parse(
+                "{\"automation_session\": {\"status\": \"done\", \"video_url\": \"https://video\"}}"));
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.READY, BrowserStackRemoteProxy.readVideoStatus(url));
+        when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(jsonParser.parse(
+                "{\"automation_session\": {\"status\": \"done\", \"video_url\": null}}"));
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.NOT_AVAILABLE,
+                BrowserStackRemoteProxy.readVideoStatus(url));
+        when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(null);
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.UNKNOWN, BrowserStackRemoteProxy.readVideoStatus(url));
+    }
+
     @Test
     public void checkVideoFileExtensionAndProxyName() {
         Assert.assertEquals(".mp4", browserStackProxy.getVideoFileExtension());
@@ -0,0 +1,60 @@
+package de.zalando.tip.zalenium.proxy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CloudConcurrencyLimitTest {
+
+    @Test
+    public void sessionsOverTheLimitHaveToWait() {
+        CloudConcurrencyLimit concurrencyLimit = new CloudConcurrencyLimit("SauceLabs", () -> 2);
+
+        CloudConcurrencyLimit.Permit firstPermit = concurrencyLimit.tryAcquire();
+        Assert.assertNotNull(firstPermit);
+        Assert.assertNotNull(concurrencyLimit.tryAcquire());
+        Assert.assertNull(concurrencyLimit.tryAcquire());
+
+        // Releasing the same session twice frees a single one
+        firstPermit.release();
+        firstPermit.release();
+        Assert.assertEquals(1, concurrencyLimit.getAvailablePermits());
+    }
+
+    @Test
+    public void limitFollowsTheAccount() {
+        AtomicInteger accountConcurrency = new AtomicInteger(2);
+        CloudConcurrencyLimit concurrencyLimit = new CloudConcurrencyLimit("BrowserStack", accountConcurrency::get);
+        CloudConcurrencyLimit.Permit firstPermit = concurrencyLimit.tryAcquire();
+        CloudConcurrencyLimit.Permit secondPermit = concurrencyLimit.tryAcquire();
+
+        accountConcurrency.set(1);
+        concurrencyLimit.refresh();
+
+        // Running sessions go on, new ones wait until the account is below the new limit
+        Assert.assertEquals(1, concurrencyLimit.getLimit());
+        firstPermit.release();
+        Assert.assertNull(concurrencyLimit.tryAcquire());
+        secondPermit.release();
+        Assert.assertEquals(1, concurrencyLimit.getAvailablePermits());
+
+        accountConcurrency.set(3);
+        concurrencyLimit.refresh();
+        Assert.assertEquals(3, concurrencyLimit.getAvailablePermits());
+    }
+
+    @Test
+    public void defaultLimitIsUsedWhenTheAccountLimitIsNotKnown() {
+        AtomicInteger accountConcurrency = new AtomicInteger(-1);
+        CloudConcurrencyLimit concurrencyLimit = new CloudConcurrencyLimit("TestingBot", accountConcurrency::get);
+        Assert.assertEquals(CloudConcurrencyLimit.DEFAULT_CONCURRENCY, concurrencyLimit.getLimit());
+
+        accountConcurrency.set(10);
+        concurrencyLimit.refresh();
+        accountConcurrency.set(-1);
+        concurrencyLimit.refresh();
+        Assert.assertEquals(10, concurrencyLimit.getLimit());
+    }
+
+}
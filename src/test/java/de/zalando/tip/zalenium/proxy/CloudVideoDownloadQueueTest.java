@@ -0,0 +1,145 @@
+package de.zalando.tip.zalenium.proxy;
+
+import de.zalando.tip.zalenium.util.Environment;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class CloudVideoDownloadQueueTest {
+
+    private Environment environment;
+
+    @Before
+    public void setUp() {
+        environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+        when(environment.getEnvVariable(CloudVideoDownloadQueue.ZALENIUM_CLOUD_DOWNLOADS_PER_MINUTE)).thenReturn("0");
+    }
+
+    @Test
+    public void failedDownloadsAreRetried() {
+        CloudVideoDownloadQueue downloadQueue = getDownloadQueue();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger downloaded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        downloadQueue.submit("SauceLabs", "video.flv", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("Video not ready");
+            }
+        }, downloaded::incrementAndGet, failed::incrementAndGet);
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> downloaded.get() == 1);
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals(0, failed.get());
+        Assert.assertEquals(0, downloadQueue.getQueueLength());
+        Assert.assertEquals(1, downloadQueue.getCompletedDownloads());
+    }
+
+    @Test
+    public void downloadFailsAfterTheLastAttempt() {
+        CloudVideoDownloadQueue downloadQueue = getDownloadQueue();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        downloadQueue.submit("SauceLabs", "video.flv", () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Video not found");
+        }, () -> Assert.fail("The video was not downloaded"), failed::incrementAndGet);
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> failed.get() == 1);
+        Assert.assertEquals(CloudVideoDownloadQueue.MAX_ATTEMPTS, attempts.get());
+        Assert.assertEquals(1, downloadQueue.getFailedDownloads());
+        Assert.assertEquals(0, downloadQueue.getQueueLength());
+    }
+
+    @Test
+    public void downloadStartsOnceTheVideoIsReady() {
+        CloudVideoDownloadQueue downloadQueue = getDownloadQueue();
+        downloadQueue.setFirstAttemptDelay(TimeUnit.MINUTES.toMillis(1));
+        AtomicInteger statusChecks = new AtomicInteger();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger downloaded = new AtomicInteger();
+
+        downloadQueue.submit("TestingBot", "video.mp4", () -> statusChecks.incrementAndGet() < 3 ?
+                        CloudVideoDownloadQueue.VideoStatus.PROCESSING : CloudVideoDownloadQueue.VideoStatus.READY,
+                attempts::incrementAndGet, downloaded::incrementAndGet, () -> Assert.fail("The video was not downloaded"));
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> downloaded.get() == 1);
+        Assert.assertEquals(3, statusChecks.get());
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(3, downloadQueue.getStatusChecks());
+    }
+
+    @Test
+    public void videoThatIsNotAvailableIsNotDownloaded() {
+        CloudVideoDownloadQueue downloadQueue = getDownloadQueue();
+        AtomicInteger failed = new AtomicInteger();
+
+        downloadQueue.submit("SauceLabs", "video.flv", () -> CloudVideoDownloadQueue.VideoStatus.NOT_AVAILABLE,
+                () -> Assert.fail("The video was not recorded"), () -> Assert.fail("The video was not recorded"),
+                failed::incrementAndGet);
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> failed.get() == 1);
+        Assert.assertEquals(0, downloadQueue.getQueueLength());
+    }
+
+    @Test
+    public void statusPollDelayGrowsUpToTheMaximum() {
+        CloudVideoDownloadQueue downloadQueue = new CloudVideoDownloadQueue(environment);
+
+        Assert.assertEquals(CloudVideoDownloadQueue.STATUS_POLL_INTERVAL, downloadQueue.getStatusPollDelay(1));
+        Assert.assertEquals(CloudVideoDownloadQueue.STATUS_POLL_INTERVAL * 4, downloadQueue.getStatusPollDelay(3));
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(15), downloadQueue.getStatusPollDelay(30));
+    }
+
+    @Test
+    public void retryDelayGrowsExponentiallyWithJitter() {
+        CloudVideoDownloadQueue downloadQueue = new CloudVideoDownloadQueue(environment);
+
+        for (int attempts = 1; attempts <= 4; attempts++) {
+            long backoff = CloudVideoDownloadQueue.RETRY_BACKOFF << (attempts - 1);
+            long delay = downloadQueue.getRetryDelay(attempts);
+            Assert.assertTrue(delay >= backoff / 2 && delay <= backoff);
+        }
+        Assert.assertTrue(downloadQueue.getRetryDelay(30) <= TimeUnit.MINUTES.toMillis(5));
+    }
+
+    @Test
+    public void downloadsOfAProviderAreRateLimited() {
+        when(environment.getEnvVariable(CloudVideoDownloadQueue.ZALENIUM_CLOUD_DOWNLOADS_PER_MINUTE)).thenReturn("300");
+        CloudVideoDownloadQueue downloadQueue = getDownloadQueue();
+        List<Long> downloadTimes = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            downloadQueue.submit("BrowserStack", "video" + i + ".mp4", () -> downloadTimes.add(System.nanoTime()),
+                    () -> { }, () -> { });
+        }
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> downloadQueue.getQueueLength() == 0);
+        downloadTimes.sort(Long::compare);
+        // 300 per minute, one download every 200ms
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(downloadTimes.get(2) - downloadTimes.get(0)) >= 350);
+    }
+
+    private CloudVideoDownloadQueue getDownloadQueue() {
+        CloudVideoDownloadQueue downloadQueue = new CloudVideoDownloadQueue(environment);
+        downloadQueue.setFirstAttemptDelay(0);
+        downloadQueue.setRetryBackoff(1);
+        downloadQueue.setStatusPollInterval(1);
+        return downloadQueue;
+    }
+
+}
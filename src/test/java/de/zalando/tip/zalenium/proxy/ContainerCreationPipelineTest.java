@@ -0,0 +1,148 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import de.zalando.tip.zalenium.util.Environment;
+import de.zalando.tip.zalenium.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.selenium.remote.BrowserType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class ContainerCreationPipelineTest {
+
+    private DockerClient dockerClient;
+    private DockerSeleniumStarterRemoteProxy spyProxy;
+    private Environment environment;
+    private ContainerCreationPipeline pipeline;
+
+    @Before
+    public void setUp() throws DockerException, InterruptedException {
+        Registry registry = Registry.newInstance();
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30000,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        DockerSeleniumStarterRemoteProxy proxy = DockerSeleniumStarterRemoteProxy.getNewInstance(request, registry);
+
+        dockerClient = mock(DockerClient.class);
+        ContainerCreation containerCreation = mock(ContainerCreation.class);
+        when(containerCreation.id()).thenReturn("ANY_CONTAINER_ID");
+        when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenReturn(containerCreation);
+        DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+        DockerSeleniumStarterRemoteProxy.setMaxDockerSeleniumContainers(100);
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        ContainerCreationPipeline.resetStageLatencies();
+
+        environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+        when(environment.getEnvVariable(ContainerCreationPipeline.ZALENIUM_CONTAINER_CREATION_BACKOFF))
+                .thenReturn("10");
+
+        spyProxy = spy(proxy);
+    }
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        DockerSeleniumStarterRemoteProxy.restoreDockerClient();
+        DockerSeleniumStarterRemoteProxy.setMaxDockerSeleniumContainers(
+                DockerSeleniumStarterRemoteProxy.DEFAULT_AMOUNT_DOCKER_SELENIUM_CONTAINERS_RUNNING);
+    }
+
+    @Test
+    public void allSubmittedContainersAreCreated() throws Exception {
+        pipeline = new ContainerCreationPipeline(spyProxy, environment);
+        List<CompletableFuture<Boolean>> creations = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            creations.add(pipeline.submit(i % 2 == 0 ? BrowserType.CHROME : BrowserType.FIREFOX));
+        }
+
+        for (CompletableFuture<Boolean> creation : creations) {
+            Assert.assertTrue(creation.get(1, TimeUnit.SECONDS));
+        }
+        verify(spyProxy, times(4)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(4)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+        Assert.assertEquals(0, pipeline.getAmountOfPendingCreations());
+        Assert.assertTrue(ContainerCreationPipeline.getStageLatencySummary().contains("start: avg"));
+    }
+
+    @Test
+    public void containersCreatedAtTheSameTimeDoNotOvershootTheMax() throws Exception {
+        DockerSeleniumStarterRemoteProxy.setMaxDockerSeleniumContainers(3);
+        AtomicInteger startedContainers = new AtomicInteger();
+        ContainerCreation containerCreation = mock(ContainerCreation.class);
+        when(containerCreation.id()).thenReturn("ANY_CONTAINER_ID");
+        // Creating takes a while, so all workers are between the limit check and the start at the same time
+        when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return containerCreation;
+        });
+        doAnswer(invocation -> {
+            startedContainers.incrementAndGet();
+            return null;
+        }).when(dockerClient).startContainer(anyString());
+        doAnswer(invocation -> startedContainers.get()).when(spyProxy).getNumberOfRunningContainers();
+        pipeline = new ContainerCreationPipeline(spyProxy, environment);
+        List<CompletableFuture<Boolean>> creations = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            creations.add(pipeline.submit(BrowserType.CHROME));
+        }
+
+        int createdContainers = 0;
+        for (CompletableFuture<Boolean> creation : creations) {
+            if (creation.get(5, TimeUnit.SECONDS)) {
+                createdContainers++;
+            }
+        }
+        Assert.assertEquals(3, createdContainers);
+        Assert.assertEquals(3, startedContainers.get());
+        // Containers that did not fit are not retried
+        verify(spyProxy, times(8)).startDockerSeleniumContainer(BrowserType.CHROME);
+    }
+
+    @Test
+    public void failedCreationIsRetried() throws Exception {
+        doReturn(false).doReturn(false).doReturn(true).when(spyProxy).startDockerSeleniumContainer(BrowserType.CHROME);
+        pipeline = new ContainerCreationPipeline(spyProxy, environment);
+
+        Assert.assertTrue(pipeline.submit(BrowserType.CHROME).get(1, TimeUnit.SECONDS));
+        verify(spyProxy, times(3)).startDockerSeleniumContainer(BrowserType.CHROME);
+    }
+
+    @Test
+    public void creationFailsAfterAllRetries() throws Exception {
+        when(environment.getEnvVariable(ContainerCreationPipeline.ZALENIUM_CONTAINER_CREATION_RETRIES))
+                .thenReturn("1");
+        doReturn(false).when(spyProxy).startDockerSeleniumContainer(BrowserType.FIREFOX);
+        pipeline = new ContainerCreationPipeline(spyProxy, environment);
+
+        Assert.assertFalse(pipeline.submit(BrowserType.FIREFOX).get(1, TimeUnit.SECONDS));
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+        Assert.assertEquals(0, pipeline.getAmountOfPendingCreations(BrowserType.FIREFOX));
+    }
+
+}
@@ -0,0 +1,106 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Event;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DockerContainerInventoryTest {
+
+    private static final String DOCKER_SELENIUM_IMAGE = "elgalu/selenium:2.53.1-d";
+    private DockerClient dockerClient;
+    private CountDownLatch closeEventStream;
+
+    @Before
+    public void setUp() throws DockerException, InterruptedException {
+        dockerClient = mock(DockerClient.class);
+        Container runningContainer = mockContainer("RUNNING_ID", "/zalenium_40000", DOCKER_SELENIUM_IMAGE, "running");
+        Container exitedContainer = mockContainer("EXITED_ID", "/zalenium_40001", DOCKER_SELENIUM_IMAGE, "exited");
+        Container otherContainer = mockContainer("OTHER_ID", "/nginx", "nginx:latest", "running");
+        when(dockerClient.listContainers(any(DockerClient.ListContainersParam.class)))
+                .thenReturn(ImmutableList.of(runningContainer, exitedContainer, otherContainer));
+        closeEventStream = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        closeEventStream.countDown();
+    }
+
+    @Test
+    public void inventoryIsSeededOnEveryLookupWithoutEvents() throws DockerException, InterruptedException {
+        DockerContainerInventory inventory = DockerContainerInventory.getInstance(dockerClient);
+
+        Assert.assertEquals(1, inventory.getAmountOfRunningDockerSeleniumContainers());
+        Assert.assertEquals("RUNNING_ID", inventory.getContainerIdByNodePort(40000));
+        Assert.assertEquals("EXITED_ID", inventory.getContainerIdByName("/zalenium_40001"));
+        Assert.assertEquals("EXITED_ID", inventory.getContainerIdByName("Zalenium_40001"));
+        Assert.assertNull(inventory.getContainerIdByNodePort(40002));
+        verify(dockerClient, atLeast(4)).listContainers(any(DockerClient.ListContainersParam.class));
+    }
+
+    @Test
+    public void inventoryIsKeptCurrentThroughEvents() throws DockerException, InterruptedException {
+        // The events stream stays blocked while the test feeds the events itself
+        when(dockerClient.events()).thenAnswer(invocation -> {
+            closeEventStream.await();
+            return null;
+        });
+        DockerContainerInventory inventory = DockerContainerInventory.getInstance(dockerClient);
+        inventory.seed();
+        inventory.setListeningToEvents(true);
+
+        inventory.processEvent(mockEvent("NEW_ID", "start", "zalenium_40002", DOCKER_SELENIUM_IMAGE));
+        Assert.assertEquals("NEW_ID", inventory.getContainerIdByNodePort(40002));
+        Assert.assertEquals(2, inventory.getAmountOfRunningDockerSeleniumContainers());
+
+        inventory.processEvent(mockEvent("RUNNING_ID", "die", "zalenium_40000", DOCKER_SELENIUM_IMAGE));
+        Assert.assertEquals(1, inventory.getAmountOfRunningDockerSeleniumContainers());
+
+        inventory.processEvent(mockEvent("RUNNING_ID", "destroy", "zalenium_40000", DOCKER_SELENIUM_IMAGE));
+        Assert.assertNull(inventory.getContainerIdByNodePort(40000));
+
+        inventory.containerStarted("STARTED_ID", "zalenium_40003", DOCKER_SELENIUM_IMAGE);
+        Assert.assertEquals("STARTED_ID", inventory.getContainerIdByName("zalenium_40003"));
+        Assert.assertEquals(2, inventory.getAmountOfRunningDockerSeleniumContainers());
+
+        // Only the initial seeding lists the containers
+        verify(dockerClient, times(1)).listContainers(any(DockerClient.ListContainersParam.class));
+    }
+
+    private static Container mockContainer(String id, String name, String image, String state) {
+        Container container = mock(Container.class);
+        when(container.id()).thenReturn(id);
+        when(container.names()).thenReturn(ImmutableList.of(name));
+        when(container.image()).thenReturn(image);
+        when(container.state()).thenReturn(state);
+        return container;
+    }
+
+    private static Event mockEvent(String id, String action, String name, String image) {
+        Event.Actor actor = mock(Event.Actor.class);
+        when(actor.id()).thenReturn(id);
+        when(actor.attributes()).thenReturn(ImmutableMap.of("name", name, "image", image));
+        Event event = mock(Event.class);
+        when(event.type()).thenReturn(Event.Type.CONTAINER);
+        when(event.action()).thenReturn(action);
+        when(event.actor()).thenReturn(actor);
+        return event;
+    }
+
+}
@@ -0,0 +1,161 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import de.zalando.tip.zalenium.util.Environment;
+import de.zalando.tip.zalenium.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.ProxySet;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class DockerSeleniumAutoscalerTest {
+
+    private DockerSeleniumStarterRemoteProxy spyProxy;
+    private Registry registry;
+    private Environment environment;
+    private List<DesiredCapabilities> queuedRequests;
+
+    @Before
+    public void setUp() throws DockerException, InterruptedException {
+        Registry realRegistry = Registry.newInstance();
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30000,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        DockerSeleniumStarterRemoteProxy proxy = DockerSeleniumStarterRemoteProxy.getNewInstance(request, realRegistry);
+
+        DockerClient dockerClient = mock(DockerClient.class);
+        ContainerCreation containerCreation = mock(ContainerCreation.class);
+        when(containerCreation.id()).thenReturn("ANY_CONTAINER_ID");
+        when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenReturn(containerCreation);
+        DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+        DockerSeleniumStarterRemoteProxy.setMaxDockerSeleniumContainers(100);
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+
+        environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+
+        // The hub queue is mocked, it cannot be filled without real requests
+        queuedRequests = new ArrayList<>();
+        registry = mock(Registry.class);
+        ProxySet proxySet = mock(ProxySet.class);
+        when(proxySet.iterator()).thenAnswer(invocation -> Collections.<RemoteProxy>emptyList().iterator());
+        when(registry.getAllProxies()).thenReturn(proxySet);
+        when(registry.getNewSessionRequestCount()).thenAnswer(invocation -> queuedRequests.size());
+        when(registry.getDesiredCapabilities()).thenAnswer(invocation -> new ArrayList<>(queuedRequests));
+
+        spyProxy = spy(proxy);
+        when(spyProxy.getRegistry()).thenReturn(registry);
+    }
+
+    @After
+    public void tearDown() {
+        spyProxy.getCreationPipeline().stop();
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        DockerSeleniumStarterRemoteProxy.restoreDockerClient();
+    }
+
+    @Test
+    public void containersAreStartedForTheQueuedRequests() {
+        queueRequests(BrowserType.CHROME, 3);
+        queueRequests(BrowserType.FIREFOX, 2);
+        DockerSeleniumAutoscaler autoscaler = new DockerSeleniumAutoscaler(spyProxy, environment);
+
+        autoscaler.scale();
+        // Requested containers count as starting right away, even before the pipeline creates them
+        autoscaler.scale();
+        awaitCreations();
+        verify(spyProxy, times(3)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+
+        // The started containers cover the queue, nothing else is started until they register
+        autoscaler.scale();
+        Assert.assertEquals(0, spyProxy.getCreationPipeline().getAmountOfPendingCreations());
+        verify(spyProxy, times(3)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+    }
+
+    @Test
+    public void startingContainersAreLimited() {
+        when(environment.getEnvVariable(DockerSeleniumAutoscaler.ZALENIUM_MAX_STARTING_CONTAINERS)).thenReturn("4");
+        queueRequests(BrowserType.CHROME, 10);
+        queueRequests(BrowserType.FIREFOX, 10);
+        DockerSeleniumAutoscaler autoscaler = new DockerSeleniumAutoscaler(spyProxy, environment);
+
+        autoscaler.scale();
+        awaitCreations();
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+
+        // Once the nodes register, the next containers are started
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        autoscaler.scale();
+        awaitCreations();
+        verify(spyProxy, times(4)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(4)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+    }
+
+    @Test
+    public void nothingIsStartedWithoutQueuedRequests() {
+        DockerSeleniumAutoscaler autoscaler = new DockerSeleniumAutoscaler(spyProxy, environment);
+
+        autoscaler.scale();
+        Assert.assertEquals(0, spyProxy.getCreationPipeline().getAmountOfPendingCreations());
+        verify(spyProxy, never()).startDockerSeleniumContainer(anyString());
+    }
+
+    @Test
+    public void onDemandStartIsSkippedWhenEnoughContainersAreStarting() {
+        queueRequests(BrowserType.CHROME, 2);
+        DockerSeleniumAutoscaler autoscaler = new DockerSeleniumAutoscaler(spyProxy, environment);
+
+        autoscaler.startOnDemand(BrowserType.CHROME);
+        autoscaler.startOnDemand(BrowserType.CHROME);
+        autoscaler.startOnDemand(BrowserType.CHROME);
+        autoscaler.startOnDemand(BrowserType.CHROME);
+        awaitCreations();
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.CHROME);
+    }
+
+    /*
+        Creations are counted as pending from their submission until their container was started, so once none is
+        pending all the calls to start a container happened.
+     */
+    private void awaitCreations() {
+        await().atMost(10, SECONDS).until(() -> spyProxy.getCreationPipeline().getAmountOfPendingCreations() == 0);
+    }
+
+    private void queueRequests(String browser, int amount) {
+        for (int i = 0; i < amount; i++) {
+            DesiredCapabilities desiredCapabilities = new DesiredCapabilities();
+            desiredCapabilities.setBrowserName(browser);
+            desiredCapabilities.setPlatform(Platform.LINUX);
+            queuedRequests.add(desiredCapabilities);
+        }
+    }
+
+}
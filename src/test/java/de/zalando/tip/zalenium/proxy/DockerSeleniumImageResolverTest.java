@@ -0,0 +1,97 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.ImageInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DockerSeleniumImageResolverTest {
+
+    private DockerClient dockerClient;
+
+    @Before
+    public void setUp() throws DockerException, InterruptedException {
+        dockerClient = mock(DockerClient.class);
+        Image olderImage = mockImage("elgalu/selenium:2.53.1-c", "1480000000");
+        Image latestImage = mockImage("elgalu/selenium:2.53.1-d", "1490000000");
+        Image untaggedImage = mockImage(null, "1500000000");
+        when(dockerClient.listImages(any(DockerClient.ListImagesParam.class)))
+                .thenReturn(ImmutableList.of(olderImage, latestImage, untaggedImage));
+
+        ContainerConfig containerConfig = mock(ContainerConfig.class);
+        when(containerConfig.labels()).thenReturn(ImmutableMap.of("selenium2_chrome_version", "55.0",
+                "selenium2_firefox_version", "47.0.1"));
+        ImageInfo imageInfo = mock(ImageInfo.class);
+        when(imageInfo.config()).thenReturn(containerConfig);
+        when(dockerClient.inspectImage(anyString())).thenReturn(imageInfo);
+    }
+
+    @After
+    public void tearDown() {
+        DockerSeleniumImageResolver.setTimeToLive(DockerSeleniumImageResolver.DEFAULT_IMAGE_CACHE_TTL);
+    }
+
+    @Test
+    public void latestImageIsResolvedOnce() throws DockerException, InterruptedException {
+        DockerSeleniumImageResolver imageResolver = DockerSeleniumImageResolver.getInstance(dockerClient);
+
+        Assert.assertEquals("elgalu/selenium:2.53.1-d", imageResolver.getLatestImage());
+        Assert.assertEquals("55.0", imageResolver.getChromeVersion());
+        Assert.assertEquals("47.0.1", imageResolver.getFirefoxVersion());
+        Assert.assertEquals("elgalu/selenium:2.53.1-d", imageResolver.getLatestImage());
+        verify(dockerClient, times(1)).listImages(any(DockerClient.ListImagesParam.class));
+        verify(dockerClient, times(1)).inspectImage("elgalu/selenium:2.53.1-d");
+    }
+
+    @Test
+    public void imageIsResolvedAgainAfterInvalidation() throws DockerException, InterruptedException {
+        DockerSeleniumImageResolver imageResolver = DockerSeleniumImageResolver.getInstance(dockerClient);
+
+        imageResolver.getLatestImage();
+        imageResolver.invalidate();
+        imageResolver.getLatestImage();
+        verify(dockerClient, times(2)).listImages(any(DockerClient.ListImagesParam.class));
+    }
+
+    @Test
+    public void imageIsResolvedAgainAfterTimeToLive() throws DockerException, InterruptedException {
+        DockerSeleniumImageResolver.setTimeToLive(0);
+        DockerSeleniumImageResolver imageResolver = DockerSeleniumImageResolver.getInstance(dockerClient);
+
+        imageResolver.getLatestImage();
+        imageResolver.getLatestImage();
+        verify(dockerClient, times(2)).listImages(any(DockerClient.ListImagesParam.class));
+    }
+
+    @Test
+    public void missingImageIsNotCached() throws DockerException, InterruptedException {
+        when(dockerClient.listImages(any(DockerClient.ListImagesParam.class))).thenReturn(ImmutableList.of());
+        DockerSeleniumImageResolver imageResolver = DockerSeleniumImageResolver.getInstance(dockerClient);
+
+        Assert.assertEquals(DockerSeleniumStarterRemoteProxy.DOCKER_SELENIUM_IMAGE, imageResolver.getLatestImage());
+        Assert.assertNull(imageResolver.getChromeVersion());
+        verify(dockerClient, times(2)).listImages(any(DockerClient.ListImagesParam.class));
+    }
+
+    private static Image mockImage(String repoTag, String created) {
+        Image image = mock(Image.class);
+        when(image.repoTags()).thenReturn(repoTag == null ? null : ImmutableList.of(repoTag));
+        when(image.created()).thenReturn(created);
+        return image;
+    }
+
+}
@@ -5,13 +5,18 @@ import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.*;
+import de.zalando.tip.zalenium.util.CommonProxyUtilities;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.TestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.awaitility.Duration;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatchers;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.TestSession;
@@ -22,12 +27,22 @@ import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.CapabilityType;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -54,14 +69,7 @@ public class DockerSeleniumRemoteProxyTest {
         // Creating the proxy
         proxy = DockerSeleniumRemoteProxy.getNewInstance(request, registry);
 
-        DockerClient dockerClient = mock(DockerClient.class);
-        ExecCreation execCreation = mock(ExecCreation.class);
-        LogStream logStream = mock(LogStream.class);
-        when(logStream.readFully()).thenReturn("ANY_STRING");
-        when(execCreation.id()).thenReturn("ANY_ID");
-        when(dockerClient.execCreate(anyString(), any(String[].class), any(DockerClient.ExecCreateParam.class),
-                any(DockerClient.ExecCreateParam.class))).thenReturn(execCreation);
-        when(dockerClient.execStart(anyString())).thenReturn(logStream);
+        DockerClient dockerClient = mockDockerClientForExec();
         doNothing().when(dockerClient).stopContainer(anyString(), anyInt());
 
         DockerSeleniumRemoteProxy.setDockerClient(dockerClient);
@@ -71,6 +79,7 @@ public class DockerSeleniumRemoteProxyTest {
     public void tearDown() {
         DockerSeleniumRemoteProxy.restoreDockerClient();
         DockerSeleniumRemoteProxy.restoreEnvironment();
+        DockerSeleniumRemoteProxy.readEnvVarsForNodeReuse();
     }
 
     @Test
@@ -107,6 +116,19 @@ public class DockerSeleniumRemoteProxyTest {
         }
     }
 
+    @Test
+    public void nodesAreIndexedByTheGroupOfTheirSession() {
+        Map<String, Object> requestedCapability = getCapabilitySupportedByDockerSelenium();
+        requestedCapability.put("group", "myGroup");
+
+        Assert.assertNotNull(proxy.getNewSession(requestedCapability));
+        Assert.assertEquals(Collections.singletonList(proxy), TestGroupIndex.getProxies("MYGROUP"));
+
+        proxy.startPolling();
+        proxy.teardown();
+        Assert.assertTrue(TestGroupIndex.getProxies("myGroup").isEmpty());
+    }
+
     @Test
     public void noSessionIsCreatedWhenCapabilitiesAreNotSupported() {
         // Non supported capabilities
@@ -149,6 +171,100 @@ public class DockerSeleniumRemoteProxyTest {
         await().pollInterval(Duration.FIVE_HUNDRED_MILLISECONDS).atMost(Duration.TWO_SECONDS).until(callable);
     }
 
+    @Test
+    public void nodeIsRemovedRightAfterTheSessionIsStopped() {
+        proxy.startPolling();
+
+        TestSession newSession = proxy.getNewSession(getCapabilitySupportedByDockerSelenium());
+        stopSession(proxy, newSession);
+
+        // Much shorter than the lifecycle sweep interval, only the stop session event can trigger the teardown
+        await().atMost(300, MILLISECONDS).until(proxy::isDown);
+    }
+
+    @Test
+    public void nodeIsReusedUntilTheSessionsPerContainerAreExecuted() {
+        DockerSeleniumRemoteProxy reusableProxy = getProxyWithNodeReuse("2", "0");
+        reusableProxy.startPolling();
+        Map<String, Object> requestedCapability = getCapabilitySupportedByDockerSelenium();
+
+        TestSession firstSession = reusableProxy.getNewSession(requestedCapability);
+        Assert.assertNotNull(firstSession);
+        stopSession(reusableProxy, firstSession);
+
+        // The node is cleaned up and gets ready for the next session instead of shutting down
+        await().atMost(Duration.TWO_SECONDS).until(() -> reusableProxy.isIdle(BrowserType.CHROME));
+        Assert.assertFalse(reusableProxy.isDown());
+
+        TestSession secondSession = reusableProxy.getNewSession(requestedCapability);
+        Assert.assertNotNull(secondSession);
+        Assert.assertTrue(reusableProxy.isTestSessionLimitReached());
+        stopSession(reusableProxy, secondSession);
+
+        await().atMost(Duration.TWO_SECONDS).until(reusableProxy::isDown);
+    }
+
+    @Test
+    public void noSessionIsAssignedWhileTheNodeIsCleanedUp() {
+        DockerSeleniumRemoteProxy reusableProxy = getProxyWithNodeReuse("2", "0");
+        Map<String, Object> requestedCapability = getCapabilitySupportedByDockerSelenium();
+
+        TestSession firstSession = reusableProxy.getNewSession(requestedCapability);
+        stopSession(reusableProxy, firstSession);
+
+        // Poller is not running, so the cleanup never happens
+        Assert.assertNull(reusableProxy.getNewSession(requestedCapability));
+        reusableProxy.resetAfterSession();
+        Assert.assertNotNull(reusableProxy.getNewSession(requestedCapability));
+    }
+
+    @Test
+    public void lifecycleCheckDoesNotWaitForTheVideoCopy() throws Exception {
+        DockerSeleniumRemoteProxy reusableProxy = getProxyWithNodeReuse("2", "0", true);
+        ExecCreation execCreation = mock(ExecCreation.class);
+        when(execCreation.id()).thenReturn("ANY_ID");
+        LogStream logStream = mock(LogStream.class);
+        when(logStream.readFully()).thenReturn("ANY_STRING");
+        ByteArrayOutputStream emptyTar = new ByteArrayOutputStream();
+        new TarArchiveOutputStream(emptyTar).close();
+        DockerClient dockerClient = mock(DockerClient.class);
+        when(dockerClient.execCreate(any(), any(String[].class), any(DockerClient.ExecCreateParam.class),
+                any(DockerClient.ExecCreateParam.class))).thenReturn(execCreation);
+        when(dockerClient.execStart(anyString())).thenReturn(logStream);
+        when(dockerClient.archiveContainer(any(), anyString()))
+                .thenAnswer(invocation -> new ByteArrayInputStream(emptyTar.toByteArray()));
+        DockerSeleniumRemoteProxy.setDockerClient(dockerClient);
+        Map<String, Object> requestedCapability = getCapabilitySupportedByDockerSelenium();
+
+        TestSession session = reusableProxy.getNewSession(requestedCapability);
+        CountDownLatch stopVideoReleased = new CountDownLatch(1);
+        when(dockerClient.execCreate(any(), any(String[].class), any(DockerClient.ExecCreateParam.class),
+                any(DockerClient.ExecCreateParam.class))).thenAnswer(invocation -> {
+                    stopVideoReleased.await();
+                    return execCreation;
+                });
+        stopSession(reusableProxy, session);
+
+        // Poller is not running, the check runs here and returns while stop-video is still blocked
+        reusableProxy.checkNodeLifecycle();
+        Assert.assertFalse(reusableProxy.isIdle(BrowserType.CHROME));
+
+        stopVideoReleased.countDown();
+        await().atMost(Duration.TWO_SECONDS).until(() -> reusableProxy.isIdle(BrowserType.CHROME));
+    }
+
+    @Test
+    public void idleNodeIsRecycledAfterTheIdleTimeout() {
+        DockerSeleniumRemoteProxy reusableProxy = getProxyWithNodeReuse("5", "1");
+        reusableProxy.startPolling();
+
+        TestSession session = reusableProxy.getNewSession(getCapabilitySupportedByDockerSelenium());
+        stopSession(reusableProxy, session);
+
+        await().atMost(Duration.FIVE_SECONDS).until(reusableProxy::isDown);
+        Assert.assertEquals(1, reusableProxy.getAmountOfExecutedTests());
+    }
+
     @Test
     public void fallbackToDefaultValueWhenEnvVariableIsNotABoolean() {
         Environment environment = mock(Environment.class, withSettings().useConstructor());
@@ -162,6 +278,128 @@ public class DockerSeleniumRemoteProxyTest {
                 DockerSeleniumRemoteProxy.isVideoRecordingEnabled());
     }
 
+    @Test
+    public void videoFilesAreNamedAfterTheContainerAndTheTest() {
+        Assert.assertEquals("videos/zalenium_vid_chrome_40000_20170101120000.mp4",
+                proxy.getVideoFileName("videos/vid_chrome_40000.mp4", "20170101120000"));
+
+        Map<String, Object> requestedCapability = getCapabilitySupportedByDockerSelenium();
+        requestedCapability.put("name", "my test");
+        Assert.assertNotNull(proxy.getNewSession(requestedCapability));
+
+        Assert.assertEquals("videos/zalenium_my_test_chrome_40000_20170101120000.mp4",
+                proxy.getVideoFileName("videos/vid_chrome_40000.mp4", "20170101120000"));
+    }
+
+    @Test
+    public void videoFilesAreStreamedToDiskAndAddedOnceToTheDashboard() throws Exception {
+        Path localPath = Files.createTempDirectory("zalenium");
+        byte[] firstVideo = new byte[1024 * 1024];
+        Arrays.fill(firstVideo, (byte) 1);
+        byte[] secondVideo = "second video".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream tarContents = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarStream = new TarArchiveOutputStream(tarContents)) {
+            for (Map.Entry<String, byte[]> video : new LinkedHashMap<String, byte[]>() {{
+                put("videos/vid_chrome_40000.mp4", firstVideo);
+                put("videos/vid_chrome_40000.log", secondVideo);
+            }}.entrySet()) {
+                TarArchiveEntry entry = new TarArchiveEntry(video.getKey());
+                entry.setSize(video.getValue().length);
+                tarStream.putArchiveEntry(entry);
+                tarStream.write(video.getValue());
+                tarStream.closeArchiveEntry();
+            }
+        }
+        DockerClient dockerClient = mockDockerClientForExec();
+        when(dockerClient.archiveContainer("ANY_ID", "/videos/"))
+                .thenReturn(new ByteArrayInputStream(tarContents.toByteArray()));
+        DockerSeleniumRemoteProxy.setDockerClient(dockerClient);
+        CommonProxyUtilities commonProxyUtilities = spy(new CommonProxyUtilities());
+        when(commonProxyUtilities.currentLocalPath()).thenReturn(localPath.toString());
+        when(commonProxyUtilities.getCurrentDateAndTimeFormatted()).thenReturn("20170101120000");
+        doNothing().when(commonProxyUtilities).updateDashboard(anyString(), anyLong(), anyString(), any(), anyString(),
+                ArgumentMatchers.<List<String>>any(), anyString());
+        DockerSeleniumRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+        try {
+            proxy.processVideoAction(DockerSeleniumRemoteProxy.VideoRecordingAction.STOP_RECORDING, "ANY_ID");
+            proxy.addVideosToDashboard();
+            proxy.addVideosToDashboard();
+
+            Assert.assertArrayEquals(firstVideo,
+                    Files.readAllBytes(localPath.resolve("videos/zalenium_vid_chrome_40000_20170101120000.mp4")));
+            Assert.assertArrayEquals(secondVideo,
+                    Files.readAllBytes(localPath.resolve("videos/zalenium_vid_chrome_40000_20170101120000.log")));
+            try (Stream<Path> files = Files.list(localPath.resolve("videos"))) {
+                Assert.assertEquals(2, files.count());
+            }
+            verify(commonProxyUtilities, times(1)).updateDashboard("", 0, "Zalenium", null, "Linux",
+                    Arrays.asList("zalenium_vid_chrome_40000_20170101120000.mp4",
+                            "zalenium_vid_chrome_40000_20170101120000.log"),
+                    localPath.toString() + "/videos");
+        } finally {
+            DockerSeleniumRemoteProxy.restoreCommonProxyUtilities();
+            FileUtils.deleteDirectory(localPath.toFile());
+        }
+    }
+
+    @Test
+    public void failedVideoCopyIsRetriedWithoutStoppingTheRecordingAgain() throws Exception {
+        Path localPath = Files.createTempDirectory("zalenium");
+        byte[] video = "video".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream tarContents = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tarStream = new TarArchiveOutputStream(tarContents)) {
+            for (String entryName : Arrays.asList("videos/vid_chrome_40000.mp4", "videos/vid_chrome_40000.log")) {
+                TarArchiveEntry entry = new TarArchiveEntry(entryName);
+                entry.setSize(video.length);
+                tarStream.putArchiveEntry(entry);
+                tarStream.write(video);
+                tarStream.closeArchiveEntry();
+            }
+        }
+        DockerClient dockerClient = mockDockerClientForExec();
+        when(dockerClient.archiveContainer("ANY_ID", "/videos/"))
+                .thenReturn(new ByteArrayInputStream(tarContents.toByteArray()))
+                .thenReturn(new ByteArrayInputStream(tarContents.toByteArray()));
+        DockerSeleniumRemoteProxy.setDockerClient(dockerClient);
+        CommonProxyUtilities commonProxyUtilities = spy(new CommonProxyUtilities());
+        when(commonProxyUtilities.currentLocalPath()).thenReturn(localPath.toString());
+        when(commonProxyUtilities.getCurrentDateAndTimeFormatted()).thenReturn("20170101120000");
+        doNothing().when(commonProxyUtilities).updateDashboard(anyString(), anyLong(), anyString(), any(), anyString(),
+                ArgumentMatchers.<List<String>>any(), anyString());
+        // The second file of the first attempt cannot be copied
+        doCallRealMethod().doThrow(new IOException("Disk full")).doCallRealMethod()
+                .when(commonProxyUtilities).copyToFile(any(), anyLong(), any());
+        DockerSeleniumRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+        try {
+            try {
+                proxy.processVideoAction(DockerSeleniumRemoteProxy.VideoRecordingAction.STOP_RECORDING, "ANY_ID");
+                Assert.fail("The copy should have failed");
+            } catch (IOException e) {
+                Assert.assertEquals("Disk full", e.getMessage());
+            }
+            try (Stream<Path> files = Files.list(localPath.resolve("videos"))) {
+                Assert.assertEquals(0, files.count());
+            }
+            proxy.addVideosToDashboard();
+            verify(commonProxyUtilities, never()).updateDashboard(anyString(), anyLong(), anyString(), any(),
+                    anyString(), ArgumentMatchers.<List<String>>any(), anyString());
+
+            proxy.processVideoAction(DockerSeleniumRemoteProxy.VideoRecordingAction.STOP_RECORDING, "ANY_ID");
+            proxy.addVideosToDashboard();
+
+            try (Stream<Path> files = Files.list(localPath.resolve("videos"))) {
+                Assert.assertEquals(2, files.count());
+            }
+            verify(dockerClient, times(1)).execCreate(anyString(), any(String[].class),
+                    any(DockerClient.ExecCreateParam.class), any(DockerClient.ExecCreateParam.class));
+            verify(commonProxyUtilities, times(1)).updateDashboard(anyString(), anyLong(), anyString(), any(),
+                    anyString(), ArgumentMatchers.<List<String>>any(), anyString());
+        } finally {
+            DockerSeleniumRemoteProxy.restoreCommonProxyUtilities();
+            FileUtils.deleteDirectory(localPath.toFile());
+        }
+    }
+
     @Test
     public void videoRecordingIsStartedAndStopped() throws DockerException, InterruptedException,
             URISyntaxException, IOException {
@@ -354,6 +592,50 @@ public class DockerSeleniumRemoteProxyTest {
         }
     }
 
+    private DockerClient mockDockerClientForExec() throws DockerException, InterruptedException {
+        DockerClient dockerClient = mock(DockerClient.class);
+        ExecCreation execCreation = mock(ExecCreation.class);
+        LogStream logStream = mock(LogStream.class);
+        when(logStream.readFully()).thenReturn("ANY_STRING");
+        when(execCreation.id()).thenReturn("ANY_ID");
+        when(dockerClient.execCreate(anyString(), any(String[].class), any(DockerClient.ExecCreateParam.class),
+                any(DockerClient.ExecCreateParam.class))).thenReturn(execCreation);
+        when(dockerClient.execStart(anyString())).thenReturn(logStream);
+        return dockerClient;
+    }
+
+    private DockerSeleniumRemoteProxy getProxyWithNodeReuse(String sessionsPerContainer, String idleTimeout) {
+        return getProxyWithNodeReuse(sessionsPerContainer, idleTimeout, false);
+    }
+
+    private DockerSeleniumRemoteProxy getProxyWithNodeReuse(String sessionsPerContainer, String idleTimeout,
+                                                            boolean videoRecordingEnabled) {
+        Environment environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getEnvVariable(DockerSeleniumRemoteProxy.ZALENIUM_SESSIONS_PER_CONTAINER))
+                .thenReturn(sessionsPerContainer);
+        when(environment.getEnvVariable(DockerSeleniumRemoteProxy.ZALENIUM_NODE_IDLE_TIMEOUT)).thenReturn(idleTimeout);
+        when(environment.getEnvVariable(DockerSeleniumRemoteProxy.ZALENIUM_VIDEO_RECORDING_ENABLED))
+                .thenReturn(String.valueOf(videoRecordingEnabled));
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+        when(environment.getBooleanEnvVariable(any(String.class), any(Boolean.class))).thenCallRealMethod();
+        DockerSeleniumRemoteProxy.setEnv(environment);
+
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(40001,
+                DockerSeleniumRemoteProxy.class.getCanonicalName());
+        request.getCapabilities().clear();
+        request.getCapabilities().addAll(DockerSeleniumStarterRemoteProxy.getCapabilities());
+        return DockerSeleniumRemoteProxy.getNewInstance(request, registry);
+    }
+
+    private void stopSession(DockerSeleniumRemoteProxy dockerSeleniumRemoteProxy, TestSession session) {
+        WebDriverRequest request = mock(WebDriverRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getMethod()).thenReturn("DELETE");
+        when(request.getRequestType()).thenReturn(RequestType.STOP_SESSION);
+        session.getSlot().doFinishRelease();
+        dockerSeleniumRemoteProxy.afterCommand(session, request, response);
+    }
+
     private Map<String, Object> getCapabilitySupportedByDockerSelenium() {
         Map<String, Object> requestedCapability = new HashMap<>();
         requestedCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
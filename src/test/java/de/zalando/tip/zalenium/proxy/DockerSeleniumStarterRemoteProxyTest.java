@@ -1,9 +1,13 @@
 package de.zalando.tip.zalenium.proxy;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.ContainerConfig;
 import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.ImageInfo;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.TestUtils;
 import org.junit.After;
@@ -14,13 +18,17 @@ import org.junit.Test;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TestSlot;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.CapabilityType;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -31,6 +39,7 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.withSettings;
 import static org.awaitility.Awaitility.await;
@@ -59,6 +68,7 @@ public class DockerSeleniumStarterRemoteProxyTest {
         when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenReturn(containerCreation);
 
         DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
 
         // Spying on the proxy to see if methods are invoked or not
         spyProxy = spy(proxy);
@@ -71,6 +81,8 @@ public class DockerSeleniumStarterRemoteProxyTest {
 
     @AfterClass
     public static void tearDown() {
+        DockerSeleniumStarterRemoteProxy.setCapabilitiesCheckInterval(
+                DockerSeleniumStarterRemoteProxy.DEFAULT_CAPABILITIES_CHECK_INTERVAL);
         DockerSeleniumStarterRemoteProxy.restoreDockerClient();
         DockerSeleniumStarterRemoteProxy.restoreEnvironment();
     }
@@ -110,7 +122,8 @@ public class DockerSeleniumStarterRemoteProxyTest {
         TestSession testSession = spyProxy.getNewSession(supportedCapability);
 
         Assert.assertNull(testSession);
-        verify(spyProxy, times(1)).startDockerSeleniumContainer(BrowserType.CHROME);
+        // The container is created by the creation pipeline
+        verify(spyProxy, timeout(1000).times(1)).startDockerSeleniumContainer(BrowserType.CHROME);
     }
 
     @Test
@@ -123,7 +136,8 @@ public class DockerSeleniumStarterRemoteProxyTest {
         TestSession testSession = spyProxy.getNewSession(supportedCapability);
 
         Assert.assertNull(testSession);
-        verify(spyProxy, times(1)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+        // The container is created by the creation pipeline
+        verify(spyProxy, timeout(1000).times(1)).startDockerSeleniumContainer(BrowserType.FIREFOX);
     }
 
     @Test
@@ -259,6 +273,38 @@ public class DockerSeleniumStarterRemoteProxyTest {
         Assert.assertEquals(amountOfFirefoxContainers, DockerSeleniumStarterRemoteProxy.getFirefoxContainersOnStartup());
     }
 
+    @Test
+    public void allStartupContainersAreCreatedWhenMoreThanTheMaxStartingAreConfigured()
+            throws DockerException, InterruptedException {
+        Environment environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getEnvVariable(DockerSeleniumStarterRemoteProxy.ZALENIUM_CHROME_CONTAINERS)).thenReturn("3");
+        when(environment.getEnvVariable(DockerSeleniumStarterRemoteProxy.ZALENIUM_FIREFOX_CONTAINERS)).thenReturn("3");
+        when(environment.getEnvVariable(DockerSeleniumAutoscaler.ZALENIUM_MAX_STARTING_CONTAINERS)).thenReturn("2");
+        when(environment.getEnvVariable(ContainerCreationPipeline.ZALENIUM_CONTAINER_CREATION_BACKOFF))
+                .thenReturn("10");
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+        DockerSeleniumStarterRemoteProxy.setEnv(environment);
+        DockerClient dockerClient = mock(DockerClient.class);
+        ContainerCreation containerCreation = mock(ContainerCreation.class);
+        when(containerCreation.id()).thenReturn("ANY_CONTAINER_ID");
+        when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenReturn(containerCreation);
+        DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+
+        // Nodes register a while after their containers were started
+        ScheduledExecutorService registrations = Executors.newSingleThreadScheduledExecutor();
+        registrations.scheduleWithFixedDelay(DockerSeleniumStarterRemoteProxy::clearStartingNodes, 200, 200,
+                MILLISECONDS);
+        try {
+            registry.add(spyProxy);
+
+            Callable<Boolean> callable = () -> spyProxy.isSetupCompleted();
+            await().atMost(5, SECONDS).pollInterval(100, MILLISECONDS).until(callable);
+            verify(dockerClient, times(6)).startContainer(anyString());
+        } finally {
+            registrations.shutdownNow();
+        }
+    }
+
     @Test
     public void noNegativeValuesAreAllowedForStartup() {
         DockerSeleniumStarterRemoteProxy.setChromeContainersOnStartup(-1);
@@ -277,4 +323,52 @@ public class DockerSeleniumStarterRemoteProxyTest {
         Assert.assertEquals(DockerSeleniumStarterRemoteProxy.DEFAULT_SCREEN_WIDTH,
                 DockerSeleniumStarterRemoteProxy.getScreenWidth());
     }
+
+    @Test
+    public void capabilitiesAreBuiltAgainWhenTheImageChanges() throws DockerException, InterruptedException {
+        DockerClient dockerClient = mock(DockerClient.class);
+        Image image = mock(Image.class);
+        when(image.repoTags()).thenReturn(ImmutableList.of("elgalu/selenium:2.53.1-d"));
+        when(image.created()).thenReturn("1490000000");
+        when(dockerClient.listImages(any(DockerClient.ListImagesParam.class))).thenReturn(ImmutableList.of(image));
+        ContainerConfig containerConfig = mock(ContainerConfig.class);
+        when(containerConfig.labels()).thenReturn(ImmutableMap.of("selenium2_chrome_version", "55.0",
+                "selenium2_firefox_version", "47.0.1"));
+        ImageInfo imageInfo = mock(ImageInfo.class);
+        when(imageInfo.config()).thenReturn(containerConfig);
+        when(dockerClient.inspectImage(anyString())).thenReturn(imageInfo);
+        DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+        DockerSeleniumStarterRemoteProxy.setCapabilitiesCheckInterval(0);
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30001,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        DockerSeleniumStarterRemoteProxy proxy = DockerSeleniumStarterRemoteProxy.getNewInstance(request, registry);
+
+        List<TestSlot> testSlots = proxy.getTestSlots();
+        long generation = DockerSeleniumStarterRemoteProxy.getCapabilitiesGeneration();
+        Assert.assertEquals("55.0", getVersion(testSlots, BrowserType.CHROME));
+        Assert.assertSame(testSlots, proxy.getTestSlots());
+
+        // A newer image was pulled
+        when(containerConfig.labels()).thenReturn(ImmutableMap.of("selenium2_chrome_version", "56.0",
+                "selenium2_firefox_version", "47.0.1"));
+        DockerSeleniumImageResolver.getInstance(dockerClient).invalidate();
+
+        testSlots = proxy.getTestSlots();
+        Assert.assertEquals("56.0", getVersion(testSlots, BrowserType.CHROME));
+        Assert.assertEquals("47.0.1", getVersion(testSlots, BrowserType.FIREFOX));
+        Map<String, Object> requestedCapability = new HashMap<>();
+        requestedCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        requestedCapability.put(CapabilityType.VERSION, "56.0");
+        Assert.assertTrue(proxy.hasCapability(requestedCapability));
+        Assert.assertTrue(DockerSeleniumStarterRemoteProxy.getCapabilitiesGeneration() > generation);
+    }
+
+    private static String getVersion(List<TestSlot> testSlots, String browser) {
+        for (TestSlot testSlot : testSlots) {
+            if (browser.equals(testSlot.getCapabilities().get(CapabilityType.BROWSER_NAME))) {
+                return String.valueOf(testSlot.getCapabilities().get(CapabilityType.VERSION));
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,147 @@
+package de.zalando.tip.zalenium.proxy;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import de.zalando.tip.zalenium.util.Environment;
+import de.zalando.tip.zalenium.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class DockerSeleniumWarmPoolTest {
+
+    private DockerSeleniumStarterRemoteProxy spyProxy;
+    private Environment environment;
+
+    @Before
+    public void setUp() throws DockerException, InterruptedException {
+        Registry registry = Registry.newInstance();
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30000,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        DockerSeleniumStarterRemoteProxy proxy = DockerSeleniumStarterRemoteProxy.getNewInstance(request, registry);
+
+        DockerClient dockerClient = mock(DockerClient.class);
+        ContainerCreation containerCreation = mock(ContainerCreation.class);
+        when(containerCreation.id()).thenReturn("ANY_CONTAINER_ID");
+        when(dockerClient.createContainer(any(ContainerConfig.class), anyString())).thenReturn(containerCreation);
+        DockerSeleniumStarterRemoteProxy.setDockerClient(dockerClient);
+        DockerSeleniumStarterRemoteProxy.setMaxDockerSeleniumContainers(10);
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        DockerSeleniumWarmPool.resetCounters();
+
+        environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+
+        spyProxy = spy(proxy);
+    }
+
+    @After
+    public void tearDown() {
+        DockerSeleniumStarterRemoteProxy.clearStartingNodes();
+        DockerSeleniumStarterRemoteProxy.restoreDockerClient();
+    }
+
+    @Test
+    public void warmPoolIsDisabledByDefault() {
+        DockerSeleniumWarmPool warmPool = new DockerSeleniumWarmPool(spyProxy, environment);
+
+        Assert.assertFalse(warmPool.isEnabled());
+        warmPool.refill();
+        verify(spyProxy, never()).startDockerSeleniumContainer(anyString());
+    }
+
+    @Test
+    public void warmPoolIsFilledUpToTheConfiguredSize() {
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_CHROME_CONTAINERS)).thenReturn("2");
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_FIREFOX_CONTAINERS)).thenReturn("1");
+        DockerSeleniumWarmPool warmPool = new DockerSeleniumWarmPool(spyProxy, environment);
+
+        Assert.assertTrue(warmPool.isEnabled());
+        warmPool.refill();
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(1)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+
+        // Containers that are still starting count as available, so nothing else is started
+        warmPool.refill();
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.CHROME);
+        verify(spyProxy, times(1)).startDockerSeleniumContainer(BrowserType.FIREFOX);
+    }
+
+    @Test
+    public void refillRateLimitsContainersStartedPerCycle() {
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_CHROME_CONTAINERS)).thenReturn("5");
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_REFILL_RATE)).thenReturn("3");
+        DockerSeleniumWarmPool warmPool = new DockerSeleniumWarmPool(spyProxy, environment);
+
+        warmPool.refill();
+        verify(spyProxy, times(3)).startDockerSeleniumContainer(BrowserType.CHROME);
+
+        warmPool.refill();
+        verify(spyProxy, times(5)).startDockerSeleniumContainer(BrowserType.CHROME);
+    }
+
+    @Test
+    public void noRefillWhileAboveLowWatermark() {
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_CHROME_CONTAINERS)).thenReturn("4");
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_LOW_WATERMARK)).thenReturn("50");
+        when(environment.getEnvVariable(DockerSeleniumWarmPool.ZALENIUM_WARM_POOL_REFILL_RATE)).thenReturn("10");
+        DockerSeleniumWarmPool warmPool = new DockerSeleniumWarmPool(spyProxy, environment);
+
+        // Two nodes are available, which is exactly the low watermark
+        spyProxy.startDockerSeleniumContainer(BrowserType.CHROME);
+        spyProxy.startDockerSeleniumContainer(BrowserType.CHROME);
+        warmPool.refill();
+        verify(spyProxy, times(2)).startDockerSeleniumContainer(BrowserType.CHROME);
+    }
+
+    @Test
+    public void missIsRecordedWhenAContainerIsStartedOnDemand() {
+        Map<String, Object> supportedCapability = new HashMap<>();
+        supportedCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        supportedCapability.put(CapabilityType.PLATFORM, Platform.LINUX);
+
+        // The hub offers the queued request again until it gets a session
+        spyProxy.getNewSession(supportedCapability);
+        spyProxy.getNewSession(supportedCapability);
+
+        Assert.assertEquals(1, DockerSeleniumWarmPool.getMisses());
+        Assert.assertEquals(0, DockerSeleniumWarmPool.getHits());
+    }
+
+    @Test
+    public void oneOutcomeIsRecordedPerRequest() {
+        Map<String, Object> missedRequest = new HashMap<>();
+        missedRequest.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        Map<String, Object> warmRequest = new HashMap<>(missedRequest);
+
+        DockerSeleniumWarmPool.recordMiss(missedRequest);
+        DockerSeleniumWarmPool.recordMiss(missedRequest);
+        DockerSeleniumWarmPool.recordSession(missedRequest);
+        DockerSeleniumWarmPool.recordSession(warmRequest);
+
+        Assert.assertEquals(1, DockerSeleniumWarmPool.getMisses());
+        Assert.assertEquals(1, DockerSeleniumWarmPool.getHits());
+    }
+
+}
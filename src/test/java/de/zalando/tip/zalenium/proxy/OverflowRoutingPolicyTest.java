@@ -0,0 +1,119 @@
+package de.zalando.tip.zalenium.proxy;
+
+import de.zalando.tip.zalenium.util.Environment;
+import de.zalando.tip.zalenium.util.TestUtils;
+import de.zalando.tip.zalenium.util.ZaleniumCapabilityMatcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class OverflowRoutingPolicyTest {
+
+    private OverflowRoutingPolicy overflowRoutingPolicy;
+
+    @Before
+    public void setUp() {
+        Environment environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+        when(environment.getEnvVariable(OverflowRoutingPolicy.ZALENIUM_OVERFLOW_WAIT_THRESHOLD)).thenReturn("30");
+        overflowRoutingPolicy = new OverflowRoutingPolicy(environment);
+    }
+
+    @After
+    public void tearDown() {
+        OverflowRoutingPolicy.restoreInstance();
+    }
+
+    @Test
+    public void requestsNeverOverflowByDefault() {
+        OverflowRoutingPolicy defaultPolicy = new OverflowRoutingPolicy(new Environment());
+        defaultPolicy.recordSessionDuration(TimeUnit.MINUTES.toMillis(5));
+
+        defaultPolicy.update(BrowserType.CHROME, 10, 0, 0, 0, 2);
+
+        Assert.assertFalse(defaultPolicy.isEnabled());
+        Assert.assertFalse(defaultPolicy.canOverflow(BrowserType.CHROME, "SauceLabs"));
+    }
+
+    @Test
+    public void requestsWaitingForRunningTestsOverflow() {
+        overflowRoutingPolicy.recordSessionDuration(TimeUnit.MINUTES.toMillis(5));
+
+        overflowRoutingPolicy.update(BrowserType.CHROME, 3, 0, 0, 0, 2);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(overflowRoutingPolicy.canOverflow(BrowserType.CHROME, "SauceLabs"));
+            overflowRoutingPolicy.overflowed(BrowserType.CHROME);
+        }
+        Assert.assertFalse(overflowRoutingPolicy.canOverflow(BrowserType.CHROME, "SauceLabs"));
+        Assert.assertFalse(overflowRoutingPolicy.canOverflow(BrowserType.FIREFOX, "SauceLabs"));
+    }
+
+    @Test
+    public void requestsWaitForContainersStartingInTime() {
+        overflowRoutingPolicy.recordNodeStartLatency(TimeUnit.SECONDS.toMillis(10));
+        overflowRoutingPolicy.recordSessionDuration(TimeUnit.MINUTES.toMillis(5));
+
+        overflowRoutingPolicy.update(BrowserType.CHROME, 5, 1, 2, 2, 10);
+
+        Assert.assertFalse(overflowRoutingPolicy.canOverflow(BrowserType.CHROME, "SauceLabs"));
+    }
+
+    @Test
+    public void providersSlowerThanWaitingAreNotUsed() {
+        overflowRoutingPolicy.recordSessionDuration(TimeUnit.MINUTES.toMillis(1));
+        overflowRoutingPolicy.recordProviderStartLatency("SauceLabs", TimeUnit.MINUTES.toMillis(2));
+        overflowRoutingPolicy.recordProviderStartLatency("TestingBot", TimeUnit.SECONDS.toMillis(20));
+
+        overflowRoutingPolicy.update(BrowserType.FIREFOX, 1, 0, 0, 0, 1);
+
+        Assert.assertFalse(overflowRoutingPolicy.canOverflow(BrowserType.FIREFOX, "SauceLabs"));
+        Assert.assertTrue(overflowRoutingPolicy.canOverflow(BrowserType.FIREFOX, "TestingBot"));
+        Assert.assertTrue(overflowRoutingPolicy.canOverflow(BrowserType.FIREFOX, "BrowserStack"));
+    }
+
+    @Test
+    public void cloudProxiesTakeRequestsOfDockerSeleniumOnlyWhenTheyOverflow() {
+        Registry registry = Registry.newInstance();
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30000,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        registry.getAllProxies().add(DockerSeleniumStarterRemoteProxy.getNewInstance(request, registry));
+        CloudTestingRemoteProxy cloudProxy = mock(CloudTestingRemoteProxy.class);
+        when(cloudProxy.getRegistry()).thenReturn(registry);
+        when(cloudProxy.getProxyName()).thenReturn("SauceLabs");
+        ZaleniumCapabilityMatcher matcher = new ZaleniumCapabilityMatcher(cloudProxy);
+        OverflowRoutingPolicy.setInstance(overflowRoutingPolicy);
+
+        Map<String, Object> requestedCapability = new HashMap<>();
+        requestedCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        requestedCapability.put(CapabilityType.PLATFORM, Platform.LINUX);
+        Map<String, Object> linuxChrome = new HashMap<>(requestedCapability);
+        Map<String, Object> windowsChrome = new HashMap<>(requestedCapability);
+        windowsChrome.put(CapabilityType.PLATFORM, Platform.WIN10);
+
+        Assert.assertFalse(matcher.matches(linuxChrome, requestedCapability));
+
+        overflowRoutingPolicy.recordSessionDuration(TimeUnit.MINUTES.toMillis(5));
+        overflowRoutingPolicy.update(BrowserType.CHROME, 1, 0, 0, 0, 1);
+
+        Assert.assertTrue(matcher.matches(linuxChrome, requestedCapability));
+        // The provider needs to offer the requested platform
+        Assert.assertFalse(matcher.matches(windowsChrome, requestedCapability));
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.zalando.tip.zalenium.proxy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void portsAreAllocatedOnlyOnce() {
+        PortAllocator portAllocator = new PortAllocator(40000, 40002, 0);
+
+        Assert.assertEquals(40000, portAllocator.allocate(port -> true));
+        Assert.assertEquals(40001, portAllocator.allocate(port -> true));
+        Assert.assertEquals(40002, portAllocator.allocate(port -> true));
+        Assert.assertEquals(-1, portAllocator.allocate(port -> true));
+        Assert.assertTrue(portAllocator.isAllocated(40001));
+    }
+
+    @Test
+    public void releasedPortsAreReusedInReleaseOrder() {
+        PortAllocator portAllocator = new PortAllocator(40000, 40002, 0);
+        for (int i = 0; i < 3; i++) {
+            portAllocator.allocate(port -> true);
+        }
+
+        portAllocator.release(40002);
+        portAllocator.release(40000);
+        Assert.assertFalse(portAllocator.isAllocated(40000));
+        Assert.assertEquals(40002, portAllocator.allocate(port -> true));
+        Assert.assertEquals(40000, portAllocator.allocate(port -> true));
+    }
+
+    @Test
+    public void releasedPortsAreQuarantined() throws InterruptedException {
+        PortAllocator portAllocator = new PortAllocator(40000, 40000, 100);
+        portAllocator.allocate(port -> true);
+
+        portAllocator.release(40000);
+        Assert.assertEquals(-1, portAllocator.allocate(port -> true));
+        Thread.sleep(150);
+        Assert.assertEquals(40000, portAllocator.allocate(port -> true));
+    }
+
+    @Test
+    public void portsInUseAreSkipped() {
+        PortAllocator portAllocator = new PortAllocator(40000, 40002, 0);
+
+        Assert.assertEquals(40001, portAllocator.allocate(port -> port != 40000));
+        Assert.assertFalse(portAllocator.isAllocated(40000));
+        Assert.assertEquals(2, portAllocator.getAmountOfFreePorts());
+    }
+
+    @Test
+    public void doubleReleaseIsIgnored() {
+        PortAllocator portAllocator = new PortAllocator(40000, 40001, 0);
+        portAllocator.allocate(port -> true);
+
+        portAllocator.release(40000);
+        portAllocator.release(40000);
+        portAllocator.release(50000);
+        Assert.assertEquals(2, portAllocator.getAmountOfFreePorts());
+    }
+
+    @Test
+    public void parallelAllocationsGetDifferentPorts() throws InterruptedException {
+        PortAllocator portAllocator = new PortAllocator(40000, 49999, 0);
+        Set<Integer> allocatedPorts = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executorService.execute(() -> allocatedPorts.add(portAllocator.allocate(port -> true)));
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1000, allocatedPorts.size());
+        Assert.assertFalse(allocatedPorts.contains(-1));
+    }
+
+}
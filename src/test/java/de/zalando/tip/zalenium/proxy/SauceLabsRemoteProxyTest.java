@@ -1,5 +1,6 @@
 package de.zalando.tip.zalenium.proxy;
 
+import com.google.gson.JsonParser;
 import de.zalando.tip.zalenium.util.CommonProxyUtilities;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.GoogleAnalyticsApi;
@@ -161,6 +162,50 @@ public class SauceLabsRemoteProxyTest {
         }
     }
 
+    @Test
+    public void accountConcurrencyIsReadFromTheBackupFileWhenSauceLabsIsNotAvailable() {
+        try {
+            URL resource = this.getClass().getClassLoader().getResource("saucelabs_concurrency.json");
+            File fileLocation = new File(resource.getPath());
+            CommonProxyUtilities commonProxyUtilities = mock(CommonProxyUtilities.class);
+            when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(null);
+            when(commonProxyUtilities.readJSONFromFile(anyString())).thenCallRealMethod();
+            when(commonProxyUtilities.currentLocalPath()).thenReturn(fileLocation.getParent());
+            SauceLabsRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+
+            Assert.assertEquals(5, SauceLabsRemoteProxy.readAccountConcurrency("https://saucelabs.com"));
+        } finally {
+            SauceLabsRemoteProxy.restoreCommonProxyUtilities();
+        }
+    }
+
+    @Test
+    public void videoIsReadyOnceTheJobIsComplete() {
+        try {
+            CommonProxyUtilities commonProxyUtilities = mock(CommonProxyUtilities.class);
+            SauceLabsRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+            JsonParser jsonParser = new JsonParser();
+
+            when(commonProxyUtilities.readJSONFromUrl(anyString()))
+                    .thenReturn(jsonParser.parse("{\"status\": \"in progress\", \"record_video\": true}"));
+            Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.PROCESSING,
+                    SauceLabsRemoteProxy.readVideoStatus("https://saucelabs.com"));
+            when(commonProxyUtilities.readJSONFromUrl(anyString()))
+                    .thenReturn(jsonParser.parse("{\"status\": \"complete\", \"record_video\": true}"));
+            Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.READY,
+                    SauceLabsRemoteProxy.readVideoStatus("https://saucelabs.com"));
+            when(commonProxyUtilities.readJSONFromUrl(anyString()))
+                    .thenReturn(jsonParser.parse("{\"status\": \"complete\", \"record_video\": false}"));
+            Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.NOT_AVAILABLE,
+                    SauceLabsRemoteProxy.readVideoStatus("https://saucelabs.com"));
+            when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(null);
+            Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.UNKNOWN,
+                    SauceLabsRemoteProxy.readVideoStatus("https://saucelabs.com"));
+        } finally {
+            SauceLabsRemoteProxy.restoreCommonProxyUtilities();
+        }
+    }
+
     @Test
     public void testEventIsInvoked() throws IOException {
         try {
@@ -2,6 +2,7 @@ package de.zalando.tip.zalenium.proxy;
 
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import de.zalando.tip.zalenium.util.CommonProxyUtilities;
 import de.zalando.tip.zalenium.util.Environment;
 import de.zalando.tip.zalenium.util.TestUtils;
@@ -167,6 +168,23 @@ public class TestingBotRemoteProxyTest {
         Assert.assertThat(request.getBody(), CoreMatchers.not(CoreMatchers.containsString("secret")));
     }
 
+    @Test
+    public void videoIsReadyOnceTheAssetsAreAvailable() {
+        CommonProxyUtilities commonProxyUtilities = mock(CommonProxyUtilities.class);
+        TestingBotRemoteProxy.setCommonProxyUtilities(commonProxyUtilities);
+        JsonParser jsonParser = new JsonParser();
+        String url = "https://api.testingbot.com/v1/tests/testSeleniumSessionId";
+
+        when(commonProxyUtilities.readJSONFromUrl(anyString()))
+                .thenReturn(jsonParser.parse("{\"assets_available\": false}"));
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.PROCESSING, TestingBotRemoteProxy.readVideoStatus(url));
+        when(commonProxyUtilities.readJSONFromUrl(anyString()))
+                .thenReturn(jsonParser.parse("{\"assets_available\": true}"));
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.READY, TestingBotRemoteProxy.readVideoStatus(url));
+        when(commonProxyUtilities.readJSONFromUrl(anyString())).thenReturn(null);
+        Assert.assertEquals(CloudVideoDownloadQueue.VideoStatus.UNKNOWN, TestingBotRemoteProxy.readVideoStatus(url));
+    }
+
     @Test
     public void checkVideoFileExtensionAndProxyNameAndVideoUrl() {
         Assert.assertEquals(".mp4", testingBotProxy.getVideoFileExtension());
@@ -0,0 +1,87 @@
+package de.zalando.tip.zalenium.proxy;
+
+import de.zalando.tip.zalenium.util.Environment;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class VideoFinalizationQueueTest {
+
+    private Environment environment;
+
+    @Before
+    public void setUp() {
+        environment = mock(Environment.class, withSettings().useConstructor());
+        when(environment.getIntEnvVariable(any(String.class), any(Integer.class))).thenCallRealMethod();
+    }
+
+    @Test
+    public void failedJobsAreRetriedBeforeTheCleanup() {
+        VideoFinalizationQueue videoQueue = new VideoFinalizationQueue(environment);
+        videoQueue.setRetryBackoff(10);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger cleanups = new AtomicInteger();
+
+        videoQueue.submit("node", () -> attempts.incrementAndGet() == 2, cleanups::incrementAndGet);
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> cleanups.get() == 1);
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertEquals(0, videoQueue.getQueueDepth());
+    }
+
+    @Test
+    public void cleanupRunsAfterTheLastAttempt() {
+        VideoFinalizationQueue videoQueue = new VideoFinalizationQueue(environment);
+        videoQueue.setRetryBackoff(10);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger cleanups = new AtomicInteger();
+
+        videoQueue.submit("node", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Video could not be copied");
+        }, cleanups::incrementAndGet);
+
+        await().atMost(1, TimeUnit.SECONDS).until(() -> cleanups.get() == 1);
+        Assert.assertEquals(VideoFinalizationQueue.MAX_ATTEMPTS, attempts.get());
+    }
+
+    @Test
+    public void jobsRunInTheCallingThreadWhenTheQueueIsFull() throws InterruptedException {
+        when(environment.getEnvVariable(VideoFinalizationQueue.ZALENIUM_VIDEO_WORKERS)).thenReturn("1");
+        when(environment.getEnvVariable(VideoFinalizationQueue.ZALENIUM_VIDEO_QUEUE_CAPACITY)).thenReturn("1");
+        VideoFinalizationQueue videoQueue = new VideoFinalizationQueue(environment);
+        CountDownLatch blockedJob = new CountDownLatch(1);
+
+        videoQueue.submit("node1", () -> {
+            try {
+                return blockedJob.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }, () -> { });
+        Assert.assertEquals(1, videoQueue.getQueueDepth());
+
+        Thread callingThread = Thread.currentThread();
+        AtomicInteger cleanupsInCallingThread = new AtomicInteger();
+        videoQueue.submit("node2", () -> true, () -> {
+            if (Thread.currentThread() == callingThread) {
+                cleanupsInCallingThread.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, cleanupsInCallingThread.get());
+
+        blockedJob.countDown();
+        await().atMost(1, TimeUnit.SECONDS).until(() -> videoQueue.getQueueDepth() == 0);
+    }
+
+}
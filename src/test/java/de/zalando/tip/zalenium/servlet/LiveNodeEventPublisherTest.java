@@ -0,0 +1,99 @@
+package de.zalando.tip.zalenium.servlet;
+
+import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.internal.ProxySet;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LiveNodeEventPublisherTest {
+
+    private List<RemoteProxy> proxies;
+    private LiveNodeEventPublisher publisher;
+    private LiveNodeEventPublisher.Subscription subscription;
+
+    @Before
+    public void setUp() {
+        proxies = new ArrayList<>();
+        Registry registry = mock(Registry.class);
+        ProxySet proxySet = mock(ProxySet.class);
+        when(proxySet.iterator()).thenAnswer(invocation -> new ArrayList<>(proxies).iterator());
+        when(registry.getAllProxies()).thenReturn(proxySet);
+        publisher = new LiveNodeEventPublisher(registry);
+    }
+
+    @After
+    public void tearDown() {
+        if (subscription != null) {
+            publisher.unsubscribe(subscription);
+        }
+    }
+
+    @Test
+    public void subscriptionsStartWithTheCurrentNodes() throws InterruptedException {
+        DockerSeleniumRemoteProxy node = getNode("http://localhost:40000");
+        proxies.add(node);
+
+        subscription = publisher.subscribe();
+
+        Assert.assertEquals(Collections.singletonList("http://localhost:40000"), subscription.getInitialNodeIds());
+        assertEvent(LiveNodeEventPublisher.NodeEvent.Type.NODE_ADDED, node);
+        Assert.assertNull(subscription.poll(0));
+    }
+
+    @Test
+    public void changesArePublished() throws InterruptedException {
+        DockerSeleniumRemoteProxy node = getNode("http://localhost:40000");
+        proxies.add(node);
+        subscription = publisher.subscribe();
+        subscription.poll(0);
+
+        // Nothing changed
+        publisher.checkForChanges();
+        Assert.assertNull(subscription.poll(0));
+
+        when(node.isBusy()).thenReturn(true);
+        when(node.getTestName()).thenReturn("myTest");
+        publisher.checkForChanges();
+        assertEvent(LiveNodeEventPublisher.NodeEvent.Type.SESSION_STARTED, node);
+
+        when(node.isBusy()).thenReturn(false);
+        publisher.checkForChanges();
+        assertEvent(LiveNodeEventPublisher.NodeEvent.Type.SESSION_STOPPED, node);
+
+        DockerSeleniumRemoteProxy newNode = getNode("http://localhost:40001");
+        proxies.clear();
+        proxies.add(newNode);
+        publisher.checkForChanges();
+        assertEvent(LiveNodeEventPublisher.NodeEvent.Type.NODE_REMOVED, node);
+        assertEvent(LiveNodeEventPublisher.NodeEvent.Type.NODE_ADDED, newNode);
+        Assert.assertNull(subscription.poll(0));
+    }
+
+    private void assertEvent(LiveNodeEventPublisher.NodeEvent.Type type, DockerSeleniumRemoteProxy node)
+            throws InterruptedException {
+        LiveNodeEventPublisher.NodeEvent event = subscription.poll(0);
+        Assert.assertNotNull(event);
+        Assert.assertEquals(type, event.getType());
+        Assert.assertSame(node, event.getProxy());
+    }
+
+    private DockerSeleniumRemoteProxy getNode(String id) {
+        DockerSeleniumRemoteProxy node = mock(DockerSeleniumRemoteProxy.class);
+        when(node.getId()).thenReturn(id);
+        when(node.getTestName()).thenReturn("");
+        when(node.getTestGroup()).thenReturn("");
+        return node;
+    }
+
+}
@@ -4,11 +4,14 @@ package de.zalando.tip.zalenium.servlet;
 import de.zalando.tip.zalenium.proxy.DockerSeleniumRemoteProxy;
 import de.zalando.tip.zalenium.proxy.DockerSeleniumStarterRemoteProxy;
 import de.zalando.tip.zalenium.util.TestUtils;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.internal.Registry;
 import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
 import org.openqa.selenium.remote.DesiredCapabilities;
 
 import javax.servlet.ServletException;
@@ -18,7 +21,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.not;
 import static org.mockito.Mockito.mock;
@@ -117,6 +123,42 @@ public class LiveNodeServletTest {
         assertThat(getResponseContent, containsString(postResponseContent));
     }
 
+    @Test
+    public void nodesAreStreamedToTheLivePreview() throws ServletException, IOException {
+        liveEvents.setStreamDuration(200);
+        try {
+            new liveEvents(registry).doGet(request, response);
+        } finally {
+            liveEvents.setStreamDuration(TimeUnit.MINUTES.toMillis(5));
+        }
+
+        String responseContent = response.getOutputStream().toString();
+        assertThat(responseContent, containsString("event: sync\ndata: [\"http://localhost:40000\",\"http://localhost:40001\"]"));
+        assertThat(responseContent, containsString("event: nodeAdded\ndata: {\"id\":\"http://localhost:40000\""));
+        assertThat(responseContent, containsString("event: nodeAdded\ndata: {\"id\":\"http://localhost:40001\""));
+    }
+
+    @Test
+    public void onlyNodesOfTheRequestedGroupAreRendered() throws ServletException, IOException {
+        DockerSeleniumRemoteProxy proxyOne = (DockerSeleniumRemoteProxy) registry.getProxyById("http://localhost:40000");
+        Map<String, Object> requestedCapability = new HashMap<>();
+        requestedCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        requestedCapability.put(CapabilityType.PLATFORM, Platform.LINUX);
+        requestedCapability.put("group", "myGroup");
+        Assert.assertNotNull(proxyOne.getNewSession(requestedCapability));
+        when(request.getParameter("group")).thenReturn("myGroup");
+
+        try {
+            new live(registry).doGet(request, response);
+
+            String responseContent = response.getOutputStream().toString();
+            assertThat(responseContent, containsString("http://localhost:40000"));
+            assertThat(responseContent, not(containsString("http://localhost:40001")));
+        } finally {
+            proxyOne.teardown();
+        }
+    }
+
     @Test
     public void noRefreshInHtmlWhenParameterIsInvalid() throws ServletException, IOException {
         when(request.getParameter("refresh")).thenReturn("XYZ");
@@ -0,0 +1,86 @@
+package de.zalando.tip.zalenium.servlet;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.grid.internal.RemoteProxy;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NodeVersionCacheTest {
+
+    private static final JsonObject STATUS = new JsonParser()
+            .parse("{\"value\": {\"build\": {\"version\": \"2.53.1\"}}}").getAsJsonObject();
+
+    @Test
+    public void versionIsOnlyLookedUpOnce() {
+        NodeVersionCache versionCache = new NodeVersionCache();
+        RemoteProxy proxy = mock(RemoteProxy.class);
+        when(proxy.getStatus()).thenReturn(STATUS);
+
+        Assert.assertEquals(" (version : 2.53.1)", versionCache.getHtmlNodeVersion(proxy, 1000));
+        Assert.assertEquals(" (version : 2.53.1)", versionCache.getHtmlNodeVersion(proxy, 1000));
+        verify(proxy, times(1)).getStatus();
+    }
+
+    @Test
+    public void slowNodesDoNotStallTheOthers() throws InterruptedException {
+        NodeVersionCache versionCache = new NodeVersionCache();
+        CountDownLatch slowNodeAnswers = new CountDownLatch(1);
+        RemoteProxy slowProxy = mock(RemoteProxy.class);
+        when(slowProxy.getStatus()).thenAnswer(invocation -> {
+            slowNodeAnswers.await(5, TimeUnit.SECONDS);
+            return STATUS;
+        });
+        RemoteProxy proxy = mock(RemoteProxy.class);
+        when(proxy.getStatus()).thenReturn(STATUS);
+
+        versionCache.prefetch(Arrays.asList(slowProxy, proxy));
+        // Both lookups run at the same time
+        verify(proxy, timeout(1000)).getStatus();
+
+        Assert.assertEquals(" unknown version, the node did not answer in time",
+                versionCache.getHtmlNodeVersion(slowProxy, 100));
+        Assert.assertEquals(" (version : 2.53.1)", versionCache.getHtmlNodeVersion(proxy, 100));
+
+        slowNodeAnswers.countDown();
+        Assert.assertEquals(" (version : 2.53.1)", versionCache.getHtmlNodeVersion(slowProxy, 1000));
+        verify(slowProxy, times(1)).getStatus();
+    }
+
+    @Test
+    public void runningLookupIsNotWaitedForAfterTheDeadline() {
+        NodeVersionCache versionCache = new NodeVersionCache();
+        CountDownLatch nodeAnswers = new CountDownLatch(1);
+        RemoteProxy proxy = mock(RemoteProxy.class);
+        when(proxy.getStatus()).thenAnswer(invocation -> {
+            nodeAnswers.await(5, TimeUnit.SECONDS);
+            return STATUS;
+        });
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(" unknown version, the node did not answer in time",
+                versionCache.getHtmlNodeVersion(proxy, 0));
+        Assert.assertTrue(System.currentTimeMillis() - start < NodeVersionCache.LOOKUP_TIMEOUT);
+        nodeAnswers.countDown();
+    }
+
+    @Test
+    public void failedLookupsAreReported() {
+        NodeVersionCache versionCache = new NodeVersionCache();
+        RemoteProxy proxy = mock(RemoteProxy.class);
+        when(proxy.getStatus()).thenThrow(new IllegalStateException("node not reachable"));
+
+        Assert.assertEquals(" unknown version, node not reachable", versionCache.getHtmlNodeVersion(proxy, 1000));
+    }
+
+}
@@ -0,0 +1,124 @@
+package de.zalando.tip.zalenium.servlet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import de.zalando.tip.zalenium.util.TestResultsStore;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.internal.Registry;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResultsServletTest {
+
+    private File path;
+    private results resultsServlet;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ByteArrayOutputStream responseContent;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempDirectory("zalenium").toFile();
+        TestResultsStore store = TestResultsStore.getInstance(path.getAbsolutePath());
+        String templatesPath = new File("dashboard").getAbsolutePath();
+        for (int i = 0; i < 7; i++) {
+            String browser = i % 2 == 0 ? "chrome" : "firefox";
+            store.add(Collections.singletonList(new TestResultsStore.TestResult("test" + i, 10, "Zalenium", browser,
+                    "LINUX", "video" + i + ".mp4")), templatesPath);
+        }
+        resultsServlet = new results(Registry.newInstance(), store);
+
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        responseContent = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                responseContent.write(b);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(path);
+    }
+
+    @Test
+    public void resultsArePagedNewestFirst() throws ServletException, IOException {
+        when(request.getParameter("page")).thenReturn("2");
+        when(request.getParameter("pageSize")).thenReturn("3");
+
+        JsonObject body = get();
+
+        JsonArray found = body.getAsJsonArray("results");
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals("test3", found.get(0).getAsJsonObject().get("testName").getAsString());
+        Assert.assertTrue(body.get("hasMore").getAsBoolean());
+    }
+
+    @Test
+    public void resultsAreFiltered() throws ServletException, IOException {
+        when(request.getParameter("browser")).thenReturn("FIREFOX");
+        when(request.getParameter("platform")).thenReturn("linux");
+
+        JsonObject body = get();
+
+        JsonArray found = body.getAsJsonArray("results");
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals("test5", found.get(0).getAsJsonObject().get("testName").getAsString());
+        Assert.assertFalse(body.get("hasMore").getAsBoolean());
+    }
+
+    @Test
+    public void resultsAreFilteredByTime() throws ServletException, IOException {
+        when(request.getParameter("from")).thenReturn(String.valueOf(System.currentTimeMillis() + 60000));
+
+        Assert.assertEquals(0, get().getAsJsonArray("results").size());
+    }
+
+    @Test
+    public void invalidParametersFallBackToTheDefaults() throws ServletException, IOException {
+        when(request.getParameter("page")).thenReturn("XYZ");
+        when(request.getParameter("pageSize")).thenReturn("-1");
+
+        JsonObject body = get();
+
+        Assert.assertEquals(1, body.get("page").getAsInt());
+        Assert.assertEquals(1, body.getAsJsonArray("results").size());
+    }
+
+    private JsonObject get() throws ServletException, IOException {
+        resultsServlet.doGet(request, response);
+        return new JsonParser().parse(new String(responseContent.toByteArray(), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+    }
+
+}
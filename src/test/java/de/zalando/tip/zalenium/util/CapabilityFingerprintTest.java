@@ -0,0 +1,74 @@
+package de.zalando.tip.zalenium.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.grid.internal.utils.DefaultCapabilityMatcher;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CapabilityFingerprintTest {
+
+    @Test
+    public void fingerprintsMatchLikeTheDefaultCapabilityMatcher() {
+        List<Map<String, Object>> capabilities = new ArrayList<>();
+        capabilities.add(getCapabilities(BrowserType.CHROME, Platform.LINUX, null));
+        capabilities.add(getCapabilities(BrowserType.CHROME, "LINUX", "53.0"));
+        capabilities.add(getCapabilities(BrowserType.FIREFOX, "linux", "ANY"));
+        capabilities.add(getCapabilities(BrowserType.FIREFOX, Platform.ANY, ""));
+        capabilities.add(getCapabilities(BrowserType.EDGE, Platform.WIN10, "*"));
+        capabilities.add(getCapabilities(BrowserType.SAFARI, "Mac OS X", null));
+        capabilities.add(getCapabilities(BrowserType.SAFARI, Platform.MAC, 9));
+        capabilities.add(getCapabilities("Chrome", Platform.VISTA, null));
+        capabilities.add(getCapabilities("android", null, null));
+        capabilities.add(getCapabilities("ANDROID", null, null));
+
+        DefaultCapabilityMatcher matcher = new DefaultCapabilityMatcher();
+        for (Map<String, Object> requested : capabilities) {
+            for (Map<String, Object> node : capabilities) {
+                Assert.assertEquals(requested + " in " + node, matcher.matches(node, requested),
+                        CapabilityFingerprint.of(requested).matches(CapabilityFingerprint.of(node)));
+            }
+        }
+    }
+
+    @Test
+    public void sameCapabilitiesShareTheSameFingerprint() {
+        Map<String, Object> requested = getCapabilities(BrowserType.CHROME, Platform.LINUX, null);
+        Map<String, Object> namedRequest = getCapabilities(BrowserType.CHROME, Platform.LINUX, null);
+        namedRequest.put("name", "myTestName");
+
+        Assert.assertSame(CapabilityFingerprint.of(requested), CapabilityFingerprint.of(namedRequest));
+        Assert.assertNotSame(CapabilityFingerprint.of(requested),
+                CapabilityFingerprint.of(getCapabilities(BrowserType.FIREFOX, Platform.LINUX, null)));
+    }
+
+    @Test
+    public void fingerprintIsBuiltAgainWhenTheCapabilitiesChange() {
+        Map<String, Object> requested = getCapabilities(BrowserType.CHROME, Platform.LINUX, null);
+        CapabilityFingerprint chrome = CapabilityFingerprint.of(requested);
+
+        requested.put(CapabilityType.BROWSER_NAME, BrowserType.FIREFOX);
+
+        Assert.assertNotSame(chrome, CapabilityFingerprint.of(requested));
+        Assert.assertFalse(CapabilityFingerprint.of(requested).matches(chrome));
+    }
+
+    private static Map<String, Object> getCapabilities(String browserName, Object platform, Object version) {
+        Map<String, Object> capabilities = new HashMap<>();
+        capabilities.put(CapabilityType.BROWSER_NAME, browserName);
+        if (platform != null) {
+            capabilities.put(CapabilityType.PLATFORM, platform);
+        }
+        if (version != null) {
+            capabilities.put(CapabilityType.VERSION, version);
+        }
+        return capabilities;
+    }
+
+}
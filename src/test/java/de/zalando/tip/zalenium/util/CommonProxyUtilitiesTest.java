@@ -0,0 +1,120 @@
+package de.zalando.tip.zalenium.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class CommonProxyUtilitiesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] video = new byte[64 * 1024];
+    private final List<String> requestedRanges = new ArrayList<>();
+    private HttpServer server;
+    private boolean rangesSupported;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(video);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/video.mp4", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requestedRanges.add(range);
+            int start = 0;
+            if (range != null && rangesSupported) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                exchange.getResponseHeaders().add("Content-Range",
+                        String.format("bytes %s-%s/%s", start, video.length - 1, video.length));
+                exchange.sendResponseHeaders(206, video.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, video.length);
+            }
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(video, start, video.length - start);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void videoIsDownloadedToTheGivenFile() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "videos/video.mp4");
+
+        new CommonProxyUtilities().downloadToFile(getVideoUrl(), file);
+
+        Assert.assertArrayEquals(video, Files.readAllBytes(file.toPath()));
+        Assert.assertFalse(new File(file.getParentFile(), "video.mp4.part").exists());
+    }
+
+    @Test
+    public void interruptedDownloadContinuesWhereItStopped() throws IOException {
+        rangesSupported = true;
+        File file = temporaryFolder.newFile("video.mp4");
+        Files.write(new File(temporaryFolder.getRoot(), "video.mp4.part").toPath(), Arrays.copyOf(video, 1000));
+
+        new CommonProxyUtilities().downloadToFile(getVideoUrl(), file);
+
+        Assert.assertEquals("bytes=1000-", requestedRanges.get(0));
+        Assert.assertArrayEquals(video, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void interruptedDownloadStartsAgainWhenRangesAreNotSupported() throws IOException {
+        File file = temporaryFolder.newFile("video.mp4");
+        Files.write(new File(temporaryFolder.getRoot(), "video.mp4.part").toPath(), Arrays.copyOf(video, 1000));
+
+        new CommonProxyUtilities().downloadToFile(getVideoUrl(), file);
+
+        Assert.assertArrayEquals(video, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void truncatedStreamIsNotCopiedToTheFile() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "videos/video.mp4");
+
+        try {
+            new CommonProxyUtilities().copyToFile(new ByteArrayInputStream(Arrays.copyOf(video, 1000)), video.length,
+                    file);
+            Assert.fail("A truncated stream should not be copied");
+        } catch (IOException e) {
+            Assert.assertFalse(file.exists());
+            Assert.assertArrayEquals(new String[0], file.getParentFile().list());
+        }
+    }
+
+    @Test
+    public void copiedFileGetsTheDefaultPermissions() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "video.mp4");
+        new CommonProxyUtilities().copyToFile(new ByteArrayInputStream(video), video.length, file);
+
+        File otherFile = temporaryFolder.newFile("other.mp4");
+        Assert.assertEquals(Files.getPosixFilePermissions(otherFile.toPath()),
+                Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    private String getVideoUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/video.mp4";
+    }
+
+}
@@ -0,0 +1,60 @@
+package de.zalando.tip.zalenium.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TemplateTest {
+
+    @After
+    public void tearDown() {
+        Template.clearCache();
+    }
+
+    @Test
+    public void placeholdersAreReplacedAndEscaped() throws IOException {
+        Template template = Template.compile("<li data-video=\"{fileName}\">{testName} {missing}</li>");
+        Map<String, Object> values = new HashMap<>();
+        values.put("fileName", "video.mp4");
+        values.put("testName", "<script>alert('x') & \"y\"</script>");
+
+        Assert.assertEquals("<li data-video=\"video.mp4\">&lt;script&gt;alert(&#39;x&#39;) &amp; &quot;y&quot;" +
+                "&lt;/script&gt; </li>", template.render(values));
+    }
+
+    @Test
+    public void fragmentsAreRenderedAsTheyAre() throws IOException {
+        Template template = Template.compile("<ul>{testList}</ul> function() { return {a: 1}; }");
+        Map<String, Object> values = new HashMap<>();
+        values.put("testList", (Template.Fragment) out -> out.append("<li>test</li>"));
+
+        Assert.assertEquals("<ul><li>test</li></ul> function() { return {a: 1}; }", template.render(values));
+    }
+
+    @Test
+    public void templatesAreLoadedAgainOnlyWhenTheFileChanges() throws IOException {
+        File file = File.createTempFile("template", ".html");
+        try {
+            FileUtils.writeStringToFile(file, "first {value}", StandardCharsets.UTF_8);
+            Assert.assertTrue(file.setLastModified(1000));
+            Template template = Template.load(file);
+            Assert.assertSame(template, Template.load(file));
+
+            FileUtils.writeStringToFile(file, "second {value}", StandardCharsets.UTF_8);
+            Assert.assertTrue(file.setLastModified(2000));
+            Map<String, Object> values = new HashMap<>();
+            values.put("value", "1");
+            Assert.assertEquals("second 1", Template.load(file).render(values));
+        } finally {
+            FileUtils.forceDelete(file);
+        }
+    }
+
+}
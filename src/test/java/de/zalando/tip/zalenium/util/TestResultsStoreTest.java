@@ -0,0 +1,133 @@
+package de.zalando.tip.zalenium.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestResultsStoreTest {
+
+    private static final String TEMPLATES_PATH = new File("dashboard").getAbsolutePath();
+    private File path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempDirectory("zalenium").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(path);
+    }
+
+    @Test
+    public void resultsArePagedNewestFirst() throws IOException {
+        TestResultsStore store = new TestResultsStore(path.getAbsolutePath());
+        addResults(store, TestResultsStore.PAGE_SIZE + 2);
+
+        Assert.assertEquals(TestResultsStore.PAGE_SIZE + 2, store.getAmountOfResults());
+        Assert.assertEquals(2, store.getAmountOfPages());
+        List<TestResultsStore.TestResult> lastPage = store.getPage(2);
+        Assert.assertEquals(2, lastPage.size());
+        Assert.assertEquals("test" + (TestResultsStore.PAGE_SIZE + 1), lastPage.get(0).getTestName());
+        Assert.assertEquals("test0", store.getPage(1).get(TestResultsStore.PAGE_SIZE - 1).getTestName());
+        Assert.assertTrue(store.getPage(3).isEmpty());
+    }
+
+    @Test
+    public void dashboardShowsTheLatestTwoPages() throws IOException {
+        TestResultsStore store = new TestResultsStore(path.getAbsolutePath());
+        addResults(store, TestResultsStore.PAGE_SIZE * 2 + 1);
+
+        String dashboard = FileUtils.readFileToString(new File(path, "dashboard.html"), StandardCharsets.UTF_8);
+        Assert.assertTrue(dashboard.contains(">test" + TestResultsStore.PAGE_SIZE * 2 + "<"));
+        Assert.assertTrue(dashboard.contains(">test" + TestResultsStore.PAGE_SIZE + "<"));
+        Assert.assertFalse(dashboard.contains(">test0<"));
+        Assert.assertTrue(dashboard.contains(TestResultsStore.getPageFileName(1)));
+        String firstPage = FileUtils.readFileToString(new File(path, TestResultsStore.getPageFileName(1)),
+                StandardCharsets.UTF_8);
+        Assert.assertTrue(firstPage.contains(">test0<"));
+        Assert.assertTrue(firstPage.contains(TestResultsStore.getPageFileName(2)));
+
+        // A full page is not rendered again
+        File firstPageFile = new File(path, TestResultsStore.getPageFileName(1));
+        Assert.assertTrue(firstPageFile.setLastModified(0));
+        addResults(store, 1);
+        Assert.assertEquals(0, firstPageFile.lastModified());
+    }
+
+    @Test
+    public void resultsAreStoredInTimeOrder() throws IOException {
+        TestResultsStore store = new TestResultsStore(path.getAbsolutePath());
+        TestResultsStore.TestResult first = new TestResultsStore.TestResult("first", 1, "", "", "", "first.mp4");
+        TestResultsStore.TestResult second = new TestResultsStore.TestResult("second", 1, "", "", "", "second.mp4");
+        store.add(Collections.singletonList(second), TEMPLATES_PATH);
+        store.add(Collections.singletonList(first), TEMPLATES_PATH);
+
+        Assert.assertTrue(first.getTimestamp() >= second.getTimestamp());
+        List<TestResultsStore.TestResult> found = store.find(result -> true, second.getTimestamp(), 0, 10);
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals("first", found.get(0).getTestName());
+    }
+
+    @Test
+    public void testsFromAnExistingListAreImported() throws IOException {
+        String entryTemplate = FileUtils.readFileToString(new File(TEMPLATES_PATH, "list_template.html"),
+                StandardCharsets.UTF_8);
+        String list = entryTemplate.replace("{fileName}", "new.mp4").replace("{testName}", "newTest")
+                .replace("{testDuration}", "1m20s").replace("{browser}", "chrome").replace("{platform}", "LINUX")
+                .replace("{proxyName}", "Zalenium") + "\n" +
+                entryTemplate.replace("{fileName}", "old.mp4").replace("{testName}", "oldTest")
+                .replace("{testDuration}", "0m5s").replace("{browser}", "firefox").replace("{platform}", "MAC")
+                .replace("{proxyName}", "SauceLabs");
+        FileUtils.writeStringToFile(new File(path, TestResultsStore.LEGACY_LIST_FILE), list, StandardCharsets.UTF_8);
+
+        TestResultsStore store = new TestResultsStore(path.getAbsolutePath());
+        Assert.assertEquals(2, store.getAmountOfResults());
+        List<TestResultsStore.TestResult> page = store.getPage(1);
+        Assert.assertEquals("newTest", page.get(0).getTestName());
+        Assert.assertEquals(80, page.get(0).getDuration());
+        Assert.assertEquals("firefox", page.get(1).getBrowser());
+        Assert.assertEquals("MAC", page.get(1).getPlatform());
+        Assert.assertEquals("SauceLabs", page.get(1).getProxyName());
+        Assert.assertEquals("old.mp4", page.get(1).getFileName());
+
+        addResults(store, 1);
+        String dashboard = FileUtils.readFileToString(new File(path, "dashboard.html"), StandardCharsets.UTF_8);
+        Assert.assertTrue(dashboard.contains(">oldTest<"));
+        Assert.assertTrue(dashboard.contains(">test0<"));
+        Assert.assertEquals(3, new TestResultsStore(path.getAbsolutePath()).getAmountOfResults());
+    }
+
+    @Test
+    public void resultsAreLoadedFromTheLogAndIncompleteLinesAreRemoved() throws IOException {
+        addResults(new TestResultsStore(path.getAbsolutePath()), 3);
+        File resultsFile = new File(path, TestResultsStore.RESULTS_FILE);
+        FileUtils.writeStringToFile(resultsFile, "{\"testName\":\"incompl", StandardCharsets.UTF_8, true);
+
+        TestResultsStore store = new TestResultsStore(path.getAbsolutePath());
+        Assert.assertEquals(3, store.getAmountOfResults());
+        addResults(store, 1);
+
+        Assert.assertEquals(4, FileUtils.readLines(resultsFile, StandardCharsets.UTF_8).size());
+        Assert.assertEquals(4, store.getPage(1).size());
+    }
+
+    private void addResults(TestResultsStore store, int amount) throws IOException {
+        for (int i = 0; i < amount; i++) {
+            List<TestResultsStore.TestResult> results = new ArrayList<>(Collections.singletonList(
+                    new TestResultsStore.TestResult("test" + i, 80, "Zalenium", "chrome", "Linux", "video" + i + ".mp4")));
+            store.add(results, TEMPLATES_PATH);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.zalando.tip.zalenium.util;
+
+import de.zalando.tip.zalenium.proxy.DockerSeleniumStarterRemoteProxy;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.CapabilityType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ZaleniumCapabilityMatcherTest {
+
+    private DockerSeleniumStarterRemoteProxy dsStarterProxy;
+    private ZaleniumCapabilityMatcher matcher;
+
+    @Before
+    public void setUp() {
+        Registry registry = Registry.newInstance();
+        RegistrationRequest request = TestUtils.getRegistrationRequestForTesting(30000,
+                DockerSeleniumStarterRemoteProxy.class.getCanonicalName());
+        DockerSeleniumStarterRemoteProxy proxy = DockerSeleniumStarterRemoteProxy.getNewInstance(request, registry);
+        dsStarterProxy = spy(proxy);
+        // Added straight to the proxy set, so no docker-selenium containers are started
+        registry.getAllProxies().add(dsStarterProxy);
+
+        DefaultRemoteProxy cloudProxy = mock(DefaultRemoteProxy.class);
+        when(cloudProxy.getRegistry()).thenReturn(registry);
+        matcher = new ZaleniumCapabilityMatcher(cloudProxy);
+    }
+
+    @Test
+    public void dockerSeleniumIsOnlyCheckedOnceForTheSameCapabilities() {
+        Map<String, Object> chromeCapability = new HashMap<>();
+        chromeCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        chromeCapability.put(CapabilityType.PLATFORM, Platform.LINUX);
+        Map<String, Object> namedChromeCapability = new HashMap<>(chromeCapability);
+        namedChromeCapability.put("name", "myTestName");
+        Map<String, Object> edgeCapability = new HashMap<>();
+        edgeCapability.put(CapabilityType.BROWSER_NAME, BrowserType.EDGE);
+        edgeCapability.put(CapabilityType.PLATFORM, Platform.WIN10);
+
+        Assert.assertFalse(matcher.matches(new HashMap<>(), chromeCapability));
+        Assert.assertFalse(matcher.matches(new HashMap<>(), namedChromeCapability));
+        Assert.assertTrue(matcher.matches(new HashMap<>(), edgeCapability));
+        Assert.assertTrue(matcher.matches(new HashMap<>(), edgeCapability));
+
+        verify(dsStarterProxy, times(2)).hasCapability(anyMap());
+    }
+
+    @Test
+    public void dockerSeleniumIsCheckedAgainWhenItsCapabilitiesChange() {
+        Map<String, Object> chromeCapability = new HashMap<>();
+        chromeCapability.put(CapabilityType.BROWSER_NAME, BrowserType.CHROME);
+        chromeCapability.put(CapabilityType.PLATFORM, Platform.LINUX);
+
+        Assert.assertFalse(matcher.matches(new HashMap<>(), chromeCapability));
+        Assert.assertFalse(matcher.matches(new HashMap<>(), chromeCapability));
+        verify(dsStarterProxy, times(1)).hasCapability(anyMap());
+
+        // A docker-selenium proxy joining or leaving the grid can change what it is able to serve
+        dsStarterProxy.startPolling();
+        dsStarterProxy.teardown();
+
+        Assert.assertFalse(matcher.matches(new HashMap<>(), chromeCapability));
+        verify(dsStarterProxy, times(2)).hasCapability(anyMap());
+    }
+
+}